@@ -0,0 +1,88 @@
+package edu.uob;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic tables for the benchmarks. The rows are built in memory and
+ * written straight to .tbl files, so even a 10M row table is ready in
+ * seconds instead of going through millions of INSERT commands.
+ * The values come from a fixed seed, so every run sees the same data.
+ */
+public class BenchmarkData {
+
+    // JOIN marks AND teams ON team AND name 的另一张表
+    static final int TEAMS = 100;
+
+    // 一次交给 addRows 的行数
+    private static final int BATCH_ROWS = 100_000;
+
+    private static final String[] NAMES = {"Simon", "Sion", "Rob", "Chris", "Anna", "Ben", "Cara", "Dev"};
+
+    // 数据库名，比如 bench_1000；和 DBServer 一样放在 databases 下面
+    static String databaseName(int rows) {
+        return "bench_" + rows;
+    }
+
+    static File databaseFolder(int rows) {
+        return Paths.get("databases", databaseName(rows)).toAbsolutePath().toFile();
+    }
+
+    // marks (name, mark, pass, team) 有 rows 行，teams (name, city) 有 TEAMS 行
+    static File create(int rows) throws IOException {
+        File folder = databaseFolder(rows);
+        delete(folder.toPath());
+        Files.createDirectories(folder.toPath());
+        DatabaseManager manager = new DatabaseManager(folder.getPath());
+        manager.saveTable(marks(rows));
+        manager.saveTable(teams());
+        return folder;
+    }
+
+    static Table marks(int rows) {
+        Table table = new Table("marks", List.of("name", "mark", "pass", "team"));
+        Random random = new Random(42);
+        List<List<String>> batch = new ArrayList<>(Math.min(rows, BATCH_ROWS));
+        for (int i = 0; i < rows; i++) {
+            batch.add(List.of(NAMES[random.nextInt(NAMES.length)] + (i % 1000),
+                    Integer.toString(random.nextInt(101)),
+                    random.nextBoolean() ? "TRUE" : "FALSE",
+                    "team" + random.nextInt(TEAMS)));
+            if (batch.size() == BATCH_ROWS) {
+                table.addRows(batch);
+                batch.clear();
+            }
+        }
+        table.addRows(batch);
+        return table;
+    }
+
+    static Table teams() {
+        Table table = new Table("teams", List.of("name", "city"));
+        List<List<String>> rows = new ArrayList<>();
+        for (int i = 0; i < TEAMS; i++) {
+            rows.add(List.of("team" + i, "city" + (i % 10)));
+        }
+        table.addRows(rows);
+        return table;
+    }
+
+    static void delete(Path folder) throws IOException {
+        if (!Files.exists(folder)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
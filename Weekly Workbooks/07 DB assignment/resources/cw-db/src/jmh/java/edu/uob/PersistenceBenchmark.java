@@ -0,0 +1,76 @@
+package edu.uob;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * DatabaseManager's save and load paths: writing a table snapshot (.tbl)
+ * and opening a database and loading a table from it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class PersistenceBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    int rows;
+
+    private File folder;
+
+    private Table table;
+
+    private DatabaseManager manager;
+
+    // load 打开的数据库，在计时之外关闭（关闭会做 checkpoint 并停掉后台线程）
+    private DatabaseManager loader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = BenchmarkData.create(rows);
+        table = BenchmarkData.marks(rows);
+        manager = new DatabaseManager(folder.getPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        manager.close();
+        BenchmarkData.delete(folder.toPath());
+    }
+
+    @Benchmark
+    public Table save() throws IOException {
+        manager.saveTable(table);
+        return table;
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeLoader() throws IOException {
+        if (loader != null) {
+            loader.close();
+            loader = null;
+        }
+    }
+
+    @Benchmark
+    public Table load() throws IOException {
+        loader = new DatabaseManager(folder.getPath());
+        return loader.openDatabase().get("marks");
+    }
+}
@@ -0,0 +1,113 @@
+package edu.uob;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Commands through DBServer.handleCommand on a synthetic table of 1k to 10M
+ * rows: parsing alone, SELECT with and without WHERE, UPDATE, INSERT plus
+ * DELETE, and JOIN. Responses go to a sink that only counts characters, so
+ * the benchmark measures the server and not the building of one huge string.
+ * Throughput and sampled latency (with percentiles) are reported for each;
+ * run with -prof gc (the default in the bench profile) for allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class QueryBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    int rows;
+
+    private DBServer server;
+
+    // 下一条插入的行的 id（表里的 id 从 1 开始连续）
+    private int nextId;
+
+    // 只数字符的 sink
+    private static class CountingSink implements ResultSink {
+        long characters;
+
+        @Override
+        public void write(CharSequence text) {
+            characters += text.length();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkData.create(rows);
+        server = new DBServer();
+        run("USE " + BenchmarkData.databaseName(rows) + ";");
+        // 先把两个表加载进来
+        run("SELECT COUNT(*) FROM marks;");
+        run("SELECT COUNT(*) FROM teams;");
+        nextId = rows + 1;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkData.delete(BenchmarkData.databaseFolder(rows).toPath());
+    }
+
+    private long run(String command) {
+        CountingSink sink = new CountingSink();
+        server.handleCommand(command, sink);
+        return sink.characters;
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        blackhole.consume(new Parser(Tokenizer.tokenize(
+                "SELECT name, mark FROM marks WHERE (mark > 50 AND pass == TRUE) OR name LIKE 'Sim'")).parse());
+    }
+
+    @Benchmark
+    public long selectAll() {
+        return run("SELECT * FROM marks;");
+    }
+
+    @Benchmark
+    public long selectWhere() {
+        return run("SELECT name, mark FROM marks WHERE mark > 90 AND pass == TRUE;");
+    }
+
+    @Benchmark
+    public long selectById() {
+        return run("SELECT * FROM marks WHERE id == " + (rows / 2) + ";");
+    }
+
+    @Benchmark
+    public long update() {
+        return run("UPDATE marks SET mark = 50 WHERE id == " + (rows / 2) + ";");
+    }
+
+    // 每次插入一行再把它删掉，表的大小保持不变
+    @Benchmark
+    public long insertAndDelete() {
+        long characters = run("INSERT INTO marks VALUES ('Bench', 50, TRUE, 'team1');");
+        return characters + run("DELETE FROM marks WHERE id == " + nextId++ + ";");
+    }
+
+    @Benchmark
+    public long join() {
+        return run("JOIN marks AND teams ON team AND name;");
+    }
+}
@@ -0,0 +1,246 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregate functions (COUNT, SUM, AVG, MIN and MAX) over the rows selected
+ * by a WHERE clause, optionally grouped by one or more columns.
+ * Uses hash aggregation: every row's group key is looked up in a hash map of
+ * running totals. Keys and values are read from the typed columns (numbers
+ * as numbers, dictionary codes for strings), never through their text.
+ * A large input is split into chunks aggregated in parallel, and the partial
+ * totals are merged in chunk order, so groups come out in the order of
+ * their first row either way.
+ * The caller must hold the table's read lock.
+ */
+public class Aggregation {
+
+    public static final List<String> FUNCTIONS = List.of("COUNT", "SUM", "AVG", "MIN", "MAX");
+
+    // 分组的列和每个聚合函数读的列（COUNT(*) 是 null）
+    private final Column[] groupColumns;
+    private final String[] functions;
+    private final Column[] arguments;
+
+    // 没有 GROUP BY 时所有行都在这一组
+    private static final Object SINGLE_GROUP = "";
+
+    public Aggregation(Table table, List<Integer> groupBy, List<String> functions, List<Integer> arguments) {
+        this.groupColumns = new Column[groupBy.size()];
+        for (int i = 0; i < groupColumns.length; i++) {
+            groupColumns[i] = column(table, groupBy.get(i));
+        }
+        this.functions = functions.toArray(new String[0]);
+        this.arguments = new Column[functions.size()];
+        for (int i = 0; i < this.arguments.length; i++) {
+            Integer argument = arguments.get(i);
+            this.arguments[i] = argument == null ? null : column(table, argument);
+        }
+    }
+
+    // id 列没有 Column，需要时按 id 建一个
+    private static Column column(Table table, int columnIndex) {
+        if (columnIndex > 0) {
+            return table.getColumn(columnIndex);
+        }
+        LongColumn ids = new LongColumn();
+        for (int position = 0; position < table.getRowCount(); position++) {
+            ids.addLong(table.getId(position));
+        }
+        return ids;
+    }
+
+    /** One group: the position of its first row and a running total per function. */
+    public class Group {
+        final int firstRow;
+        final Total[] totals;
+
+        Group(int firstRow) {
+            this.firstRow = firstRow;
+            this.totals = new Total[functions.length];
+            for (int i = 0; i < totals.length; i++) {
+                totals[i] = new Total();
+            }
+        }
+
+        public int getFirstRow() {
+            return firstRow;
+        }
+
+        // 第 i 个聚合函数的结果（没有值时是空字符串）
+        public String result(int i) {
+            return totals[i].result(functions[i], arguments[i]);
+        }
+
+        void add(int position) {
+            for (int i = 0; i < totals.length; i++) {
+                totals[i].add(functions[i], arguments[i], position);
+            }
+        }
+
+        void merge(Group other) {
+            for (int i = 0; i < totals.length; i++) {
+                totals[i].merge(other.totals[i], arguments[i]);
+            }
+        }
+    }
+
+    // 一个聚合函数的中间结果；各个函数用到其中的一部分字段
+    private static class Total {
+        // 非空的格数（COUNT(*) 时是行数）
+        long count;
+        // 数字的个数和它们的和；都是整数并且没有溢出时 whole 为 true，和是 wholeSum
+        long numbers;
+        double sum;
+        boolean whole = true;
+        long wholeSum;
+        // 最小和最大值所在的行，还没有时为 -1
+        int minRow = -1;
+        int maxRow = -1;
+
+        void add(String function, Column column, int position) {
+            switch (function) {
+                case "COUNT":
+                    if (column == null || !column.isEmpty(position)) {
+                        count++;
+                    }
+                    break;
+                case "SUM":
+                case "AVG":
+                    if (column.isNumber(position)) {
+                        numbers++;
+                        sum += column.getNumber(position);
+                        if (whole) {
+                            boolean isWhole = column.isWhole(position);
+                            addWhole(isWhole, isWhole ? column.getWhole(position) : 0);
+                        }
+                    }
+                    break;
+                default:
+                    if (!column.isEmpty(position)) {
+                        if (minRow < 0 || column.compare(position, minRow) < 0) {
+                            minRow = position;
+                        }
+                        if (maxRow < 0 || column.compare(position, maxRow) > 0) {
+                            maxRow = position;
+                        }
+                    }
+            }
+        }
+
+        private void addWhole(boolean isWhole, long value) {
+            if (!isWhole) {
+                whole = false;
+                return;
+            }
+            try {
+                wholeSum = Math.addExact(wholeSum, value);
+            } catch (ArithmeticException e) {
+                whole = false;
+            }
+        }
+
+        // other 是后面的一块：相等的最小 / 最大值保留前面的行
+        void merge(Total other, Column column) {
+            count += other.count;
+            numbers += other.numbers;
+            sum += other.sum;
+            if (whole) {
+                addWhole(other.whole, other.wholeSum);
+            }
+            if (other.minRow >= 0 && (minRow < 0 || column.compare(other.minRow, minRow) < 0)) {
+                minRow = other.minRow;
+            }
+            if (other.maxRow >= 0 && (maxRow < 0 || column.compare(other.maxRow, maxRow) > 0)) {
+                maxRow = other.maxRow;
+            }
+        }
+
+        String result(String function, Column column) {
+            switch (function) {
+                case "COUNT":
+                    return Long.toString(count);
+                case "SUM":
+                    if (numbers == 0) return "";
+                    return whole ? Long.toString(wholeSum) : format(sum);
+                case "AVG":
+                    if (numbers == 0) return "";
+                    return format((whole ? (double) wholeSum : sum) / numbers);
+                case "MIN":
+                    return minRow < 0 ? "" : column.get(minRow);
+                default:
+                    return maxRow < 0 ? "" : column.get(maxRow);
+            }
+        }
+    }
+
+    // 整数值不带小数点
+    static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * 按 positions 里的行（升序）聚合，返回各组（按第一行的顺序）
+     * 没有 GROUP BY 时总是返回一组，即使没有任何行
+     */
+    public List<Group> run(int[] positions) {
+        Map<Object, Group> groups;
+        if (positions.length > 0 && ParallelScan.isWorthIt(positions.length)) {
+            List<Map<Object, Group>> parts = ParallelScan.mapChunks(positions.length,
+                    (from, to) -> aggregate(positions, from, to));
+            groups = parts.get(0);
+            for (int i = 1; i < parts.size(); i++) {
+                for (Map.Entry<Object, Group> entry : parts.get(i).entrySet()) {
+                    Group group = groups.putIfAbsent(entry.getKey(), entry.getValue());
+                    if (group != null) {
+                        group.merge(entry.getValue());
+                    }
+                }
+            }
+        } else {
+            groups = aggregate(positions, 0, positions.length);
+        }
+        if (groups.isEmpty() && groupColumns.length == 0) {
+            groups.put(SINGLE_GROUP, new Group(-1));
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private Map<Object, Group> aggregate(int[] positions, int from, int to) {
+        Map<Object, Group> groups = new LinkedHashMap<>();
+        for (int i = from; i < to; i++) {
+            int position = positions[i];
+            Object key = keyOf(position);
+            Group group = groups.get(key);
+            if (group == null) {
+                group = new Group(position);
+                groups.put(key, group);
+            }
+            group.add(position);
+        }
+        return groups;
+    }
+
+    private Object keyOf(int position) {
+        switch (groupColumns.length) {
+            case 0:
+                return SINGLE_GROUP;
+            case 1:
+                return groupColumns[0].groupKey(position);
+            default: {
+                Object[] key = new Object[groupColumns.length];
+                for (int i = 0; i < key.length; i++) {
+                    key[i] = groupColumns[i].groupKey(position);
+                }
+                return Arrays.asList(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package edu.uob;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A log written by a background thread, so the thread that logs a line never
+ * waits for the console or the disk. Lines go into a bounded queue shared by
+ * all logs. A line is dropped (and counted) when the queue is full or the log
+ * is over its rate limit; the number of dropped lines is written as soon as
+ * the log can write again.
+ */
+public class AsyncLog {
+
+    // 用系统属性 -Ddb.logLinesPerSecond=... 设置，每个日志每秒最多写这么多行
+    public static final String RATE_PROPERTY = "db.logLinesPerSecond";
+
+    private static final int QUEUE_CAPACITY = 4096;
+
+    private static final long SECOND_NANOS = 1_000_000_000L;
+
+    // 所有日志共用一个队列和一个写线程
+    private static final BlockingQueue<Entry> QUEUE = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    private static Thread writer;
+
+    private static AsyncLog console;
+
+    private static class Entry {
+        final AsyncLog log;
+        final String line;
+
+        Entry(AsyncLog log, String line) {
+            this.log = log;
+            this.line = line;
+        }
+    }
+
+    // null 表示写到标准错误
+    private final File file;
+
+    private final int linesPerSecond;
+
+    // 限流：当前这一秒从什么时候开始，已经写了几行（由 this 保护）
+    private long windowStart = System.nanoTime();
+    private int windowLines;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private AsyncLog(File file) {
+        this.file = file;
+        this.linesPerSecond = Integer.getInteger(RATE_PROPERTY, 100);
+    }
+
+    // 服务器的错误和提示信息
+    public static synchronized AsyncLog console() {
+        if (console == null) {
+            console = new AsyncLog(null);
+        }
+        return console;
+    }
+
+    // 追加到 file 的日志；文件只在写的时候打开
+    public static AsyncLog toFile(File file) {
+        return new AsyncLog(file);
+    }
+
+    public void log(String line) {
+        if (!withinRate() || !QUEUE.offer(new Entry(this, line))) {
+            dropped.incrementAndGet();
+            return;
+        }
+        startWriter();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private synchronized boolean withinRate() {
+        long now = System.nanoTime();
+        if (now - windowStart >= SECOND_NANOS) {
+            windowStart = now;
+            windowLines = 0;
+        }
+        return ++windowLines <= linesPerSecond;
+    }
+
+    private static synchronized void startWriter() {
+        if (writer != null) {
+            return;
+        }
+        writer = new Thread(AsyncLog::writeLoop, "async-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // 一次取出队列里所有的行，按日志分开写
+    private static void writeLoop() {
+        List<Entry> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(QUEUE.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            QUEUE.drainTo(batch);
+            Map<AsyncLog, List<String>> lines = new LinkedHashMap<>();
+            for (Entry entry : batch) {
+                lines.computeIfAbsent(entry.log, log -> new ArrayList<>()).add(entry.line);
+            }
+            batch.clear();
+            for (Map.Entry<AsyncLog, List<String>> entry : lines.entrySet()) {
+                entry.getKey().write(entry.getValue());
+            }
+        }
+    }
+
+    private void write(List<String> lines) {
+        long droppedLines = dropped.getAndSet(0);
+        if (droppedLines > 0) {
+            lines.add(0, "(" + droppedLines + " log lines dropped)");
+        }
+        if (file == null) {
+            for (String line : lines) {
+                System.err.println(line);
+            }
+            return;
+        }
+        try {
+            Files.write(file.toPath(), lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("Could not write to " + file + ": " + e.getMessage());
+        }
+    }
+}
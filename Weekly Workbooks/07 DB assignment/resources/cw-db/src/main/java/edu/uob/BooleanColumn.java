@@ -0,0 +1,105 @@
+package edu.uob;
+
+import java.util.BitSet;
+
+/** TRUE/FALSE column stored as two bitmaps (value and null). */
+public class BooleanColumn extends Column {
+
+    private BitSet values = new BitSet();
+    private BitSet nulls = new BitSet();
+
+    // 只接受 BNF 里的大写写法
+    public static boolean canHold(String value) {
+        return value.isEmpty() || value.equals("TRUE") || value.equals("FALSE");
+    }
+
+    @Override
+    public String getType() {
+        return "BOOLEAN";
+    }
+
+    @Override
+    public boolean accepts(String value) {
+        return canHold(value);
+    }
+
+    @Override
+    public void add(String value) {
+        ++size;
+        set(size - 1, value);
+    }
+
+    @Override
+    public void set(int position, String value) {
+        nulls.set(position, value.isEmpty());
+        values.set(position, value.equals("TRUE"));
+    }
+
+    public boolean isNull(int position) {
+        return nulls.get(position);
+    }
+
+    public boolean getBoolean(int position) {
+        return values.get(position);
+    }
+
+    @Override
+    public boolean isEmpty(int position) {
+        return nulls.get(position);
+    }
+
+    @Override
+    public String get(int position) {
+        if (nulls.get(position)) {
+            return "";
+        }
+        return values.get(position) ? "TRUE" : "FALSE";
+    }
+
+    @Override
+    public boolean test(int position, Condition condition) {
+        // TRUE/FALSE never parse as numbers, so this is always a string comparison
+        return condition.testText(get(position));
+    }
+
+    @Override
+    public Filter compile(Condition condition) {
+        // 只有三种取值，先把每种的结果算好
+        boolean trueMatches = condition.testText("TRUE");
+        boolean falseMatches = condition.testText("FALSE");
+        boolean emptyMatches = condition.testText("");
+        BitSet cells = values;
+        BitSet empty = nulls;
+        return (selection, count) -> {
+            int kept = 0;
+            for (int i = 0; i < count; ++i) {
+                int position = selection[i];
+                boolean match = empty.get(position) ? emptyMatches : cells.get(position) ? trueMatches : falseMatches;
+                selection[kept] = position;
+                kept += match ? 1 : 0;
+            }
+            return kept;
+        };
+    }
+
+    @Override
+    public void removeAll(BitSet removed) {
+        values = compact(values, removed, size);
+        nulls = compact(nulls, removed, size);
+        size -= removed.cardinality();
+    }
+
+    @Override
+    public long estimateBytes() {
+        return (values.size() + nulls.size()) / 8;
+    }
+
+    @Override
+    public Column copy() {
+        BooleanColumn column = new BooleanColumn();
+        column.values = (BitSet) values.clone();
+        column.nulls = (BitSet) nulls.clone();
+        column.size = size;
+        return column;
+    }
+}
@@ -0,0 +1,166 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the opened tables of the current database within a memory budget.
+ * A table is the unit of caching: it is loaded from its .tbl pages in one go.
+ * When the estimated size of the resident tables goes over the budget, the
+ * CLOCK hand passes over the tables, clearing the reference bit of recently
+ * used ones and evicting the first one that was not used since the last pass.
+ * A table that is in use (locked) is never evicted; a dirty one is written
+ * back before it is dropped, and it is opened again on its next use.
+ */
+public class BufferPool {
+
+    // 用系统属性 -Ddb.bufferPoolBytes=... 设置，默认是最大堆的一半
+    public static final String BUDGET_PROPERTY = "db.bufferPoolBytes";
+
+    // 一个常驻内存的表
+    static class Frame {
+        final TableCatalog catalog;
+        final Table table;
+        // CLOCK 的引用位：用过之后置位，指针经过时清掉
+        volatile boolean referenced = true;
+        long bytes;
+
+        Frame(TableCatalog catalog, Table table) {
+            this.catalog = catalog;
+            this.table = table;
+        }
+    }
+
+    private final long budgetBytes;
+
+    // 以下三个字段由 this 保护
+    private final List<Frame> frames = new ArrayList<>();
+    private int hand;
+    private long residentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong writeBacks = new AtomicLong();
+
+    public BufferPool(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    public static BufferPool withConfiguredBudget() {
+        return new BufferPool(Long.getLong(BUDGET_PROPERTY, Runtime.getRuntime().maxMemory() / 2));
+    }
+
+    void hit(Frame frame) {
+        frame.referenced = true;
+        hits.incrementAndGet();
+    }
+
+    void miss() {
+        misses.incrementAndGet();
+    }
+
+    void wroteBack() {
+        writeBacks.incrementAndGet();
+    }
+
+    // 一个表刚加载或刚创建；调用方要保证这时没有别的线程在改它
+    synchronized Frame admit(TableCatalog catalog, Table table) {
+        Frame frame = new Frame(catalog, table);
+        frame.bytes = table.estimateBytes();
+        residentBytes += frame.bytes;
+        frames.add(frame);
+        return frame;
+    }
+
+    // 表改过之后重新估计大小；调用方拿着表的写锁
+    synchronized void resized(Frame frame) {
+        if (!frames.contains(frame)) {
+            return;
+        }
+        long bytes = frame.table.estimateBytes();
+        residentBytes += bytes - frame.bytes;
+        frame.bytes = bytes;
+    }
+
+    synchronized void remove(Frame frame) {
+        int index = frames.indexOf(frame);
+        if (index < 0) {
+            return;
+        }
+        frames.remove(index);
+        if (index < hand) {
+            --hand;
+        }
+        residentBytes -= frame.bytes;
+    }
+
+    // 换了数据库：之前的表都不再常驻
+    synchronized void clear() {
+        frames.clear();
+        hand = 0;
+        residentBytes = 0;
+    }
+
+    /**
+     * 超出预算时按 CLOCK 换出表，keep（调用方正在用的表）不会被换出
+     * 转两圈还换不出来（都在用）就先放着，下次再试
+     */
+    synchronized void evictIfOverBudget(Table keep) {
+        int steps = 2 * frames.size();
+        while (residentBytes > budgetBytes && !frames.isEmpty() && steps-- > 0) {
+            if (hand >= frames.size()) {
+                hand = 0;
+            }
+            Frame frame = frames.get(hand);
+            if (frame.table == keep || frame.referenced) {
+                frame.referenced = false;
+                ++hand;
+                continue;
+            }
+            if (frame.catalog.evict(frame)) {
+                frames.remove(hand);
+                residentBytes -= frame.bytes;
+                evictions.incrementAndGet();
+            } else {
+                ++hand;
+            }
+        }
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public synchronized int getResidentTables() {
+        return frames.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getWriteBacks() {
+        return writeBacks.get();
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + getHits() + " misses=" + getMisses() + " evictions=" + getEvictions()
+                + " writeBacks=" + getWriteBacks() + " resident=" + getResidentTables() + " tables/"
+                + getResidentBytes() + " bytes budget=" + budgetBytes + " bytes";
+    }
+}
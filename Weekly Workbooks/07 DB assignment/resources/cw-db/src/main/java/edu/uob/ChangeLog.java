@@ -0,0 +1,26 @@
+package edu.uob;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where INSERT, UPDATE and DELETE record their changes, after applying them
+ * to the table. Outside a transaction this is the DatabaseManager, which
+ * writes each statement to the log and commits it; inside a transaction it
+ * is the session's Transaction, which keeps everything until COMMIT.
+ */
+public interface ChangeLog {
+
+    void logInsert(Table table, List<String> row) throws IOException;
+
+    void logUpdate(Table table, String id, String column, String value) throws IOException;
+
+    void logDelete(Table table, String id) throws IOException;
+
+    // 一条语句结束
+    void commit() throws IOException;
+
+    // 修改或删除一行之前调用（调用方拿着表的写锁），事务在这里记下回滚要用的旧值
+    default void beforeChange(Table table, int position) {
+    }
+}
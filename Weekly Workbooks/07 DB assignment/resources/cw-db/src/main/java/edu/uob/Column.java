@@ -0,0 +1,187 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * One column of a Table stored as a typed vector. The type is inferred from
+ * the values (long, double, boolean or dictionary-encoded string); a column
+ * is rebuilt with a wider type as soon as a value no longer fits. Typed
+ * columns only hold values whose canonical text is exactly what the user
+ * wrote, so every cell is returned unchanged. An empty string is stored as
+ * a null in the typed columns.
+ */
+public abstract class Column {
+
+    /**
+     * A condition compiled against one column, with the literal and the
+     * comparator already resolved. It filters a batch of rows at a time,
+     * and several threads may use it at once (each with its own batch).
+     */
+    public interface Filter {
+        // selection 的前 count 个是行的位置：满足条件的留在前面（顺序不变），返回它们的个数
+        int apply(int[] selection, int count);
+    }
+
+    protected int size;
+
+    public int size() {
+        return size;
+    }
+
+    public abstract String getType();
+
+    public abstract boolean accepts(String value);
+
+    // Callers must check accepts() first
+    public abstract void add(String value);
+
+    public abstract void set(int position, String value);
+
+    public abstract String get(int position);
+
+    public abstract boolean test(int position, Condition condition);
+
+    // ----------------- 聚合和分组用（不转成文本） -----------------
+
+    public boolean isEmpty(int position) {
+        return get(position).isEmpty();
+    }
+
+    // 这一格是数字时返回 true，值是 getNumber()
+    public boolean isNumber(int position) {
+        return false;
+    }
+
+    public double getNumber(int position) {
+        throw new IllegalStateException(getType() + " column has no numbers");
+    }
+
+    // 这一格是（可以精确相加的）整数时返回 true，值是 getWhole()
+    public boolean isWhole(int position) {
+        return false;
+    }
+
+    public long getWhole(int position) {
+        throw new IllegalStateException(getType() + " column has no whole numbers");
+    }
+
+    // 文本相同的两格返回相等的键，文本不同的返回不相等的键
+    public Object groupKey(int position) {
+        return get(position);
+    }
+
+    // ORDER BY 和 MIN / MAX 的顺序，和 OrderedIndex 一样：数字按大小排在前面，其他的按字符串排
+    public int compare(int a, int b) {
+        boolean aNumber = isNumber(a);
+        boolean bNumber = isNumber(b);
+        if (aNumber && bNumber) {
+            // + 0.0 把 -0.0 变成 0.0
+            return Double.compare(getNumber(a) + 0.0, getNumber(b) + 0.0);
+        }
+        if (aNumber != bNumber) {
+            return aNumber ? -1 : 1;
+        }
+        return get(a).compareTo(get(b));
+    }
+
+    // 调用方拿着表锁，并且用完之前不会修改这一列
+    public abstract Filter compile(Condition condition);
+
+    // 没有专门的写法时逐行调用 test
+    protected Filter rowByRow(Condition condition) {
+        return (selection, count) -> {
+            int kept = 0;
+            for (int i = 0; i < count; ++i) {
+                int position = selection[i];
+                if (test(position, condition)) {
+                    selection[kept++] = position;
+                }
+            }
+            return kept;
+        };
+    }
+
+    // 删除 removed 中标记的行，其余的行向前移动
+    public abstract void removeAll(BitSet removed);
+
+    public abstract Column copy();
+
+    // 大概占用的堆内存（字节），缓冲池用来决定换出哪些表
+    public abstract long estimateBytes();
+
+    // 指定类型的空列（类型名和 getType() 一致）
+    public static Column ofType(String type) {
+        switch (type) {
+            case "LONG": return new LongColumn();
+            case "DOUBLE": return new DoubleColumn();
+            case "BOOLEAN": return new BooleanColumn();
+            case "STRING": return new StringColumn();
+            default: throw new IllegalArgumentException("Unknown column type " + type);
+        }
+    }
+
+    // 选出能装下所有值的最窄类型
+    public static Column of(List<String> values) {
+        Column column = emptyColumnFor(values, null);
+        for (String value : values) {
+            column.add(value);
+        }
+        return column;
+    }
+
+    // Returns a copy of the column with a type wide enough to also hold value
+    public static Column widen(Column column, String value) {
+        List<String> values = new ArrayList<>(column.size());
+        for (int i = 0; i < column.size(); ++i) {
+            values.add(column.get(i));
+        }
+        Column widened = emptyColumnFor(values, value);
+        for (String existing : values) {
+            widened.add(existing);
+        }
+        return widened;
+    }
+
+    private static Column emptyColumnFor(List<String> values, String extraValue) {
+        boolean canBeLong = true;
+        boolean canBeDouble = true;
+        boolean canBeBoolean = true;
+        List<String> candidates = values;
+        if (extraValue != null) {
+            candidates = new ArrayList<>(values);
+            candidates.add(extraValue);
+        }
+        for (String value : candidates) {
+            canBeLong = canBeLong && LongColumn.canHold(value);
+            canBeDouble = canBeDouble && DoubleColumn.canHold(value);
+            canBeBoolean = canBeBoolean && BooleanColumn.canHold(value);
+            if (!canBeLong && !canBeDouble && !canBeBoolean) {
+                break;
+            }
+        }
+        if (canBeLong) return new LongColumn();
+        if (canBeDouble) return new DoubleColumn();
+        if (canBeBoolean) return new BooleanColumn();
+        return new StringColumn();
+    }
+
+    protected static int grow(int capacity, int needed) {
+        return Math.max(needed, capacity + (capacity >> 1) + 16);
+    }
+
+    protected static BitSet compact(BitSet bits, BitSet removed, int size) {
+        BitSet result = new BitSet();
+        int target = 0;
+        for (int i = 0; i < size; ++i) {
+            if (!removed.get(i)) {
+                if (bits.get(i)) {
+                    result.set(target);
+                }
+                ++target;
+            }
+        }
+        return result;
+    }
+}
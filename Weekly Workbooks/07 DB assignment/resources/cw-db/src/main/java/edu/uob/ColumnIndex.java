@@ -0,0 +1,21 @@
+package edu.uob;
+
+import java.util.Collection;
+
+/** A secondary index on one column of a Table, mapping cell values to row ids. */
+public interface ColumnIndex {
+
+    String getColumn();
+
+    String getType();
+
+    void add(String value, int id);
+
+    void remove(String value, int id);
+
+    /**
+     * Returns the ids of the rows that may satisfy "column comparator value",
+     * or null if this index cannot answer that comparison.
+     */
+    Collection<Integer> find(String comparator, String value);
+}
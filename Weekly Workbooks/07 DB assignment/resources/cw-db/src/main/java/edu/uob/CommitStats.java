@@ -0,0 +1,75 @@
+package edu.uob;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Commit counters for each durability mode: how many commits and fsyncs,
+ * how long commit() took on average, and commits per second while the mode
+ * was in use.
+ */
+public class CommitStats {
+
+    private static class ModeStats {
+        long commits;
+        long fsyncs;
+        long latencyNanos;
+        // 这个模式被使用的总时间（不包括当前这一段）
+        long activeNanos;
+    }
+
+    private final Map<Durability, ModeStats> stats = new EnumMap<>(Durability.class);
+
+    private Durability current;
+
+    private long currentSince;
+
+    public CommitStats(Durability initial) {
+        for (Durability mode : Durability.values()) {
+            stats.put(mode, new ModeStats());
+        }
+        current = initial;
+        currentSince = System.nanoTime();
+    }
+
+    public synchronized void switchTo(Durability mode) {
+        long now = System.nanoTime();
+        stats.get(current).activeNanos += now - currentSince;
+        current = mode;
+        currentSince = now;
+    }
+
+    public synchronized void committed(Durability mode, long latencyNanos) {
+        ModeStats modeStats = stats.get(mode);
+        ++modeStats.commits;
+        modeStats.latencyNanos += latencyNanos;
+    }
+
+    public synchronized void synced(Durability mode) {
+        ++stats.get(mode).fsyncs;
+    }
+
+    public synchronized long getCommits(Durability mode) {
+        return stats.get(mode).commits;
+    }
+
+    public synchronized long getFsyncs(Durability mode) {
+        return stats.get(mode).fsyncs;
+    }
+
+    // 表格形式，和 SELECT 的结果一样：表头一行，每个模式一行
+    public synchronized String toTable() {
+        long now = System.nanoTime();
+        StringBuilder table = new StringBuilder("mode\tcurrent\tcommits\tfsyncs\tavgLatencyMicros\tcommitsPerSecond\n");
+        for (Durability mode : Durability.values()) {
+            ModeStats modeStats = stats.get(mode);
+            long activeNanos = modeStats.activeNanos + (mode == current ? now - currentSince : 0);
+            long averageMicros = modeStats.commits == 0 ? 0 : modeStats.latencyNanos / modeStats.commits / 1000;
+            long perSecond = activeNanos == 0 ? 0 : Math.round(modeStats.commits * 1e9 / activeNanos);
+            table.append(mode).append('\t').append(mode == current ? "TRUE" : "FALSE").append('\t')
+                    .append(modeStats.commits).append('\t').append(modeStats.fsyncs).append('\t')
+                    .append(averageMicros).append('\t').append(perSecond).append('\n');
+        }
+        return table.toString();
+    }
+}
@@ -0,0 +1,98 @@
+package edu.uob;
+
+/**
+ * A single "attribute comparator value" test from a WHERE clause.
+ * The literal is parsed once up front so that typed columns can compare
+ * numbers without parsing anything per cell, and the comparator is turned
+ * into a table of outcomes (for less, equal, greater, unordered) so that no
+ * cell ever looks at the comparator string. NaN is unordered: like the plain
+ * double comparisons it replaces, only != holds for it.
+ */
+public class Condition {
+
+    final String attribute;
+    final String comparator;
+    final String value;
+    // Whether the literal is a number, and its value if so
+    final boolean numeric;
+    final double number;
+    // Whether the comparator holds when the cell is less than, equal to, greater than or unordered with the literal
+    private final boolean[] outcomes;
+    private final boolean like;
+
+    public Condition(String attribute, String comparator, String value) {
+        this.attribute = attribute;
+        this.comparator = comparator;
+        this.value = value;
+        double parsed = 0;
+        boolean isNumber = true;
+        try {
+            parsed = Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            isNumber = false;
+        }
+        this.numeric = isNumber;
+        this.number = parsed;
+        this.like = comparator.equals("LIKE");
+        switch (comparator) {
+            case "==": outcomes = new boolean[] {false, true, false, false}; break;
+            case "!=": outcomes = new boolean[] {true, false, true, true}; break;
+            case ">": outcomes = new boolean[] {false, false, true, false}; break;
+            case "<": outcomes = new boolean[] {true, false, false, false}; break;
+            case ">=": outcomes = new boolean[] {false, true, true, false}; break;
+            case "<=": outcomes = new boolean[] {true, true, false, false}; break;
+            default: outcomes = new boolean[4]; break;
+        }
+    }
+
+    // 0, 1 or 2 for a cell less than, equal to or greater than the literal; 3 when either is NaN
+    static int order(double cellNumber, double literal) {
+        return cellNumber < literal ? 0 : cellNumber == literal ? 1 : cellNumber > literal ? 2 : 3;
+    }
+
+    // Indexed by order(); columns copy it into their compiled filters
+    boolean[] outcomes() {
+        return outcomes;
+    }
+
+    // Numbers are compared numerically when both sides parse, everything else as strings
+    public boolean test(String cellValue) {
+        if (numeric && !comparator.equals("LIKE")) {
+            try {
+                return testNumber(Double.parseDouble(cellValue));
+            } catch (NumberFormatException e) {
+                // Not a number, fall back to string comparison.
+            }
+        }
+        return testText(cellValue);
+    }
+
+    // For a cell already known to be numeric; callers must check usesNumbers() first
+    public boolean testNumber(double cellNumber) {
+        return outcomes[order(cellNumber, number)];
+    }
+
+    public boolean testText(String cellValue) {
+        if (like) {
+            return cellValue.contains(value);
+        }
+        return outcomes[Integer.signum(cellValue.compareTo(value)) + 1];
+    }
+
+    // A numeric cell is compared as a number only if the literal is one too (LIKE is always textual)
+    public boolean usesNumbers() {
+        return numeric && !like;
+    }
+
+    public String getAttribute() {
+        return attribute;
+    }
+
+    public String getComparator() {
+        return comparator;
+    }
+
+    public String getValue() {
+        return value;
+    }
+}
@@ -1,29 +1,59 @@
 package edu.uob;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.nio.file.Files;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /** This class implements the DB server. */
 public class DBServer {
 
-    private static final char END_OF_TRANSMISSION = 4;
+    // 等待执行的命令最多这么多条，再多的连接就先不读
+    private static final int WORKER_QUEUE_CAPACITY = 1024;
+    // SELECT / JOIN 的结果攒到这么多字符就交给 sink，不再整个拼成一个字符串
+    static final int RESULT_CHUNK_SIZE = 8192;
+    static final String EXPORT_FOLDER = "exports";
+    // COPY 每读这么多行就追加到表里一次
+    static final int COPY_BATCH_SIZE = 4096;
     private String storageFolderPath;
     private DatabaseManager manager;
     // 内存储存所有的表 键为表名
-    private Map<String, Table> tables;
+    private TableCatalog tables;
     private String currentDatabase;
+    // USE 和 DROP DATABASE 会换掉整个数据库，拿写锁；其他命令拿读锁，再各自锁住用到的表
+    private final ReentrantReadWriteLock databaseLock = new ReentrantReadWriteLock();
+    // 解析好的命令计划，键是去掉字面量之后的命令
+    private final PlanCache planCache = new PlanCache(PlanCache.DEFAULT_CAPACITY);
+    // 打开的表放在缓冲池里，超出内存预算时换出
+    private final BufferPool bufferPool = BufferPool.withConfiguredBudget();
+    // handleCommand(String) 的所有命令属于同一个会话；网络连接各有自己的会话
+    private final Session defaultSession = new Session();
+    // 还没结束的事务个数，有事务时不能换掉数据库
+    private final AtomicInteger activeTransactions = new AtomicInteger();
+    // 每种命令的次数、延迟、扫描和返回的行数；SHOW STATS 和 JMX 读这里
+    private final QueryStats queryStats = new QueryStats();
+    // 超过 db.slowQueryMillis 的命令，异步写进 databases/slow-queries.log
+    private final AsyncLog slowQueryLog;
+    // 事务里只能读写数据，不能改表结构
+    private static final Set<QueryPlan.Kind> TRANSACTION_COMMANDS = EnumSet.of(QueryPlan.Kind.SELECT,
+            QueryPlan.Kind.INSERT, QueryPlan.Kind.UPDATE, QueryPlan.Kind.DELETE, QueryPlan.Kind.JOIN,
+            QueryPlan.Kind.EXPORT, QueryPlan.Kind.COPY, QueryPlan.Kind.SHOW_DURABILITY, QueryPlan.Kind.SHOW_STATS, QueryPlan.Kind.COMMIT, QueryPlan.Kind.ROLLBACK);
 
 
     public static void main(String args[]) throws IOException {
@@ -40,17 +70,16 @@ public class DBServer {
             // Create the database storage folder if it doesn't already exist !
             Files.createDirectories(Paths.get(storageFolderPath));
         } catch(IOException ioe) {
-            System.out.println("Can't seem to create database storage folder " + storageFolderPath);
+            AsyncLog.console().log("Can't seem to create database storage folder " + storageFolderPath);
         }
-        manager = new DatabaseManager(storageFolderPath);
-        tables = new HashMap<>();
-        // 加载所有表
+        slowQueryLog = AsyncLog.toFile(new File(storageFolderPath, "slow-queries.log"));
+        manager = new DatabaseManager(storageFolderPath, bufferPool);
+        tables = new TableCatalog();
+        // 打开数据库，表用到时才加载
         try {
-            tables = manager.loadAllTables();
-            // 测试输出 应该删除
-            System.out.println("已经加载的表" + tables.keySet());
+            tables = manager.openDatabase();
         } catch(IOException e){
-            System.out.println("加载时出错");
+            AsyncLog.console().log("加载时出错: " + e.getMessage());
         }
 
 
@@ -65,6 +94,59 @@ public class DBServer {
 
     //
     public String handleCommand(String command) {
+        StringBuilder response = new StringBuilder();
+        handleCommand(command, response::append);
+        return response.toString();
+    }
+
+    /**
+     * Same as {@link #handleCommand(String)}, but the response is written to the sink as it is
+     * produced, so a large SELECT or JOIN never has to be held in memory as one string.
+     */
+    public void handleCommand(String command, ResultSink sink) {
+        handleCommand(command, sink, defaultSession);
+    }
+
+    /**
+     * Runs a command for one client session; the session's transaction (BEGIN ... COMMIT)
+     * carries over from one command to the next.
+     */
+    public void handleCommand(String command, ResultSink sink, Session session) {
+        // Time the command and count what it scanned and what it sent back
+        QueryStats.Sample sample = new QueryStats.Sample();
+        QueryStats.MeteredSink metered = new QueryStats.MeteredSink(sink);
+        long start = System.nanoTime();
+        QueryStats.Sample previous = QueryStats.begin(sample);
+        try {
+            String result;
+            synchronized (session) {
+                result = execute(command, metered, session);
+            }
+            // null: the result has already been streamed to the sink
+            if (result != null) {
+                metered.write(result);
+            }
+        } finally {
+            QueryStats.end(previous);
+            sample.latencyNanos = System.nanoTime() - start;
+            metered.finish(sample);
+            queryStats.record(sample);
+            if (queryStats.isSlow(sample)) {
+                slowQueryLog.log(QueryStats.slowQueryLine(sample, currentDatabase, command == null ? "" : command.trim()));
+            }
+        }
+    }
+
+    // The client has gone: roll back the transaction it left open
+    public void endSession(Session session) {
+        synchronized (session) {
+            if (session.getTransaction() != null) {
+                endTransaction(session, false);
+            }
+        }
+    }
+
+    private String execute(String command, ResultSink sink, Session session) {
         if (command == null || command.trim().isEmpty()) {
             return "[ERROR] Empty command received";
         }
@@ -75,495 +157,951 @@ public class DBServer {
         }
         // Remove the trailing semicolon and trim again
         trimmed = trimmed.substring(0, trimmed.length() - 1).trim();
-        // For keyword comparisons, convert to uppercase but preserve the original for value extraction
-        String upperCmd = trimmed.toUpperCase();
-        
+
+        // Tokenise once; commands that only differ in their literals share a cached plan
+        List<String> parameters = new ArrayList<>();
+        QueryPlan plan;
         try {
-            // ----------------- USE Command -----------------
-            if (upperCmd.startsWith("USE")) {
-                // Format: USE databaseName;
-                String[] tokens = trimmed.split("\\s+");
-                if (tokens.length != 2) {
-                    return "[ERROR] Incorrect USE command format";
-                }
-                String dbName = tokens[1].toLowerCase();
-                File dbDir = new File(manager.getStorageFolderPath(), dbName);
-                if (!dbDir.exists()) {
-                    return "[ERROR] Database does not exist";
-                }
-                // Set current database: update manager storage path and reload tables
-                currentDatabase = dbName; // currentDatabase is a field in DBServer
-                manager.setStorageFolderPath(dbDir.getAbsolutePath());
-                tables = manager.loadAllTables();
-                return "[OK]";
+            plan = planFor(trimmed, parameters);
+        } catch (IllegalArgumentException e) {
+            return "[ERROR] " + e.getMessage();
+        }
+        QueryStats.command(plan.getKind());
+
+        if (session.getTransaction() != null && !TRANSACTION_COMMANDS.contains(plan.getKind())) {
+            return plan.getKind() == QueryPlan.Kind.BEGIN ? "[ERROR] A transaction is already in progress"
+                    : "[ERROR] Only SELECT, INSERT, UPDATE, DELETE, JOIN, EXPORT and COPY can be used inside a transaction";
+        }
+
+        // Commands on different tables run in parallel; readers of a table share its lock
+        boolean replacesDatabase = plan.getKind() == QueryPlan.Kind.USE || plan.getKind() == QueryPlan.Kind.DROP_DATABASE;
+        Lock lock = replacesDatabase ? databaseLock.writeLock() : databaseLock.readLock();
+        lock.lock();
+        try {
+            if (replacesDatabase && activeTransactions.get() > 0) {
+                return "[ERROR] Cannot change the database while transactions are in progress";
             }
-            // ----------------- CREATE DATABASE Command -----------------
-            else if (upperCmd.startsWith("CREATE DATABASE")) {
-                // Format: CREATE DATABASE databaseName;
-                String[] tokens = trimmed.split("\\s+");
-                if (tokens.length != 3) {
-                    return "[ERROR] Incorrect CREATE DATABASE command format";
-                }
-                String dbName = tokens[2].toLowerCase();
-                File dbDir = new File(manager.getStorageFolderPath(), dbName);
-                if (dbDir.exists()) {
-                    return "[ERROR] Database already exists";
-                }
-                if (dbDir.mkdir()) {
-                    return "[OK]";
-                } else {
-                    return "[ERROR] Failed to create database";
-                }
+            ChangeLog log = session.getTransaction() != null ? session.getTransaction() : manager;
+            return plan.explain ? executeExplain(session, plan, parameters, log) : run(session, plan, parameters, sink, log);
+        } catch (TransactionConflict e) {
+            // Probably two transactions waiting for each other: give up this one so the other can go on
+            if (session.getTransaction() != null) {
+                endTransaction(session, false);
+                return "[ERROR] " + e.getMessage() + ", transaction rolled back";
             }
-            // ----------------- CREATE TABLE Command -----------------
-            else if (upperCmd.startsWith("CREATE TABLE")) {
-                // Format: CREATE TABLE tableName [(col1, col2, ...)];
-                int openParen = trimmed.indexOf("(");
-                int closeParen = trimmed.indexOf(")");
-                String tableName;
-                List<String> colList = new ArrayList<>();
-                if (openParen == -1 || closeParen == -1) {
-                    // No parentheses: create an empty table (only id column)
-                    String[] tokens = trimmed.split("\\s+");
-                    if (tokens.length != 3) {
-                        return "[ERROR] Incorrect CREATE TABLE command format";
-                    }
-                    tableName = tokens[2].toLowerCase();
-                } else {
-                    // Parentheses exist: parse the column list
-                    String beforeParen = trimmed.substring(0, openParen).trim();
-                    String[] tokens = beforeParen.split("\\s+");
-                    if (tokens.length != 3) {
-                        return "[ERROR] Incorrect CREATE TABLE command format";
-                    }
-                    tableName = tokens[2].toLowerCase();
-                    String colsPart = trimmed.substring(openParen + 1, closeParen).trim();
-                    if (colsPart.isEmpty()) {
-                        return "[ERROR] No columns specified";
-                    }
-                    String[] cols = colsPart.split(",");
-                    for (String col : cols) {
-                        String colName = col.trim();
-                        if (isReservedKeyword(colName)) {
-                            return "[ERROR] Column name cannot be a reserved keyword: " + colName;
-                        }
-                        colList.add(colName);
-                    }
-                }
-                if (tables.containsKey(tableName)) {
-                    return "[ERROR] Table already exists";
-                }
-                Table table = new Table(tableName, colList);
-                tables.put(tableName, table);
-                manager.saveTable(table);
+            return "[ERROR] " + e.getMessage();
+        } catch (IOException e) {
+            return "[ERROR] IO Exception: " + e.getMessage();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Runs a parsed command; the caller holds the database lock
+    private String run(Session session, QueryPlan plan, List<String> parameters, ResultSink sink, ChangeLog log) throws IOException {
+        switch (plan.getKind()) {
+            case USE: return executeUse(plan);
+            case CREATE_DATABASE: return executeCreateDatabase(plan);
+            case CREATE_TABLE: return executeCreateTable(plan);
+            case CREATE_INDEX: return withTable(session, plan.name, true, table -> executeCreateIndex(table, plan));
+            case INSERT: return withTable(session, plan.name, true, table -> executeInsert(table, plan, parameters, log));
+            case SELECT: return withTable(session, plan.name, false, table -> executeSelect(table, plan, parameters, sink));
+            case UPDATE: return withTable(session, plan.name, true, table -> executeUpdate(table, plan, parameters, log));
+            case DELETE: return withTable(session, plan.name, true, table -> executeDelete(table, plan, parameters, log));
+            case ALTER_ADD: return withTable(session, plan.name, true, table -> executeAlterAdd(table, plan));
+            case ALTER_DROP: return withTable(session, plan.name, true, table -> executeAlterDrop(table, plan));
+            case DROP_TABLE: return executeDropTable(session, plan);
+            case DROP_DATABASE: return executeDropDatabase(plan);
+            case JOIN: return executeJoin(session, plan, sink);
+            case IMPORT: return executeImport(plan, parameters);
+            case EXPORT: return withTable(session, plan.name, false, table -> executeExport(table, plan, parameters));
+            case COPY: return withTable(session, plan.name, true, table -> executeCopy(table, plan, parameters, log));
+            case SET_DURABILITY:
+                manager.setDurability(Durability.valueOf(plan.name));
                 return "[OK]";
+            case SHOW_DURABILITY: return "[OK]\n" + manager.getCommitStats().toTable();
+            case SHOW_STATS: return "[OK]\n" + queryStats.toTable();
+            case ANALYZE: return executeAnalyze(session, plan);
+            case BEGIN: return executeBegin(session);
+            case COMMIT: return executeCommit(session);
+            case ROLLBACK: return executeRollback(session);
+            default: return "[ERROR] Unknown command";
+        }
+    }
+
+    // Cached plan for the command's shape (parsed on a miss); its literals are added to parameters
+    private QueryPlan planFor(String command, List<String> parameters) {
+        List<Token> tokens = Tokenizer.tokenize(command);
+        String key = Tokenizer.normalise(tokens, parameters);
+        QueryPlan plan = planCache.get(key);
+        if (plan == null) {
+            plan = new Parser(tokens).parse();
+            if (plan.isCacheable()) {
+                planCache.put(key, plan);
             }
-            // ----------------- INSERT INTO Command -----------------
-            else if (upperCmd.startsWith("INSERT INTO")) {
-                // Format: INSERT INTO tableName VALUES (val1, val2, ...);
-                int indexValues = upperCmd.indexOf("VALUES");
-                if (indexValues == -1) return "[ERROR] INSERT syntax error";
-                String beforeValues = trimmed.substring(0, indexValues).trim();
-                String[] tokens = beforeValues.split("\\s+");
-                if (tokens.length != 3) return "[ERROR] Incorrect INSERT command format";
-                String tableName = tokens[2].toLowerCase();
-                Table table = tables.get(tableName);
-                if (table == null) return "[ERROR] Table does not exist";
-                int openParen = trimmed.indexOf('(', indexValues);
-                int closeParen = trimmed.indexOf(')', openParen);
-                if (openParen == -1 || closeParen == -1) return "[ERROR] INSERT syntax error";
-                String valuesPart = trimmed.substring(openParen + 1, closeParen).trim();
-                if (valuesPart.isEmpty()) return "[ERROR] No values provided";
-                String[] values = valuesPart.split(",");
-                List<String> rowData = new ArrayList<>();
-                for (String value : values) {
-                    value = value.trim();
-                    // Remove string quotes if present
-                    if ((value.startsWith("'") && value.endsWith("'")) ||
-                        (value.startsWith("\"") && value.endsWith("\""))) {
-                        value = value.substring(1, value.length() - 1);
-                    }
-                    rowData.add(value);
-                }
-                try {
-                    table.addRow(rowData);
-                } catch (Exception e) {
-                    return "[ERROR] " + e.getMessage();
-                }
-                manager.saveTable(table);
-                return "[OK]";
+        }
+        return plan;
+    }
+
+    // A command that runs while holding the lock of one table; null means it wrote its own response
+    private interface TableCommand {
+        String run(Table table) throws IOException;
+    }
+
+    private String withTable(Session session, String name, boolean write, TableCommand command) throws IOException {
+        Table table = lockTable(session, name, write);
+        if (table == null) return "[ERROR] Table does not exist";
+        // A transaction keeps the tables it changes to itself until it ends
+        if (write && session.getTransaction() != null) {
+            session.getTransaction().own(table);
+        }
+        try {
+            return command.run(table);
+        } finally {
+            unlockTable(table, write);
+        }
+    }
+
+    // Look up a table and lock it. Returns null if there is no such table, or it was dropped while we waited.
+    // A table with another session's uncommitted changes is only locked once that transaction has ended.
+    private Table lockTable(Session session, String name, boolean write) throws IOException {
+        while (true) {
+            Table table = tables.get(name);
+            if (table == null) return null;
+            Lock lock = write ? table.getLock().writeLock() : table.getLock().readLock();
+            lock.lock();
+            if (!tables.isCurrent(name, table)) {
+                // Dropped (and maybe re-created), or evicted from the buffer pool, while waiting for the lock
+                lock.unlock();
+                continue;
             }
-            // ----------------- SELECT Command -----------------
-            else if (upperCmd.startsWith("SELECT")) {
-                // Format: SELECT <columns> FROM tableName [WHERE condition];
-                int indexFrom = upperCmd.indexOf("FROM");
-                if (indexFrom == -1) return "[ERROR] SELECT syntax error";
-                String columnsPart = trimmed.substring(6, indexFrom).trim(); // Extract between "SELECT" and "FROM"
-                List<String> selectedColumns = new ArrayList<>();
-                boolean selectAll = false;
-                if (columnsPart.equals("*")) {
-                    selectAll = true;
-                } else {
-                    String[] cols = columnsPart.split(",");
-                    for (String col : cols) {
-                        selectedColumns.add(col.trim());
-                    }
-                }
-                // Process FROM part: extract table name
-                String afterFrom = trimmed.substring(indexFrom + 4).trim();
-                String[] fromTokens = afterFrom.split("\\s+");
-                if (fromTokens.length < 1) return "[ERROR] SELECT command format error";
-                String tableName = fromTokens[0].toLowerCase();
-                Table table = tables.get(tableName);
-                if (table == null) return "[ERROR] Table does not exist";
-                
-                // Determine selected column indices and header
-                List<Integer> selectedIndices = new ArrayList<>();
-                List<String> header = new ArrayList<>();
-                if (selectAll) {
-                    header.addAll(table.getColumns());
-                } else {
-                    for (String col : selectedColumns) {
-                        int idx = -1;
-                        for (int i = 0; i < table.getColumns().size(); i++) {
-                            if (table.getColumns().get(i).equalsIgnoreCase(col)) {
-                                idx = i;
-                                break;
-                            }
-                        }
-                        if (idx == -1) return "[ERROR] SELECT column " + col + " does not exist";
-                        selectedIndices.add(idx);
-                        header.add(table.getColumns().get(idx));
-                    }
-                }
-                
-                // Process WHERE clause (supporting compound conditions connected by AND)
-                List<Condition> conditions = new ArrayList<>();
-                if (upperCmd.contains("WHERE")) {
-                    int indexWhere = upperCmd.indexOf("WHERE");
-                    String whereClause = trimmed.substring(indexWhere + 5).trim();
-                    // Split conditions by "AND", case-insensitive
-                    String[] condStrings = whereClause.split("(?i)\\s+AND\\s+");
-                    for (String condStr : condStrings) {
-                        condStr = condStr.trim();
-                        // Remove surrounding parentheses if present
-                        if (condStr.startsWith("(") && condStr.endsWith(")")) {
-                            condStr = condStr.substring(1, condStr.length() - 1).trim();
-                        }
-                        Condition cond = parseCondition(condStr);
-                        if (cond == null) return "[ERROR] Invalid WHERE condition: " + condStr;
-                        // Verify that the attribute exists in the table
-                        boolean attrFound = false;
-                        for (String col : table.getColumns()) {
-                            if (col.equalsIgnoreCase(cond.attribute)) {
-                                attrFound = true;
-                                break;
-                            }
-                        }
-                        if (!attrFound) return "[ERROR] WHERE clause attribute does not exist: " + cond.attribute;
-                        conditions.add(cond);
-                    }
+            Transaction owner = table.getOwner();
+            if (owner == null || owner == session.getTransaction()) return table;
+            lock.unlock();
+            try {
+                if (!table.awaitRelease(Transaction.LOCK_WAIT_MS)) {
+                    throw new TransactionConflict("Table " + name + " is in use by another transaction");
                 }
-                
-                // Build result by iterating through rows and applying all conditions
-                StringBuilder result = new StringBuilder();
-                result.append(String.join("\t", header)).append("\n");
-                for (List<String> row : table.getRows()) {
-                    boolean include = true;
-                    for (Condition cond : conditions) {
-                        int colIndex = -1;
-                        for (int i = 0; i < table.getColumns().size(); i++) {
-                            if (table.getColumns().get(i).equalsIgnoreCase(cond.attribute)) {
-                                colIndex = i;
-                                break;
-                            }
-                        }
-                        if (colIndex == -1) return "[ERROR] WHERE clause attribute does not exist: " + cond.attribute;
-                        String cellValue = row.get(colIndex);
-                        if (!evaluateCondition(cellValue, cond)) {
-                            include = false;
-                            break;
-                        }
-                    }
-                    if (include) {
-                        List<String> rowOutput = new ArrayList<>();
-                        if (selectAll) {
-                            rowOutput.addAll(row);
-                        } else {
-                            for (int idx : selectedIndices) {
-                                rowOutput.add(row.get(idx));
-                            }
-                        }
-                        result.append(String.join("\t", rowOutput)).append("\n");
-                    }
-                }
-                return "[OK]\n" + result.toString();
-            }
-            // ----------------- UPDATE Command -----------------
-            else if (upperCmd.startsWith("UPDATE")) {
-                // Format: UPDATE tableName SET column = value WHERE column == value;
-                int indexWhere = upperCmd.indexOf("WHERE");
-                if (indexWhere < 0) return "[ERROR] Missing WHERE clause in UPDATE";
-                String beforeWhere = trimmed.substring(0, indexWhere).trim();
-                String[] tokens = beforeWhere.split("\\s+");
-                if (tokens.length < 4) return "[ERROR] Incorrect UPDATE command format";
-                String tableName = tokens[1].toLowerCase();
-                Table table = tables.get(tableName);
-                if (table == null) return "[ERROR] Table does not exist";
-                if (!tokens[2].equalsIgnoreCase("SET")) return "[ERROR] Missing SET keyword in UPDATE";
-                String setClause = trimmed.substring(trimmed.indexOf("SET") + 3, indexWhere).trim();
-                String[] setParts = setClause.split("=");
-                if (setParts.length != 2) return "[ERROR] SET clause format error";
-                String updateColumn = setParts[0].trim();
-                String updateValue = setParts[1].trim();
-                if ((updateValue.startsWith("'") && updateValue.endsWith("'")) ||
-                    (updateValue.startsWith("\"") && updateValue.endsWith("\""))) {
-                    updateValue = updateValue.substring(1, updateValue.length() - 1);
-                }
-                String conditionClause = trimmed.substring(indexWhere + 5).trim();
-                String conditionColumn = null, conditionValue = null;
-                if (conditionClause.contains("==")) {
-                    String[] condParts = conditionClause.split("==");
-                    if (condParts.length != 2) return "[ERROR] WHERE clause format error in UPDATE";
-                    conditionColumn = condParts[0].trim();
-                    conditionValue = condParts[1].trim();
-                    if ((conditionValue.startsWith("'") && conditionValue.endsWith("'")) ||
-                        (conditionValue.startsWith("\"") && conditionValue.endsWith("\""))) {
-                        conditionValue = conditionValue.substring(1, conditionValue.length() - 1);
-                    }
-                } else {
-                    return "[ERROR] Unsupported condition in UPDATE WHERE clause";
-                }
-                int updateColIndex = -1, conditionColIndex = -1;
-                for (int i = 0; i < table.getColumns().size(); i++) {
-                    String col = table.getColumns().get(i);
-                    if (col.equalsIgnoreCase(updateColumn)) updateColIndex = i;
-                    if (col.equalsIgnoreCase(conditionColumn)) conditionColIndex = i;
-                }
-                if (updateColIndex == -1) return "[ERROR] Update attribute does not exist";
-                if (conditionColIndex == -1) return "[ERROR] WHERE clause attribute does not exist in UPDATE";
-                for (List<String> row : table.getRows()) {
-                    if (row.get(conditionColIndex).equals(conditionValue)) {
-                        row.set(updateColIndex, updateValue);
-                    }
-                }
-                manager.saveTable(table);
-                return "[OK]";
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for table " + name);
             }
-            // ----------------- DELETE Command -----------------
-            else if (upperCmd.startsWith("DELETE")) {
-                // Format: DELETE FROM tableName WHERE condition;
-                int indexWhere = upperCmd.indexOf("WHERE");
-                if (indexWhere < 0) return "[ERROR] DELETE command missing WHERE clause";
-                String beforeWhere = trimmed.substring(0, indexWhere).trim();
-                String[] tokens = beforeWhere.split("\\s+");
-                if (tokens.length != 3) return "[ERROR] DELETE command format error";
-                if (!tokens[0].equalsIgnoreCase("DELETE") || !tokens[1].equalsIgnoreCase("FROM"))
-                    return "[ERROR] DELETE command syntax error";
-                String tableName = tokens[2].toLowerCase();
-                Table table = tables.get(tableName);
-                if (table == null) return "[ERROR] Table does not exist";
-                
-                String whereClause = trimmed.substring(indexWhere + 5).trim();
-                // Split conditions by "AND" (case-insensitive)
-                String[] condStrings = whereClause.split("(?i)\\s+AND\\s+");
-                List<Condition> conditions = new ArrayList<>();
-                for (String condStr : condStrings) {
-                    condStr = condStr.trim();
-                    // Remove enclosing parentheses if present
-                    if (condStr.startsWith("(") && condStr.endsWith(")")) {
-                        condStr = condStr.substring(1, condStr.length() - 1).trim();
-                    }
-                    Condition cond = parseCondition(condStr);
-                    if (cond == null) return "[ERROR] Invalid WHERE condition: " + condStr;
-                    // Check if the attribute exists in the table
-                    boolean attrFound = false;
-                    for (String col : table.getColumns()) {
-                        if (col.equalsIgnoreCase(cond.attribute)) {
-                            attrFound = true;
-                            break;
-                        }
-                    }
-                    if (!attrFound) return "[ERROR] WHERE clause attribute does not exist: " + cond.attribute;
-                    conditions.add(cond);
-                }
-                
-                // Iterate through rows in reverse and remove those that satisfy all conditions.
-                for (int i = table.getRows().size() - 1; i >= 0; i--) {
-                    List<String> row = table.getRows().get(i);
-                    boolean match = true;
-                    for (Condition cond : conditions) {
-                        int colIndex = -1;
-                        for (int j = 0; j < table.getColumns().size(); j++) {
-                            if (table.getColumns().get(j).equalsIgnoreCase(cond.attribute)) {
-                                colIndex = j;
-                                break;
-                            }
-                        }
-                        if (colIndex == -1) {
-                            match = false;
-                            break;
-                        }
-                        String cellValue = row.get(colIndex);
-                        if (!evaluateCondition(cellValue, cond)) {
-                            match = false;
-                            break;
-                        }
-                    }
-                    if (match) {
-                        table.getRows().remove(i);
-                    }
+        }
+    }
+
+    // Waited too long for a table that another transaction has changed
+    private static class TransactionConflict extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        TransactionConflict(String message) {
+            super(message);
+        }
+    }
+
+    private void unlockTable(Table table, boolean write) {
+        if (write) {
+            // The table may have grown; evict others if the buffer pool is over budget
+            tables.resized(table);
+            table.getLock().writeLock().unlock();
+        } else {
+            table.getLock().readLock().unlock();
+        }
+    }
+
+    // ----------------- BEGIN / COMMIT / ROLLBACK Commands -----------------
+    private String executeBegin(Session session) {
+        // Format: BEGIN [TRANSACTION];
+        session.setTransaction(new Transaction());
+        activeTransactions.incrementAndGet();
+        return "[OK]";
+    }
+
+    private String executeCommit(Session session) {
+        // Format: COMMIT;
+        Transaction transaction = session.getTransaction();
+        if (transaction == null) return "[ERROR] No transaction in progress";
+        try {
+            // All the transaction's changes go to the log in one write, with one commit
+            manager.commitTransaction(transaction.getRedo());
+        } catch (IOException e) {
+            endTransaction(session, false);
+            return "[ERROR] IO Exception: " + e.getMessage() + ", transaction rolled back";
+        }
+        endTransaction(session, true);
+        return "[OK]";
+    }
+
+    private String executeRollback(Session session) {
+        // Format: ROLLBACK;
+        if (session.getTransaction() == null) return "[ERROR] No transaction in progress";
+        endTransaction(session, false);
+        return "[OK]";
+    }
+
+    // Ends the session's transaction; a rollback first puts back the old rows under the tables' write locks
+    private void endTransaction(Session session, boolean committed) {
+        Transaction transaction = session.getTransaction();
+        session.setTransaction(null);
+        if (!committed) {
+            // The transaction still owns these tables, so they cannot have been dropped or evicted
+            List<Table> changed = new ArrayList<>(transaction.getTables());
+            changed.sort(Comparator.comparing(Table::getName));
+            for (Table table : changed) {
+                table.getLock().writeLock().lock();
+            }
+            try {
+                transaction.rollback();
+            } finally {
+                for (Table table : changed) {
+                    unlockTable(table, true);
                 }
-                manager.saveTable(table);
+            }
+        }
+        transaction.release();
+        activeTransactions.decrementAndGet();
+    }
+
+    // ----------------- USE Command -----------------
+    private String executeUse(QueryPlan plan) throws IOException {
+        // Format: USE databaseName;
+        String dbName = plan.name;
+        File dbDir = new File(storageFolderPath, dbName);
+        if (!dbDir.exists()) {
+            return "[ERROR] Database does not exist";
+        }
+        // Set current database: update manager storage path and open it (tables are loaded on first use)
+        currentDatabase = dbName; // currentDatabase is a field in DBServer
+        manager.setStorageFolderPath(dbDir.getAbsolutePath());
+        tables = manager.openDatabase();
+        return "[OK]";
+    }
+
+    // ----------------- CREATE DATABASE Command -----------------
+    private String executeCreateDatabase(QueryPlan plan) {
+        // Format: CREATE DATABASE databaseName;
+        File dbDir = new File(storageFolderPath, plan.name);
+        if (dbDir.exists()) {
+            return "[ERROR] Database already exists";
+        }
+        if (dbDir.mkdir()) {
+            return "[OK]";
+        } else {
+            return "[ERROR] Failed to create database";
+        }
+    }
+
+    // ----------------- CREATE TABLE Command -----------------
+    private String executeCreateTable(QueryPlan plan) throws IOException {
+        // Format: CREATE TABLE tableName [(col1, col2, ...)];
+        String tableName = plan.name;
+        for (String colName : plan.columns) {
+            if (isReservedKeyword(colName)) {
+                return "[ERROR] Column name cannot be a reserved keyword: " + colName;
+            }
+        }
+        Table table = new Table(tableName, plan.columns);
+        // Hold the new table's lock until CREATE is logged, so no change to it can be logged first
+        table.getLock().writeLock().lock();
+        try {
+            if (!tables.putIfAbsent(tableName, table)) {
+                return "[ERROR] Table already exists";
+            }
+            manager.logCreateTable(table);
+            manager.commit();
+        } finally {
+            table.getLock().writeLock().unlock();
+        }
+        return "[OK]";
+    }
+
+    // ----------------- CREATE INDEX Command -----------------
+    private String executeCreateIndex(Table table, QueryPlan plan) throws IOException {
+        // Format: CREATE INDEX ON tableName (columnName) [USING HASH|ORDERED|TRIGRAM];
+        String columnName = plan.columns.get(0);
+        int columnIndex = table.getColumnIndex(columnName);
+        if (columnIndex == -1) return "[ERROR] Column does not exist";
+        if (!table.createIndex(columnName, plan.indexType)) return "[ERROR] Column " + columnName + " is already indexed";
+        manager.logCreateIndex(table, table.getColumns().get(columnIndex), plan.indexType);
+        manager.commit();
+        return "[OK]";
+    }
+
+    // ----------------- ANALYZE Command -----------------
+    private String executeAnalyze(Session session, QueryPlan plan) throws IOException {
+        // Format: ANALYZE [tableName]; rebuilds the planner statistics, one table shows them
+        if (plan.name != null) {
+            return withTable(session, plan.name, true, table -> "[OK]\n" + table.analyze().toTable(table));
+        }
+        for (String name : tables.names()) {
+            String response = withTable(session, name, true, table -> {
+                table.analyze();
                 return "[OK]";
+            });
+            if (response.startsWith("[ERROR]")) return response;
+        }
+        return "[OK]";
+    }
+
+    // ----------------- INSERT INTO Command -----------------
+    private String executeInsert(Table table, QueryPlan plan, List<String> parameters, ChangeLog log) throws IOException {
+        // Format: INSERT INTO tableName VALUES (val1, val2, ...) [, (val1, val2, ...)]...;
+        List<List<String>> rows = new ArrayList<>(plan.values.size() / plan.rowWidth);
+        for (int start = 0; start < plan.values.size(); start += plan.rowWidth) {
+            List<String> rowData = new ArrayList<>(plan.rowWidth);
+            for (QueryPlan.Value value : plan.values.subList(start, start + plan.rowWidth)) {
+                rowData.add(value.bind(parameters));
             }
-            // ----------------- ALTER TABLE Command -----------------
-            else if (upperCmd.startsWith("ALTER")) {
-                // Format: ALTER TABLE tableName ADD columnName  OR  ALTER TABLE tableName DROP columnName;
-                String[] tokens = trimmed.split("\\s+");
-                if (tokens.length != 5) return "[ERROR] Incorrect ALTER TABLE command format";
-                if (!tokens[1].equalsIgnoreCase("TABLE")) return "[ERROR] Missing TABLE keyword in ALTER TABLE";
-                String tableName = tokens[2].toLowerCase();
-                Table table = tables.get(tableName);
-                if (table == null) return "[ERROR] Table does not exist";
-                String operation = tokens[3].toUpperCase();
-                String columnName = tokens[4];
-                if (operation.equals("ADD")) {
-                    for (String col : table.getColumns()) {
-                        if (col.equalsIgnoreCase(columnName)) {
-                            return "[ERROR] Column already exists";
-                        }
-                    }
-                    table.getColumns().add(columnName);
-                    for (List<String> row : table.getRows()) {
-                        row.add("");
-                    }
-                    manager.saveTable(table);
-                    return "[OK]";
-                } else if (operation.equals("DROP")) {
-                    if (columnName.equalsIgnoreCase("id")) {
-                        return "[ERROR] Cannot drop primary key column";
-                    }
-                    int dropIndex = -1;
-                    for (int i = 0; i < table.getColumns().size(); i++) {
-                        if (table.getColumns().get(i).equalsIgnoreCase(columnName)) {
-                            dropIndex = i;
-                            break;
-                        }
-                    }
-                    if (dropIndex == -1) return "[ERROR] Column does not exist";
-                    table.getColumns().remove(dropIndex);
-                    for (List<String> row : table.getRows()) {
-                        row.remove(dropIndex);
-                    }
-                    manager.saveTable(table);
-                    return "[OK]";
-                } else {
-                    return "[ERROR] ALTER TABLE operation not supported";
-                }
+            rows.add(rowData);
+        }
+        List<List<String>> newRows;
+        try {
+            newRows = table.addRows(rows);
+        } catch (Exception e) {
+            return "[ERROR] " + e.getMessage();
+        }
+        // All the rows are committed together
+        for (List<String> newRow : newRows) {
+            log.logInsert(table, newRow);
+        }
+        log.commit();
+        return "[OK]";
+    }
+
+    // ----------------- SELECT Command -----------------
+    private String executeSelect(Table table, QueryPlan plan, List<String> parameters, ResultSink sink) {
+        // Format: SELECT <columns> FROM tableName [WHERE condition] [ORDER BY ...] [LIMIT n] [OFFSET n];
+        String error = checkPaging(plan, parameters);
+        if (error != null) return error;
+        if (plan.isAggregate()) return executeAggregate(table, plan, parameters, sink);
+
+        // Determine selected column indices and header
+        List<Integer> selectedIndices = new ArrayList<>();
+        List<String> header = new ArrayList<>();
+        if (plan.selectAll) {
+            for (int i = 0; i < table.getColumns().size(); i++) {
+                selectedIndices.add(i);
+            }
+            header.addAll(table.getColumns());
+        } else {
+            for (String col : plan.columns) {
+                int idx = table.getColumnIndex(col);
+                if (idx == -1) return "[ERROR] SELECT column " + col + " does not exist";
+                selectedIndices.add(idx);
+                header.add(table.getColumns().get(idx));
+            }
+        }
+
+        List<Integer> orderColumns = new ArrayList<>();
+        for (String col : plan.orderBy) {
+            int idx = table.getColumnIndex(col);
+            if (idx == -1) return "[ERROR] ORDER BY column " + col + " does not exist";
+            orderColumns.add(idx);
+        }
+
+        // Bind the WHERE clause (AND, OR and NOT, nested to any depth)
+        error = checkWhere(table, plan);
+        if (error != null) return error;
+        Expression where = plan.bindWhere(parameters);
+
+        StringBuilder result = new StringBuilder(RESULT_CHUNK_SIZE + 256);
+        result.append("[OK]\n").append(String.join("\t", header)).append("\n");
+        if (!orderColumns.isEmpty() || plan.limit != null || plan.offset != null) {
+            int offset = rowCount(plan.offset, parameters, 0);
+            int limit = rowCount(plan.limit, parameters, -1);
+            writeRows(table, orderedRows(table, where, orderColumns, plan.descending, offset, limit), selectedIndices, result, sink);
+            return null;
+        }
+        if (ParallelScan.isWorthIt(table.getRowCount())) {
+            // Large table: filter and format chunks of rows in parallel, written back in table order
+            writeRows(table, ParallelScan.filter(table, where), selectedIndices, result, sink);
+            return null;
+        }
+        // Stream the rows that satisfy the WHERE clause, a chunk at a time
+        RowCursor cursor = new RowCursor(table, where);
+        for (int position = cursor.next(); position >= 0; position = cursor.next()) {
+            appendRow(table, position, selectedIndices, result);
+            if (!flushIfFull(result, sink)) break;
+        }
+        QueryStats.scanned(cursor.getScanned());
+        if (!sink.isCancelled()) sink.write(result);
+        return null;
+    }
+
+    // SELECT with aggregate functions and/or GROUP BY: one result row per group
+    private String executeAggregate(Table table, QueryPlan plan, List<String> parameters, ResultSink sink) {
+        if (plan.selectAll) return "[ERROR] SELECT * cannot be used with GROUP BY";
+        List<Integer> groupBy = new ArrayList<>();
+        for (String col : plan.groupBy) {
+            int idx = table.getColumnIndex(col);
+            if (idx == -1) return "[ERROR] GROUP BY column " + col + " does not exist";
+            groupBy.add(idx);
+        }
+        // Plain columns must be grouped on; aggregates read their argument column (none for COUNT(*))
+        List<Integer> plainColumns = new ArrayList<>();
+        List<String> functions = new ArrayList<>();
+        List<Integer> arguments = new ArrayList<>();
+        List<String> header = new ArrayList<>();
+        for (int i = 0; i < plan.columns.size(); i++) {
+            String col = plan.columns.get(i);
+            String function = plan.functions.get(i);
+            int idx = col.equals("*") ? -1 : table.getColumnIndex(col);
+            if (idx == -1 && !col.equals("*")) return "[ERROR] SELECT column " + col + " does not exist";
+            if (function == null) {
+                if (!groupBy.contains(idx)) return "[ERROR] Column " + col + " must appear in GROUP BY or inside an aggregate function";
+                plainColumns.add(idx);
+            } else {
+                functions.add(function);
+                arguments.add(idx == -1 ? null : idx);
             }
-            // ----------------- DROP Command -----------------
-            else if (upperCmd.startsWith("DROP")) {
-                // Format: DROP TABLE tableName OR DROP DATABASE databaseName;
-                String[] tokens = trimmed.split("\\s+");
-                if (tokens.length != 3) return "[ERROR] Incorrect DROP command format";
-                String dropType = tokens[1].toUpperCase();
-                String targetName = tokens[2].toLowerCase();
-                if (dropType.equals("TABLE")) {
-                    if (!tables.containsKey(targetName)) return "[ERROR] Table does not exist";
-                    tables.remove(targetName);
-                    File file = new File(manager.getStorageFolderPath(), targetName + ".tab");
-                    if (file.exists()) {
-                        file.delete();
-                    }
-                    return "[OK]";
-                } else if (dropType.equals("DATABASE")) {
-                    File dbDir = new File(manager.getStorageFolderPath(), targetName);
-                    if (!dbDir.exists()) return "[ERROR] Database does not exist";
-                    for (File f : dbDir.listFiles()) {
-                        f.delete();
-                    }
-                    dbDir.delete();
-                    if (currentDatabase != null && currentDatabase.equals(targetName)) {
-                        currentDatabase = null;
-                        tables = new HashMap<>();
-                    }
-                    return "[OK]";
+            header.add(function == null ? table.getColumns().get(idx) : plan.label(i));
+        }
+        String error = checkWhere(table, plan);
+        if (error != null) return error;
+        Expression where = plan.bindWhere(parameters);
+
+        // ORDER BY in an aggregate query sorts on the selected columns (by their labels)
+        int[] orderItems = new int[plan.orderBy.size()];
+        for (int i = 0; i < orderItems.length; i++) {
+            orderItems[i] = -1;
+            for (int j = 0; j < plan.columns.size() && orderItems[i] == -1; j++) {
+                if (plan.label(j).equalsIgnoreCase(plan.orderLabel(i))) orderItems[i] = j;
+            }
+            if (orderItems[i] == -1) return "[ERROR] ORDER BY " + plan.orderLabel(i) + " must also be selected";
+        }
+
+        Aggregation aggregation = new Aggregation(table, groupBy, functions, arguments);
+        int[] matches = matchingPositions(table, where);
+        long start = Explain.start();
+        List<Aggregation.Group> groups = aggregation.run(matches);
+        Explain.record(Explain.Step.AGGREGATE, groups.size(), start);
+        List<String[]> rows = new ArrayList<>();
+        for (Aggregation.Group group : groups) {
+            String[] row = new String[plan.functions.size()];
+            int plain = 0;
+            int aggregate = 0;
+            for (int i = 0; i < row.length; i++) {
+                if (plan.functions.get(i) == null) {
+                    row[i] = table.getValue(group.getFirstRow(), plainColumns.get(plain++));
                 } else {
-                    return "[ERROR] DROP operation not supported";
+                    row[i] = group.result(aggregate++);
                 }
             }
-            // ----------------- JOIN Command -----------------
-            else if (upperCmd.startsWith("JOIN")) {
-                // Format: JOIN tableOne AND tableTwo ON attributeFromTableOne AND attributeFromTableTwo;
-                String[] tokens = trimmed.split("\\s+");
-                if (tokens.length != 8) return "[ERROR] Incorrect JOIN command format";
-                String tableOneName = tokens[1].toLowerCase();
-                String tableTwoName = tokens[3].toLowerCase();
-                String attrOne = tokens[5];
-                String attrTwo = tokens[7];
-                Table tableOne = tables.get(tableOneName);
-                Table tableTwo = tables.get(tableTwoName);
-                if (tableOne == null || tableTwo == null) return "[ERROR] One or both tables do not exist";
-                int indexOne = -1, indexTwo = -1;
-                for (int i = 0; i < tableOne.getColumns().size(); i++) {
-                    if (tableOne.getColumns().get(i).equalsIgnoreCase(attrOne)) {
-                        indexOne = i;
-                        break;
-                    }
+            rows.add(row);
+        }
+        if (orderItems.length > 0) {
+            // A stable sort, so groups with equal keys keep the order of their first row
+            start = Explain.start();
+            rows.sort((a, b) -> {
+                for (int i = 0; i < orderItems.length; i++) {
+                    int order = RowOrder.compareText(a[orderItems[i]], b[orderItems[i]]);
+                    if (order != 0) return plan.descending.get(i) ? -order : order;
                 }
-                for (int i = 0; i < tableTwo.getColumns().size(); i++) {
-                    if (tableTwo.getColumns().get(i).equalsIgnoreCase(attrTwo)) {
-                        indexTwo = i;
-                        break;
-                    }
+                return 0;
+            });
+            Explain.record(Explain.Step.SORT, rows.size(), start);
+        }
+        int offset = Math.min(rowCount(plan.offset, parameters, 0), rows.size());
+        int limit = rowCount(plan.limit, parameters, -1);
+        int end = limit < 0 ? rows.size() : (int) Math.min(rows.size(), (long) offset + limit);
+        if (offset > 0 || limit >= 0) {
+            Explain.record(Explain.Step.LIMIT, end - offset, Explain.start());
+        }
+
+        StringBuilder result = new StringBuilder(RESULT_CHUNK_SIZE + 256);
+        result.append("[OK]\n").append(String.join("\t", header)).append("\n");
+        for (String[] row : rows.subList(offset, end)) {
+            result.append(String.join("\t", row)).append("\n");
+            if (!flushIfFull(result, sink)) return null;
+        }
+        sink.write(result);
+        return null;
+    }
+
+    // Rows for ORDER BY / LIMIT / OFFSET, already cut down to the requested page
+    private int[] orderedRows(Table table, Expression where, List<Integer> orderColumns, List<Boolean> descending,
+                              int offset, int limit) {
+        int needed = limit < 0 ? -1 : (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+        OrderedIndex index = RowOrder.usableIndex(table, orderColumns);
+        int[] rows;
+        if (orderColumns.isEmpty()) {
+            rows = firstMatches(table, where, needed);
+        } else if (index != null && RowOrder.walksIndex(where, limit)) {
+            // Walk the ordered index and stop once the page is full
+            long start = Explain.start();
+            rows = RowOrder.fromIndex(table, index, descending.get(0), where == null ? null : where.compile(table), needed);
+            Explain.record(Explain.Step.ACCESS, rows.length, start);
+        } else {
+            // Sort the matches, or keep only the first ones in a bounded heap when there is a LIMIT
+            int[] matches = matchingPositions(table, where);
+            long start = Explain.start();
+            rows = new RowOrder(table, orderColumns, descending).first(matches, needed);
+            Explain.record(Explain.Step.SORT, rows.length, start);
+        }
+        long start = Explain.start();
+        rows = Arrays.copyOfRange(rows, Math.min(offset, rows.length), rows.length);
+        if (offset > 0 || limit >= 0) {
+            Explain.record(Explain.Step.LIMIT, rows.length, start);
+        }
+        return rows;
+    }
+
+    // The first count matching rows in table order (all of them when count < 0)
+    private int[] firstMatches(Table table, Expression where, int count) {
+        if (count < 0) return matchingPositions(table, where);
+        int[] rows = new int[Math.min(count, table.getRowCount())];
+        RowCursor cursor = new RowCursor(table, where);
+        int found = 0;
+        while (found < rows.length) {
+            int position = cursor.next();
+            if (position < 0) break;
+            rows[found++] = position;
+        }
+        QueryStats.scanned(cursor.getScanned());
+        return Arrays.copyOf(rows, found);
+    }
+
+    // Write the selected columns of the given rows after the header already in result
+    private void writeRows(Table table, int[] positions, List<Integer> selectedIndices, StringBuilder result, ResultSink sink) {
+        if (ParallelScan.isWorthIt(positions.length)) {
+            sink.write(result);
+            ParallelScan.writeRows(positions.length, (i, out) -> appendRow(table, positions[i], selectedIndices, out), sink);
+            return;
+        }
+        for (int position : positions) {
+            appendRow(table, position, selectedIndices, result);
+            if (!flushIfFull(result, sink)) return;
+        }
+        sink.write(result);
+    }
+
+    // Returns an error message if LIMIT or OFFSET is not a whole number of rows.
+    private static String checkPaging(QueryPlan plan, List<String> parameters) {
+        for (QueryPlan.Value value : Arrays.asList(plan.limit, plan.offset)) {
+            if (value != null && !value.bind(parameters).matches("\\d{1,9}")) {
+                return "[ERROR] LIMIT and OFFSET need a whole number of rows";
+            }
+        }
+        return null;
+    }
+
+    private static int rowCount(QueryPlan.Value value, List<String> parameters, int fallback) {
+        return value == null ? fallback : Integer.parseInt(value.bind(parameters));
+    }
+
+    private static void appendRow(Table table, int position, List<Integer> selectedIndices, StringBuilder out) {
+        for (int i = 0; i < selectedIndices.size(); i++) {
+            if (i > 0) out.append("\t");
+            out.append(table.getValue(position, selectedIndices.get(i)));
+        }
+        out.append("\n");
+    }
+
+    // ----------------- UPDATE Command -----------------
+    private String executeUpdate(Table table, QueryPlan plan, List<String> parameters, ChangeLog log) throws IOException {
+        // Format: UPDATE tableName SET column = value [, column = value] WHERE condition;
+        int[] updateColIndexes = new int[plan.columns.size()];
+        String[] updateValues = new String[plan.columns.size()];
+        for (int i = 0; i < updateColIndexes.length; i++) {
+            updateColIndexes[i] = table.getColumnIndex(plan.columns.get(i));
+            if (updateColIndexes[i] == -1) return "[ERROR] Update attribute does not exist";
+            if (updateColIndexes[i] == 0) return "[ERROR] Cannot update the id column";
+            updateValues[i] = plan.values.get(i).bind(parameters);
+        }
+        String error = checkWhere(table, plan);
+        if (error != null) return error;
+        Expression where = plan.bindWhere(parameters);
+
+        for (int position : matchingPositions(table, where)) {
+            log.beforeChange(table, position);
+            for (int i = 0; i < updateColIndexes.length; i++) {
+                table.setValue(position, updateColIndexes[i], updateValues[i]);
+                log.logUpdate(table, table.getValue(position, 0), table.getColumns().get(updateColIndexes[i]), updateValues[i]);
+            }
+        }
+        log.commit();
+        return "[OK]";
+    }
+
+    // ----------------- DELETE Command -----------------
+    private String executeDelete(Table table, QueryPlan plan, List<String> parameters, ChangeLog log) throws IOException {
+        // Format: DELETE FROM tableName WHERE condition;
+        String error = checkWhere(table, plan);
+        if (error != null) return error;
+        Expression where = plan.bindWhere(parameters);
+
+        // Collect the rows that satisfy the WHERE clause, then remove them.
+        int[] matchingRows = matchingPositions(table, where);
+        for (int position : matchingRows) {
+            log.beforeChange(table, position);
+            log.logDelete(table, table.getValue(position, 0));
+        }
+        table.deleteRows(matchingRows);
+        log.commit();
+        return "[OK]";
+    }
+
+    // ----------------- ALTER TABLE Command -----------------
+    private String executeAlterAdd(Table table, QueryPlan plan) throws IOException {
+        // Format: ALTER TABLE tableName ADD columnName;
+        String columnName = plan.columns.get(0);
+        if (table.getColumnIndex(columnName) != -1) {
+            return "[ERROR] Column already exists";
+        }
+        table.addColumn(columnName);
+        manager.logAddColumn(table, columnName);
+        manager.commit();
+        return "[OK]";
+    }
+
+    private String executeAlterDrop(Table table, QueryPlan plan) throws IOException {
+        // Format: ALTER TABLE tableName DROP columnName;
+        String columnName = plan.columns.get(0);
+        if (columnName.equalsIgnoreCase("id")) {
+            return "[ERROR] Cannot drop primary key column";
+        }
+        int dropIndex = table.getColumnIndex(columnName);
+        if (dropIndex == -1) return "[ERROR] Column does not exist";
+        String droppedColumn = table.getColumns().get(dropIndex);
+        table.dropColumn(dropIndex);
+        manager.logDropColumn(table, droppedColumn);
+        manager.commit();
+        return "[OK]";
+    }
+
+    // ----------------- DROP Command -----------------
+    private String executeDropTable(Session session, QueryPlan plan) throws IOException {
+        // Format: DROP TABLE tableName;
+        String targetName = plan.name;
+        // Wait for the commands already using the table
+        Table table = lockTable(session, targetName, true);
+        if (table == null) return "[ERROR] Table does not exist";
+        try {
+            tables.remove(targetName);
+            manager.logDropTable(targetName);
+            manager.commit();
+        } finally {
+            unlockTable(table, true);
+        }
+        File file = new File(manager.getStorageFolderPath(), targetName + PageFile.EXTENSION);
+        if (file.exists()) {
+            file.delete();
+        }
+        new File(manager.getStorageFolderPath(), targetName + ".tab").delete();
+        new File(manager.getStorageFolderPath(), targetName + ".idx").delete();
+        return "[OK]";
+    }
+
+    private String executeDropDatabase(QueryPlan plan) throws IOException {
+        // Format: DROP DATABASE databaseName;
+        String targetName = plan.name;
+        File dbDir = new File(storageFolderPath, targetName);
+        if (!dbDir.exists()) return "[ERROR] Database does not exist";
+        if (currentDatabase != null && currentDatabase.equals(targetName)) {
+            manager.close();
+        }
+        for (File f : dbDir.listFiles()) {
+            // IMPORT / EXPORT 的文件在子文件夹里
+            if (f.isDirectory()) {
+                for (File child : f.listFiles()) {
+                    child.delete();
                 }
-                if (indexOne == -1) return "[ERROR] Table " + tableOneName + " does not have attribute " + attrOne;
-                if (indexTwo == -1) return "[ERROR] Table " + tableTwoName + " does not have attribute " + attrTwo;
-                StringBuilder joinResult = new StringBuilder();
-                List<String> joinColumns = new ArrayList<>();
-                // Add columns from tableOne (excluding id and attrOne)
-                for (int i = 0; i < tableOne.getColumns().size(); i++) {
-                    String col = tableOne.getColumns().get(i);
-                    if (i == 0 || col.equalsIgnoreCase(attrOne)) continue;
-                    joinColumns.add(tableOneName + "." + col);
+            }
+            f.delete();
+        }
+        dbDir.delete();
+        if (currentDatabase != null && currentDatabase.equals(targetName)) {
+            currentDatabase = null;
+            tables = new TableCatalog();
+        }
+        return "[OK]";
+    }
+
+    // ----------------- IMPORT / EXPORT Commands -----------------
+    private String executeImport(QueryPlan plan, List<String> parameters) throws IOException {
+        // Format: IMPORT tableName FROM 'fileName';
+        File file = transferFile(plan, parameters);
+        if (file == null) return "[ERROR] IMPORT file must be a plain .tab file name";
+        if (!file.isFile()) return "[ERROR] File does not exist";
+        Table table;
+        try {
+            table = manager.importTable(file, plan.name);
+        } catch (IOException e) {
+            return "[ERROR] " + e.getMessage();
+        }
+        for (String colName : table.getColumns().subList(1, table.getColumns().size())) {
+            if (isReservedKeyword(colName)) {
+                return "[ERROR] Column name cannot be a reserved keyword: " + colName;
+            }
+        }
+        // Same as CREATE TABLE followed by one INSERT per row, keeping the file's ids
+        table.getLock().writeLock().lock();
+        try {
+            if (!tables.putIfAbsent(plan.name, table)) {
+                return "[ERROR] Table already exists";
+            }
+            manager.logCreateTable(table);
+            for (List<String> row : table.getRows()) {
+                manager.logInsert(table, row);
+            }
+            manager.commit();
+        } finally {
+            table.getLock().writeLock().unlock();
+        }
+        return "[OK]";
+    }
+
+    private String executeCopy(Table table, QueryPlan plan, List<String> parameters, ChangeLog log) throws IOException {
+        // Format: COPY tableName FROM 'fileName';
+        // The file has a header line naming the table's columns (in any order); an id column is ignored
+        File file = transferFile(plan, parameters);
+        if (file == null) return "[ERROR] COPY file must be a plain .tab file name";
+        if (!file.isFile()) return "[ERROR] File does not exist";
+        int firstPosition = table.getRowCount();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null) return "[ERROR] File is empty";
+            String[] fileColumns = header.split("\t", -1);
+            // Where each column of the file goes in the table's rows (-1 for the id)
+            int[] targets = new int[fileColumns.length];
+            boolean[] seen = new boolean[table.getColumns().size()];
+            for (int i = 0; i < fileColumns.length; i++) {
+                int columnIndex = table.getColumnIndex(fileColumns[i]);
+                if (columnIndex == -1 || seen[columnIndex]) return "[ERROR] Unexpected column " + fileColumns[i] + " in file";
+                seen[columnIndex] = true;
+                targets[i] = columnIndex - 1;
+            }
+            for (int c = 1; c < seen.length; c++) {
+                if (!seen[c]) return "[ERROR] File does not have column " + table.getColumns().get(c);
+            }
+
+            // Read and append a batch at a time; the whole file is committed once at the end
+            List<List<String>> batch = new ArrayList<>(COPY_BATCH_SIZE);
+            int lineNumber = 1;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                ++lineNumber;
+                if (line.isEmpty()) continue;
+                String[] fields = line.split("\t", -1);
+                if (fields.length != fileColumns.length) {
+                    undoCopy(table, firstPosition, log);
+                    return "[ERROR] Line " + lineNumber + " of the file does not have " + fileColumns.length + " values";
                 }
-                // Add columns from tableTwo (excluding id and attrTwo)
-                for (int i = 0; i < tableTwo.getColumns().size(); i++) {
-                    String col = tableTwo.getColumns().get(i);
-                    if (i == 0 || col.equalsIgnoreCase(attrTwo)) continue;
-                    joinColumns.add(tableTwoName + "." + col);
+                String[] rowData = new String[seen.length - 1];
+                for (int i = 0; i < fields.length; i++) {
+                    if (targets[i] >= 0) rowData[targets[i]] = fields[i];
                 }
-                joinResult.append("id").append("\t").append(String.join("\t", joinColumns)).append("\n");
-                int newId = 1;
-                for (List<String> rowOne : tableOne.getRows()) {
-                    for (List<String> rowTwo : tableTwo.getRows()) {
-                        if (rowOne.get(indexOne).equals(rowTwo.get(indexTwo))) {
-                            List<String> joinRow = new ArrayList<>();
-                            joinRow.add(String.valueOf(newId++));
-                            for (int i = 0; i < rowOne.size(); i++) {
-                                if (i == 0 || tableOne.getColumns().get(i).equalsIgnoreCase(attrOne)) continue;
-                                joinRow.add(rowOne.get(i));
-                            }
-                            for (int i = 0; i < rowTwo.size(); i++) {
-                                if (i == 0 || tableTwo.getColumns().get(i).equalsIgnoreCase(attrTwo)) continue;
-                                joinRow.add(rowTwo.get(i));
-                            }
-                            joinResult.append(String.join("\t", joinRow)).append("\n");
-                        }
-                    }
+                batch.add(List.of(rowData));
+                if (batch.size() == COPY_BATCH_SIZE) {
+                    appendBatch(table, batch, log);
                 }
-                return "[OK]\n" + joinResult.toString();
-            }
-            else {
-                return "[ERROR] Unknown command";
             }
+            appendBatch(table, batch, log);
         } catch (IOException e) {
-            return "[ERROR] IO Exception: " + e.getMessage();
+            undoCopy(table, firstPosition, log);
+            throw e;
+        }
+        log.commit();
+        return "[OK]";
+    }
+
+    private void appendBatch(Table table, List<List<String>> batch, ChangeLog log) throws IOException {
+        for (List<String> newRow : table.addRows(batch)) {
+            log.logInsert(table, newRow);
+        }
+        batch.clear();
+    }
+
+    // A COPY that fails half way removes the rows it has already added (they are at the end of the table)
+    private void undoCopy(Table table, int firstPosition, ChangeLog log) throws IOException {
+        int[] added = new int[table.getRowCount() - firstPosition];
+        for (int i = 0; i < added.length; i++) {
+            added[i] = firstPosition + i;
+            log.logDelete(table, table.getValue(firstPosition + i, 0));
+        }
+        table.deleteRows(added);
+        log.commit();
+    }
+
+    private String executeExport(Table table, QueryPlan plan, List<String> parameters) throws IOException {
+        // Format: EXPORT tableName TO 'fileName';
+        File file = transferFile(plan, parameters);
+        if (file == null) return "[ERROR] EXPORT file must be a plain .tab file name";
+        Files.createDirectories(file.getParentFile().toPath());
+        manager.exportTable(table, file);
+        return "[OK]";
+    }
+
+    // IMPORT / EXPORT files live in the "exports" folder of the current database, so they are never taken for tables
+    private File transferFile(QueryPlan plan, List<String> parameters) {
+        String fileName = plan.values.get(0).bind(parameters);
+        if (!fileName.endsWith(".tab") || fileName.startsWith(".") || fileName.contains("/") || fileName.contains("\\")) {
+            return null;
+        }
+        return new File(new File(manager.getStorageFolderPath(), EXPORT_FOLDER), fileName);
+    }
+
+    // ----------------- EXPLAIN [ANALYZE] -----------------
+    private String executeExplain(Session session, QueryPlan plan, List<String> parameters, ChangeLog log) throws IOException {
+        // Format: EXPLAIN [ANALYZE] <SELECT, UPDATE, DELETE or JOIN command>;
+        // Describe the plan from the tables as they are now
+        List<Explain> explained = new ArrayList<>(1);
+        String error;
+        try {
+            if (plan.getKind() == QueryPlan.Kind.JOIN) {
+                error = withJoinTables(session, plan, (tableOne, tableTwo) -> {
+                    int indexOne = tableOne.getColumnIndex(plan.columns.get(0));
+                    int indexTwo = tableTwo.getColumnIndex(plan.columns.get(1));
+                    if (indexOne == -1) return "[ERROR] Table " + plan.name + " does not have attribute " + plan.columns.get(0);
+                    if (indexTwo == -1) return "[ERROR] Table " + plan.otherName + " does not have attribute " + plan.columns.get(1);
+                    explained.add(Explain.join(tableOne, indexOne, tableTwo, indexTwo));
+                    return null;
+                });
+            } else {
+                error = withTable(session, plan.name, false, table -> {
+                    String problem = plan.getKind() == QueryPlan.Kind.SELECT ? checkPaging(plan, parameters) : null;
+                    if (problem == null) problem = checkWhere(table, plan);
+                    if (problem != null) return problem;
+                    Expression where = plan.bindWhere(parameters);
+                    explained.add(plan.getKind() == QueryPlan.Kind.SELECT
+                            ? Explain.select(table, plan, where, rowCount(plan.offset, parameters, 0), rowCount(plan.limit, parameters, -1))
+                            : Explain.change(table, plan, where));
+                    return null;
+                });
+            }
+        } catch (IllegalArgumentException e) {
+            return "[ERROR] " + e.getMessage();
+        }
+        if (error != null) return error;
+        Explain explain = explained.get(0);
+
+        if (plan.analyze) {
+            // Run the command for real with the operators recording into explain; its output is counted and dropped
+            QueryStats.MeteredSink output = new QueryStats.MeteredSink(text -> { });
+            Explain previous = Explain.begin(explain);
+            long start = System.nanoTime();
+            String result;
+            try {
+                result = run(session, plan, parameters, output, log);
+            } finally {
+                Explain.end(previous);
+            }
+            if (result != null && result.startsWith("[ERROR]")) return result;
+            explain.finish(System.nanoTime() - start, output.getRows());
+        }
+        return "[OK]\n" + explain.toTable();
+    }
+
+    // ----------------- JOIN Command -----------------
+    private String executeJoin(Session session, QueryPlan plan, ResultSink sink) throws IOException {
+        // Format: JOIN tableOne AND tableTwo ON attributeFromTableOne AND attributeFromTableTwo;
+        return withJoinTables(session, plan, (tableOne, tableTwo) -> joinTables(plan, tableOne, tableTwo, sink));
+    }
+
+    // A command that runs while holding the read locks of both tables of a JOIN
+    private interface JoinCommand {
+        String run(Table tableOne, Table tableTwo) throws IOException;
+    }
+
+    private String withJoinTables(Session session, QueryPlan plan, JoinCommand command) throws IOException {
+        String tableOneName = plan.name;
+        String tableTwoName = plan.otherName;
+        // Lock both tables (in name order) so the join sees one consistent state of each
+        boolean oneFirst = tableOneName.compareTo(tableTwoName) <= 0;
+        Table first = lockTable(session, oneFirst ? tableOneName : tableTwoName, false);
+        if (first == null) return "[ERROR] One or both tables do not exist";
+        try {
+            Table second = lockTable(session, oneFirst ? tableTwoName : tableOneName, false);
+            if (second == null) return "[ERROR] One or both tables do not exist";
+            try {
+                return command.run(oneFirst ? first : second, oneFirst ? second : first);
+            } finally {
+                unlockTable(second, false);
+            }
+        } finally {
+            unlockTable(first, false);
         }
     }
-    
-    
+
+    private String joinTables(QueryPlan plan, Table tableOne, Table tableTwo, ResultSink sink) {
+        String tableOneName = plan.name;
+        String tableTwoName = plan.otherName;
+        String attrOne = plan.columns.get(0);
+        String attrTwo = plan.columns.get(1);
+        int indexOne = tableOne.getColumnIndex(attrOne);
+        int indexTwo = tableTwo.getColumnIndex(attrTwo);
+        if (indexOne == -1) return "[ERROR] Table " + tableOneName + " does not have attribute " + attrOne;
+        if (indexTwo == -1) return "[ERROR] Table " + tableTwoName + " does not have attribute " + attrTwo;
+        StringBuilder joinResult = new StringBuilder(RESULT_CHUNK_SIZE + 256);
+        List<String> joinColumns = new ArrayList<>();
+        // Output columns of each table (excluding id and the join attribute), resolved once
+        List<Integer> outputOne = new ArrayList<>();
+        List<Integer> outputTwo = new ArrayList<>();
+        for (int i = 0; i < tableOne.getColumns().size(); i++) {
+            String col = tableOne.getColumns().get(i);
+            if (i == 0 || col.equalsIgnoreCase(attrOne)) continue;
+            joinColumns.add(tableOneName + "." + col);
+            outputOne.add(i);
+        }
+        for (int i = 0; i < tableTwo.getColumns().size(); i++) {
+            String col = tableTwo.getColumns().get(i);
+            if (i == 0 || col.equalsIgnoreCase(attrTwo)) continue;
+            joinColumns.add(tableTwoName + "." + col);
+            outputTwo.add(i);
+        }
+        joinResult.append("[OK]\n").append("id").append("\t").append(String.join("\t", joinColumns)).append("\n");
+        // Hash join (or sort-merge over two ordered indexes); pairs come back in nested-loop order
+        long start = Explain.start();
+        long[] pairs = TableJoin.matchingPairs(tableOne, indexOne, tableTwo, indexTwo);
+        Explain.record(Explain.Step.JOIN, pairs.length, start);
+        QueryStats.scanned((long) tableOne.getRowCount() + tableTwo.getRowCount());
+        if (ParallelScan.isWorthIt(pairs.length)) {
+            sink.write(joinResult);
+            ParallelScan.writeRows(pairs.length, (i, out) ->
+                    appendJoinedRow(i + 1, pairs[i], tableOne, outputOne, tableTwo, outputTwo, out), sink);
+            return null;
+        }
+        for (int i = 0; i < pairs.length; i++) {
+            appendJoinedRow(i + 1, pairs[i], tableOne, outputOne, tableTwo, outputTwo, joinResult);
+            if (!flushIfFull(joinResult, sink)) return null;
+        }
+        sink.write(joinResult);
+        return null;
+    }
+
+    private static void appendJoinedRow(int newId, long pair, Table tableOne, List<Integer> outputOne,
+                                        Table tableTwo, List<Integer> outputTwo, StringBuilder out) {
+        int positionOne = TableJoin.leftPosition(pair);
+        int positionTwo = TableJoin.rightPosition(pair);
+        out.append(newId);
+        for (int column : outputOne) {
+            out.append("\t").append(tableOne.getValue(positionOne, column));
+        }
+        for (int column : outputTwo) {
+            out.append("\t").append(tableTwo.getValue(positionTwo, column));
+        }
+        out.append("\n");
+    }
+
+    // Hand a full chunk to the sink and start a new one. Returns false if the client has gone away.
+    private boolean flushIfFull(StringBuilder chunk, ResultSink sink) {
+        if (chunk.length() < RESULT_CHUNK_SIZE) return true;
+        sink.write(chunk);
+        chunk.setLength(0);
+        return !sink.isCancelled();
+    }
+
+    // Returns an error message if an attribute of the WHERE clause does not exist.
+    private String checkWhere(Table table, QueryPlan plan) {
+        if (plan.where == null) return null;
+        List<String> attributes = new ArrayList<>();
+        plan.where.attributes(attributes);
+        for (String attribute : attributes) {
+            if (table.getColumnIndex(attribute) == -1) {
+                return "[ERROR] WHERE clause attribute does not exist: " + attribute;
+            }
+        }
+        return null;
+    }
+
     private boolean isReservedKeyword(String word) {
         String[] reserved = {"SELECT", "INSERT", "UPDATE", "DELETE", "FROM", "WHERE",
                              "JOIN", "CREATE", "DATABASE", "TABLE", "DROP", "ALTER", 
@@ -576,100 +1114,55 @@ public class DBServer {
         return false;
     }
 
-    // Helper class to represent a simple condition in the WHERE clause.
-    private static class Condition {
-        String attribute;
-        String comparator;
-        String value;
-    }
-
-    // Helper method to parse a single condition string.
-    private Condition parseCondition(String condStr) {
-        // Include "LIKE" among the comparators. Check longer comparators first.
-        String[] comparators = {"==", "!=", ">=", "<=", "LIKE", ">", "<"};
-        for (String comp : comparators) {
-            // For "LIKE", allow it to be surrounded by spaces or not.
-            int idx = condStr.indexOf(comp);
-            if (idx != -1) {
-                Condition cond = new Condition();
-                cond.attribute = condStr.substring(0, idx).trim();
-                cond.comparator = comp.trim();  // For "LIKE", this will be "LIKE"
-                cond.value = condStr.substring(idx + comp.length()).trim();
-                // Remove quotes from the value if present
-                if ((cond.value.startsWith("'") && cond.value.endsWith("'")) ||
-                    (cond.value.startsWith("\"") && cond.value.endsWith("\""))) {
-                    cond.value = cond.value.substring(1, cond.value.length() - 1);
-                }
-                return cond;
-            }
+    // Positions (ascending) of the rows that satisfy the WHERE expression.
+    private int[] matchingPositions(Table table, Expression where) {
+        if (ParallelScan.isWorthIt(table.getRowCount())) {
+            return ParallelScan.filter(table, where);
         }
-        return null; // unsupported condition
+        RowCursor cursor = new RowCursor(table, where);
+        int[] positions = cursor.toArray();
+        QueryStats.scanned(cursor.getScanned());
+        return positions;
     }
 
-    // Helper method to evaluate a single condition against a cell value.
-    private boolean evaluateCondition(String cellValue, Condition cond) {
-        try {
-            // Try numeric comparison if possible.
-            double cellNum = Double.parseDouble(cellValue);
-            double condNum = Double.parseDouble(cond.value);
-            switch (cond.comparator) {
-                case "==": return cellNum == condNum;
-                case "!=": return cellNum != condNum;
-                case ">": return cellNum > condNum;
-                case "<": return cellNum < condNum;
-                case ">=": return cellNum >= condNum;
-                case "<=": return cellNum <= condNum;
-                // "LIKE" is not numeric; fall through.
-                default: break;
-            }
-        } catch (NumberFormatException e) {
-            // Not numbers, fallback to string comparison.
-        }
-        // For string comparisons.
-        switch (cond.comparator) {
-            case "==": return cellValue.equals(cond.value);
-            case "!=": return !cellValue.equals(cond.value);
-            case ">": return cellValue.compareTo(cond.value) > 0;
-            case "<": return cellValue.compareTo(cond.value) < 0;
-            case ">=": return cellValue.compareTo(cond.value) >= 0;
-            case "<=": return cellValue.compareTo(cond.value) <= 0;
-            case "LIKE": return cellValue.contains(cond.value);
-            default: return false;
-        }
+    BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    CommitStats getCommitStats() {
+        return manager.getCommitStats();
     }
 
+    QueryStats getQueryStats() {
+        return queryStats;
+    }
 
     //  === Methods below handle networking aspects of the project - you will not need to change these ! ===
 
     public void blockingListenOn(int portNumber) throws IOException {
-        try (ServerSocket s = new ServerSocket(portNumber)) {
-            System.out.println("Server listening on port " + portNumber);
-            while (!Thread.interrupted()) {
+        // Many clients at once: a selector thread does the I/O and a bounded pool runs the commands
+        int workers = Runtime.getRuntime().availableProcessors();
+        // The counters behind SHOW STATS are also readable over JMX while the server is up
+        MBeanServer beans = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = null;
+        try {
+            name = new ObjectName("edu.uob:type=QueryStats,port=" + portNumber);
+            beans.registerMBean(queryStats, name);
+        } catch (JMException e) {
+            AsyncLog.console().log("Could not register the QueryStats MBean: " + e.getMessage());
+            name = null;
+        }
+        try (NioServer s = new NioServer(this, portNumber, workers, WORKER_QUEUE_CAPACITY)) {
+            AsyncLog.console().log("Server listening on port " + portNumber);
+            s.run();
+        } finally {
+            if (name != null) {
                 try {
-                    blockingHandleConnection(s);
-                } catch (IOException e) {
-                    System.err.println("Server encountered a non-fatal IO error:");
-                    e.printStackTrace();
-                    System.err.println("Continuing...");
+                    beans.unregisterMBean(name);
+                } catch (JMException e) {
+                    // 已经注销了
                 }
             }
         }
     }
-
-    private void blockingHandleConnection(ServerSocket serverSocket) throws IOException {
-        try (Socket s = serverSocket.accept();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream()));
-        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(s.getOutputStream()))) {
-
-            System.out.println("Connection established: " + serverSocket.getInetAddress());
-            while (!Thread.interrupted()) {
-                String incomingCommand = reader.readLine();
-                System.out.println("Received message: " + incomingCommand);
-                String result = handleCommand(incomingCommand);
-                writer.write(result);
-                writer.write("\n" + END_OF_TRANSMISSION + "\n");
-                writer.flush();
-            }
-        }
-    }
 }
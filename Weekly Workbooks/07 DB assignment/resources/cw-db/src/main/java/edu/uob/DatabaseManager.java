@@ -2,85 +2,748 @@ package edu.uob;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class DatabaseManager implements ChangeLog {
+    // 日志超过这个大小后由后台线程把 .tab 快照重写一遍
+    private static final long CHECKPOINT_THRESHOLD_BYTES = 4L * 1024 * 1024;
+    private static final long CHECKPOINT_INTERVAL_MS = 1000;
+    // ASYNC 模式下后台 fsync 的间隔
+    private static final long ASYNC_FLUSH_INTERVAL_MS = 50;
 
-public class DatabaseManager {
     private String storageFolderPath;
 
+    // 当前打开的数据库：文件夹、内存中的表和它的日志
+    private File databaseFolder;
+    private TableCatalog tables;
+    private WriteAheadLog wal;
+    private Set<String> dirtyTables = new HashSet<>();
+    private Set<String> droppedTables = new HashSet<>();
+    // 正在做的 checkpoint 要写的表（它的快照还没写完）
+    private Set<String> checkpointingTables = new HashSet<>();
+    // 同一时间只允许一个 checkpoint（或切换数据库）
+    private final Object checkpointLock = new Object();
+    private ScheduledExecutorService checkpointer;
+    // 打开的表占用的内存不超过它的预算
+    private final BufferPool bufferPool;
+
+    // 用系统属性 -Ddb.durability=SYNC|GROUP|ASYNC 设置初始模式，也可以用 SET DURABILITY 修改
+    public static final String DURABILITY_PROPERTY = "db.durability";
+    private volatile Durability durability;
+    private final CommitStats commitStats;
+    // 写进日志的记录总数（由 this 保护），和 durableRecords 比较就知道一次提交有没有被 fsync 过
+    private long appendedRecords;
+    // 组提交：同一时间只有一个线程在 fsync，其他提交等它或者等下一次
+    private final Object groupCommitLock = new Object();
+    private long durableRecords;
+    private boolean groupSyncRunning;
+    // 日志里 BEGIN / COMMIT 标记用的事务编号（由 this 保护）
+    private long transactionCount;
+
     public DatabaseManager(String storageFolderPath) {
+        this(storageFolderPath, BufferPool.withConfiguredBudget());
+    }
+
+    public DatabaseManager(String storageFolderPath, BufferPool bufferPool) {
         this.storageFolderPath = storageFolderPath;
+        this.bufferPool = bufferPool;
+        this.durability = Durability.valueOf(System.getProperty(DURABILITY_PROPERTY, "SYNC").toUpperCase());
+        this.commitStats = new CommitStats(durability);
     }
 
-    public Map<String, Table> loadAllTables() throws IOException{
-        Map<String, Table> tables = new HashMap<>();
-        File folder = new File(storageFolderPath);
-        File[] files = folder.listFiles();
-        if(files == null){
+    /**
+     * 打开当前文件夹下的数据库：只列出快照文件并把日志记录按表分好，
+     * 每个表第一次用到时才加载（openTable），所以 USE 的时间和数据库大小无关
+     * 之前打开的数据库会先做 checkpoint 然后关闭
+     */
+    public TableCatalog openDatabase() throws IOException {
+        // 后台的 checkpoint 要拿 checkpointLock，所以要在拿锁之前停掉它
+        stopCheckpointer();
+        synchronized (checkpointLock) {
+            closeLog();
+            synchronized (this) {
+                databaseFolder = new File(storageFolderPath);
+                Map<String, TableCatalog.Unopened> unopened = new HashMap<>();
+                File[] files = databaseFolder.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        String fileName = file.getName();
+                        // 二进制的 .tbl 优先，只有旧的 .tab 文本文件的表也能打开
+                        if (file.isFile() && fileName.endsWith(PageFile.EXTENSION)) {
+                            String tableName = fileName.substring(0, fileName.length() - PageFile.EXTENSION.length());
+                            unopened.put(tableName, new TableCatalog.Unopened(file, null));
+                        } else if (file.isFile() && fileName.endsWith(".tab")) {
+                            String tableName = fileName.substring(0, fileName.length() - 4);
+                            unopened.putIfAbsent(tableName, new TableCatalog.Unopened(file, null));
+                        }
+                    }
+                }
+                wal = new WriteAheadLog(databaseFolder);
+                // 事务的记录在 BEGIN 和 COMMIT 之间；写到一半就崩溃的事务没有 COMMIT，整个丢掉
+                List<List<String>> transaction = null;
+                for (List<String> record : wal.readAll()) {
+                    String operation = record.get(0);
+                    if (operation.equals("BEGIN")) {
+                        transaction = new ArrayList<>();
+                    } else if (operation.equals("COMMIT")) {
+                        if (transaction != null) {
+                            for (List<String> committed : transaction) {
+                                addLogRecord(unopened, committed);
+                            }
+                        }
+                        transaction = null;
+                    } else if (transaction != null) {
+                        transaction.add(record);
+                    } else {
+                        addLogRecord(unopened, record);
+                    }
+                }
+                tables = new TableCatalog(unopened, new TableCatalog.Storage() {
+                    @Override
+                    public Table load(String name, TableCatalog.Unopened table) throws IOException {
+                        return openTable(name, table);
+                    }
+
+                    @Override
+                    public File writeBack(Table table) throws IOException {
+                        return writeBackTable(table);
+                    }
+                }, bufferPool);
+            }
+            // 上次 checkpoint 没有完成，先把快照补齐
+            if (wal.hasRotated()) {
+                checkpoint();
+            }
+            startCheckpointer();
             return tables;
         }
-        for(File file: files){
-            if(file.isFile()){
-                String fileName = file.getName();
-                String tableName = fileName.endsWith(".tab") 
-                ? fileName.substring(0, fileName.length() - 4)
-                : fileName;
-                Table table = loadTableFromFile(file, tableName);
-                tables.put(tableName,table);
+    }
+
+    // 日志记录先按表存起来，表打开时再重放；CREATE 和 DROP 决定有哪些表
+    private void addLogRecord(Map<String, TableCatalog.Unopened> unopened, List<String> record) {
+        String operation = record.get(0);
+        String tableName = record.get(1);
+        if (operation.equals("CREATE")) {
+            unopened.put(tableName, new TableCatalog.Unopened(null, new ArrayList<>(record.subList(2, record.size()))));
+            droppedTables.remove(tableName);
+            dirtyTables.add(tableName);
+            return;
+        }
+        if (operation.equals("DROP")) {
+            unopened.remove(tableName);
+            dirtyTables.remove(tableName);
+            droppedTables.add(tableName);
+            return;
+        }
+        TableCatalog.Unopened table = unopened.get(tableName);
+        if (table != null) {
+            table.records.add(record);
+            dirtyTables.add(tableName);
+        }
+    }
+
+    // 第一次用到一个表：加载快照和索引，再重放日志里它的记录
+    private Table openTable(String tableName, TableCatalog.Unopened pending) throws IOException {
+        Table table;
+        if (pending.file != null && pending.file.getName().endsWith(PageFile.EXTENSION)) {
+            table = PageFile.read(pending.file, tableName);
+            loadIndexes(pending.file.getParentFile(), table);
+        } else if (pending.file != null) {
+            table = loadTableFromFile(pending.file, tableName);
+            loadIndexes(pending.file.getParentFile(), table);
+            // 旧格式的表在下一次 checkpoint 时写成 .tbl
+            synchronized (this) {
+                dirtyTables.add(tableName);
+            }
+        } else {
+            table = new Table(tableName, pending.columns);
+        }
+        for (List<String> record : pending.records) {
+            applyLogRecord(table, record);
+        }
+        return table;
+    }
+
+    // IMPORT：从 .tab 文本文件读出一个新表（id 保留）
+    public Table importTable(File file, String tableName) throws IOException {
+        return loadTableFromFile(file, tableName);
+    }
+
+    /**
+     * 缓冲池换出一个表之前调用（调用方拿着表的写锁，所以这时没有人能改它）
+     * 表在上次 checkpoint 之后改过的话先写一份快照；它的修改都已经在快照里了，
+     * 所以下一次 checkpoint 不用再管它
+     */
+    private File writeBackTable(Table table) throws IOException {
+        File folder;
+        boolean dirty;
+        synchronized (this) {
+            folder = databaseFolder;
+            dirty = dirtyTables.contains(table.getName()) || checkpointingTables.contains(table.getName());
+        }
+        if (dirty) {
+            writeSnapshot(folder, table, table.getIndexDefinitions());
+            synchronized (this) {
+                dirtyTables.remove(table.getName());
             }
+            bufferPool.wroteBack();
         }
-        return tables;
+        return new File(folder, table.getName().toLowerCase() + PageFile.EXTENSION);
     }
 
     /**
-     * 从一个文件中加载数据
-     * 加载文件的时候忽略id，因为id是由我们定制，不是由用户定制
+     * 从一个 .tab 文本文件中加载数据
+     * 文件映射到内存，先找出每一行的起始位置，再逐行解码成列，不会把整个文件读成字符串
+     * 文件里的 id 会被保留，这样日志里按 id 记录的修改才能重放
      */
     private Table loadTableFromFile(File file, String tableName) throws IOException {
-        List<String> lines = Files.readAllLines(file.toPath());
-        if(lines.isEmpty()){
-            throw new IOException("Table File " + file.getName() + " is empty");
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Table File " + file.getName() + " is too large");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int[] lineStarts = lineStarts(buffer);
+            int lineCount = lineStarts.length - 1;
+            if (lineCount == 0) {
+                throw new IOException("Table File " + file.getName() + " is empty");
+            }
+            byte[] bytes = new byte[256];
+            // 表头 列名
+            String headerLine = decodeLine(buffer, lineStarts, 0, bytes);
+            String[] headers = headerLine.split("\t");
+            if (headers.length == 0 || !headers[0].equals("id")) {
+                throw new IOException("Table File " + file.getName() + "'s first line must be 'id'");
+            }
+
+            // id之后都是数据
+            List<String> columns = new ArrayList<>();
+            for (int i = 0; i < headers.length - 1; ++i) {
+                columns.add(headers[i + 1]);
+            }
+
+            Table table = new Table(tableName, columns);
+
+            for (int i = 1; i < lineCount; ++i) {
+                String line = decodeLine(buffer, lineStarts, i, bytes);
+                // 使用制表符分割
+                String[] fileds = line.split("\t", -1);
+                if (fileds.length != headers.length) {
+                    throw new IOException("Files " + file.getName() + " lines" + (i + 1) + " invaild");
+                }
+                try {
+                    table.loadRow(Arrays.asList(fileds));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Files " + file.getName() + " lines" + (i + 1) + " has an invalid id");
+                }
+            }
+            return table;
         }
-        // 表头 列名
-        String headerLine = lines.get(0);
-        String[] headers = headerLine.split("\t");
-        if(headers.length == 0 || !headers[0].equals("id")){
-            throw new IOException("Table File " + file.getName() + "'s first line must be 'id'");
+    }
+
+    // 行偏移索引：第 i 行从 lineStarts[i] 开始，最后一项是文件末尾之后的位置
+    private static int[] lineStarts(ByteBuffer buffer) {
+        int[] starts = new int[64];
+        int count = 0;
+        int limit = buffer.limit();
+        int start = 0;
+        while (start < limit) {
+            if (count + 1 >= starts.length) {
+                starts = Arrays.copyOf(starts, starts.length * 2);
+            }
+            starts[count++] = start;
+            int position = start;
+            while (position < limit && buffer.get(position) != '\n') {
+                ++position;
+            }
+            start = position + 1;
         }
+        starts[count++] = Math.max(start, limit);
+        return Arrays.copyOf(starts, count);
+    }
 
-        // id之后都是数据
-        List<String> columns = new ArrayList<>();
-        for(int i = 0; i < headers.length - 1; ++i){
-            columns.add(headers[i+1]);
+    // 解码一行（不包括行尾的换行符），和 Files.readAllLines 一样按 UTF-8
+    private static String decodeLine(ByteBuffer buffer, int[] lineStarts, int line, byte[] bytes) {
+        int start = lineStarts[line];
+        int end = Math.min(lineStarts[line + 1], buffer.limit());
+        if (end > start && buffer.get(end - 1) == '\n') --end;
+        if (end > start && buffer.get(end - 1) == '\r') --end;
+        int length = end - start;
+        if (length > bytes.length) {
+            return new String(readBytes(buffer, start, length), StandardCharsets.UTF_8);
         }
+        buffer.get(start, bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer, int start, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(start, bytes, 0, length);
+        return bytes;
+    }
 
-        Table table = new Table(tableName, columns);
+    // 索引定义保存在 <table>.idx 中，每行 "列名\t类型"，加载时重新建立索引
+    private void loadIndexes(File folder, Table table) throws IOException {
+        File indexFile = new File(folder, table.getName() + ".idx");
+        if (!indexFile.exists()) {
+            return;
+        }
+        for (String line : Files.readAllLines(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            String type = fields.length > 1 ? fields[1] : "HASH";
+            if (!fields[0].isEmpty() && table.getColumnIndex(fields[0]) != -1) {
+                table.createIndex(fields[0], type);
+            }
+        }
+    }
 
-        for(int i = 1; i < lines.size(); ++i){
-            String line = lines.get(i);
-            // 使用制表符分割
-            String[] fileds = line.split("\t", -1);
-            if(fileds.length != headers.length){
-                throw new IOException("Files " + file.getName() + " lines" + (i+1) + " invaild");
+    // 把日志里的一条记录作用到刚打开的表上；重放可能覆盖到快照里已有的修改，所以每种操作都要幂等
+    private void applyLogRecord(Table table, List<String> record) {
+        String operation = record.get(0);
+        switch (operation) {
+            case "INSERT": {
+                if (table.positionOfId(record.get(2)) >= 0) {
+                    return;
+                }
+                // 列数可能在之后的 ALTER 中变化过，补齐或截断
+                List<String> row = new ArrayList<>(record.subList(2, record.size()));
+                while (row.size() < table.getColumns().size()) row.add("");
+                while (row.size() > table.getColumns().size()) row.remove(row.size() - 1);
+                table.loadRow(row);
+                break;
             }
-            List<String> roeData = new ArrayList<>();
-            for(int j = 1; j < fileds.length; ++j){
-                roeData.add(fileds[j]);
+            case "UPDATE": {
+                int position = table.positionOfId(record.get(2));
+                int columnIndex = table.getColumnIndex(record.get(3));
+                if (position >= 0 && columnIndex > 0) {
+                    table.setValue(position, columnIndex, record.get(4));
+                }
+                break;
             }
-            table.addRow(roeData);
+            case "DELETE":
+                table.deleteRowById(record.get(2));
+                break;
+            case "ADD":
+                if (table.getColumnIndex(record.get(2)) == -1) {
+                    table.addColumn(record.get(2));
+                }
+                break;
+            case "INDEX":
+                if (table.getColumnIndex(record.get(2)) != -1) {
+                    table.createIndex(record.get(2), record.get(3));
+                }
+                break;
+            case "DROPCOL": {
+                int columnIndex = table.getColumnIndex(record.get(2));
+                if (columnIndex > 0) {
+                    table.dropColumn(columnIndex);
+                }
+                break;
+            }
+            default:
+                break;
         }
-        return table;
+    }
+
+    // ----------------- 日志记录，调用方修改完内存中的表后再调用 -----------------
+
+    public synchronized void logCreateTable(Table table) throws IOException {
+        List<String> record = new ArrayList<>(List.of("CREATE", table.getName()));
+        record.addAll(table.getColumns().subList(1, table.getColumns().size()));
+        appendRecord(table.getName(), record);
+        droppedTables.remove(table.getName());
+    }
+
+    public synchronized void logDropTable(String tableName) throws IOException {
+        appendRecord(tableName, List.of("DROP", tableName));
+        dirtyTables.remove(tableName);
+        droppedTables.add(tableName);
+    }
+
+    @Override
+    public synchronized void logInsert(Table table, List<String> row) throws IOException {
+        appendRecord(table.getName(), insertRecord(table, row));
+    }
+
+    @Override
+    public synchronized void logUpdate(Table table, String id, String column, String value) throws IOException {
+        appendRecord(table.getName(), updateRecord(table, id, column, value));
+    }
+
+    @Override
+    public synchronized void logDelete(Table table, String id) throws IOException {
+        appendRecord(table.getName(), deleteRecord(table, id));
+    }
+
+    // 事务先把记录存在自己那里，COMMIT 时再交给 commitTransaction
+    static List<String> insertRecord(Table table, List<String> row) {
+        List<String> record = new ArrayList<>(List.of("INSERT", table.getName()));
+        record.addAll(row);
+        return record;
+    }
+
+    static List<String> updateRecord(Table table, String id, String column, String value) {
+        return List.of("UPDATE", table.getName(), id, column, value);
+    }
+
+    static List<String> deleteRecord(Table table, String id) {
+        return List.of("DELETE", table.getName(), id);
+    }
+
+    /**
+     * 一个事务的所有记录一次写进日志，前后加上 BEGIN 和 COMMIT，然后按持久化模式提交一次
+     * 调用方还占着事务改过的表，所以 checkpoint 不会在这之前把它们写进快照
+     */
+    public void commitTransaction(List<List<String>> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            if (wal == null) {
+                throw new IOException("No database is open");
+            }
+            String id = Long.toString(++transactionCount);
+            wal.append(List.of("BEGIN", id));
+            for (List<String> record : records) {
+                appendRecord(record.get(1), record);
+            }
+            wal.append(List.of("COMMIT", id));
+        }
+        commit();
+    }
+
+    public synchronized void logAddColumn(Table table, String column) throws IOException {
+        appendRecord(table.getName(), List.of("ADD", table.getName(), column));
+    }
+
+    public synchronized void logCreateIndex(Table table, String column, String type) throws IOException {
+        appendRecord(table.getName(), List.of("INDEX", table.getName(), column, type));
+    }
+
+    public synchronized void logDropColumn(Table table, String column) throws IOException {
+        appendRecord(table.getName(), List.of("DROPCOL", table.getName(), column));
+    }
+
+    /**
+     * 一条语句产生的所有记录一起提交，按当前的持久化模式：
+     * SYNC 马上 fsync；GROUP 和同时提交的语句共用一次 fsync；ASYNC 直接返回，由后台线程 fsync
+     */
+    @Override
+    public void commit() throws IOException {
+        long start = System.nanoTime();
+        Durability mode = durability;
+        long target;
+        synchronized (this) {
+            if (wal == null) {
+                return;
+            }
+            if (mode == Durability.SYNC && wal.sync()) {
+                commitStats.synced(mode);
+            }
+            target = appendedRecords;
+        }
+        if (mode == Durability.GROUP) {
+            groupCommit(target);
+        }
+        commitStats.committed(mode, System.nanoTime() - start);
+    }
+
+    // 等到前 target 条记录都 fsync 过；没有线程在 fsync 时自己来做，一次把所有已经写进来的记录都 fsync
+    private void groupCommit(long target) throws IOException {
+        while (true) {
+            synchronized (groupCommitLock) {
+                while (groupSyncRunning && durableRecords < target) {
+                    try {
+                        groupCommitLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the group commit");
+                    }
+                }
+                if (durableRecords >= target) {
+                    return;
+                }
+                groupSyncRunning = true;
+            }
+            long upTo = 0;
+            boolean synced = false;
+            try {
+                FileChannel channel;
+                synchronized (this) {
+                    upTo = appendedRecords;
+                    channel = wal == null ? null : wal.flush();
+                }
+                // fsync 的时候不拿着 this，别的语句可以继续写日志
+                if (channel != null) {
+                    try {
+                        channel.force(false);
+                    } catch (ClosedChannelException e) {
+                        // 日志刚被切换或关闭，那时已经 fsync 过了
+                    }
+                    commitStats.synced(Durability.GROUP);
+                }
+                synced = true;
+            } finally {
+                synchronized (groupCommitLock) {
+                    groupSyncRunning = false;
+                    if (synced) {
+                        durableRecords = Math.max(durableRecords, upTo);
+                    }
+                    groupCommitLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    // 从 ASYNC 换到别的模式时先把还没 fsync 的记录 fsync 掉
+    public void setDurability(Durability mode) throws IOException {
+        synchronized (this) {
+            if (wal != null && wal.sync()) {
+                commitStats.synced(durability);
+            }
+            durability = mode;
+            commitStats.switchTo(mode);
+        }
+    }
+
+    public CommitStats getCommitStats() {
+        return commitStats;
+    }
+
+    private void appendRecord(String tableName, List<String> record) throws IOException {
+        if (wal == null) {
+            throw new IOException("No database is open");
+        }
+        wal.append(record);
+        ++appendedRecords;
+        dirtyTables.add(tableName);
+    }
+
+    /**
+     * 把修改过的表写成新的 .tab 快照并丢掉已经覆盖到的日志
+     * 每个表在它的读锁下拷贝，写文件的时候不持有任何锁，所以命令可以继续执行
+     * 修改总是先作用到表上再写日志，所以切换日志之前记下的修改一定在拷贝里；
+     * 切换之后的修改可能也在拷贝里，重放是幂等的，没有关系
+     */
+    public void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            Set<String> dirty;
+            Set<String> dropped;
+            File folder;
+            WriteAheadLog log;
+            TableCatalog catalog;
+            synchronized (this) {
+                if (wal == null) {
+                    return;
+                }
+                log = wal;
+                log.rotate();
+                dirty = dirtyTables;
+                checkpointingTables = dirty;
+                dropped = droppedTables;
+                dirtyTables = new HashSet<>();
+                droppedTables = new HashSet<>();
+                folder = databaseFolder;
+                catalog = tables;
+            }
+            try {
+                // 不能在持有 this 的时候等表锁：写表的线程会拿着表锁来写日志
+                // 日志里有记录、但还没打开过的表（崩溃之后）在这里打开
+                List<Table> snapshots = new ArrayList<>();
+                Map<String, List<List<String>>> snapshotIndexes = new HashMap<>();
+                for (String tableName : dirty) {
+                    Table table = catalog.get(tableName);
+                    if (table == null) {
+                        continue;
+                    }
+                    lockCommitted(table);
+                    try {
+                        snapshots.add(table.copy());
+                        snapshotIndexes.put(table.getName(), table.getIndexDefinitions());
+                    } finally {
+                        table.getLock().readLock().unlock();
+                    }
+                }
+                for (String tableName : dropped) {
+                    Files.deleteIfExists(new File(folder, tableName + PageFile.EXTENSION).toPath());
+                    Files.deleteIfExists(new File(folder, tableName + ".tab").toPath());
+                    Files.deleteIfExists(new File(folder, tableName + ".idx").toPath());
+                }
+                for (Table snapshot : snapshots) {
+                    writeSnapshot(folder, snapshot, snapshotIndexes.get(snapshot.getName()));
+                }
+                log.deleteRotated();
+                synchronized (this) {
+                    checkpointingTables = new HashSet<>();
+                }
+            } catch (IOException e) {
+                // 下一次 checkpoint 再试
+                synchronized (this) {
+                    dirtyTables.addAll(dirty);
+                    droppedTables.addAll(dropped);
+                    checkpointingTables = new HashSet<>();
+                }
+                throw e;
+            }
+        }
+    }
+
+    // 拿到表的读锁，并且表上没有还没提交的事务；等太久就放弃这次 checkpoint
+    private static void lockCommitted(Table table) throws IOException {
+        while (true) {
+            table.getLock().readLock().lock();
+            if (table.getOwner() == null) {
+                return;
+            }
+            table.getLock().readLock().unlock();
+            try {
+                if (!table.awaitRelease(Transaction.LOCK_WAIT_MS)) {
+                    throw new IOException("Table " + table.getName() + " has an open transaction");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a transaction");
+            }
+        }
+    }
+
+    // 关闭当前数据库：停掉后台线程，做最后一次 checkpoint 并关闭日志
+    public void close() throws IOException {
+        stopCheckpointer();
+        closeLog();
+    }
+
+    private void closeLog() throws IOException {
+        synchronized (checkpointLock) {
+            if (wal == null) {
+                return;
+            }
+            checkpoint();
+            synchronized (this) {
+                wal.close();
+                wal = null;
+                tables = null;
+            }
+            bufferPool.clear();
+        }
+    }
+
+    // 调用方拿着 checkpointLock
+    private void startCheckpointer() {
+        if (checkpointer != null) {
+            return;
+        }
+        // 两个线程：checkpoint 比较慢，不能挡住 ASYNC 的后台 fsync
+        checkpointer = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "wal-checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointer.scheduleWithFixedDelay(() -> {
+            try {
+                if (logSize() >= CHECKPOINT_THRESHOLD_BYTES) {
+                    checkpoint();
+                }
+            } catch (IOException e) {
+                AsyncLog.console().log("Checkpoint failed: " + e.getMessage());
+            }
+        }, CHECKPOINT_INTERVAL_MS, CHECKPOINT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        checkpointer.scheduleWithFixedDelay(() -> {
+            try {
+                flushAsyncCommits();
+            } catch (IOException e) {
+                AsyncLog.console().log("Background log flush failed: " + e.getMessage());
+            }
+        }, ASYNC_FLUSH_INTERVAL_MS, ASYNC_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // 等正在执行的 checkpoint 或者刷盘做完；之后 openDatabase 会重新启动
+    private void stopCheckpointer() throws InterruptedIOException {
+        ScheduledExecutorService executor;
+        synchronized (checkpointLock) {
+            executor = checkpointer;
+            checkpointer = null;
+        }
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                AsyncLog.console().log("The checkpointer did not stop within a minute");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while stopping the checkpointer");
+        }
+    }
+
+    // ASYNC 模式下已经回答了、但还没 fsync 的提交
+    private synchronized void flushAsyncCommits() throws IOException {
+        if (durability == Durability.ASYNC && wal != null && wal.sync()) {
+            commitStats.synced(Durability.ASYNC);
+        }
+    }
+
+    private synchronized long logSize() {
+        return wal == null ? 0 : wal.getSize();
     }
 
     public void saveTable(Table table) throws IOException {
-        String fileName = storageFolderPath + File.separator + table.getName().toLowerCase() + ".tab";
-        File file = new File(fileName);
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))){
+        writeSnapshot(new File(storageFolderPath), table, table.getIndexDefinitions());
+    }
+
+    // 先写临时文件再原子替换，崩溃时不会留下写了一半的 .tab
+    private void writeSnapshot(File folder, Table table, List<List<String>> indexDefinitions) throws IOException {
+        File indexFile = new File(folder, table.getName().toLowerCase() + ".idx");
+        if (indexDefinitions.isEmpty()) {
+            Files.deleteIfExists(indexFile.toPath());
+        } else {
+            List<String> lines = new ArrayList<>();
+            for (List<String> definition : indexDefinitions) {
+                lines.add(String.join("\t", definition));
+            }
+            Files.write(indexFile.toPath(), lines, StandardCharsets.UTF_8);
+        }
+        File file = new File(folder, table.getName().toLowerCase() + PageFile.EXTENSION);
+        // 换出和 checkpoint 可能同时写同一个表，临时文件不能重名
+        File tempFile = Files.createTempFile(folder.toPath(), table.getName().toLowerCase() + PageFile.EXTENSION + ".", ".tmp").toFile();
+        PageFile.write(tempFile, table);
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // 旧格式的文件已经被 .tbl 取代了
+        Files.deleteIfExists(new File(folder, table.getName().toLowerCase() + ".tab").toPath());
+    }
+
+    // EXPORT：把表写成 .tab 文本文件（表头一行，之后每行一条记录，用制表符分隔）
+    public void exportTable(Table table, File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(tempFile);
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8))){
             List<String> columnNames = table.getColumns();
             writer.write(String.join("\t", columnNames));
             writer.newLine();
@@ -88,7 +751,10 @@ public class DatabaseManager {
                 writer.write(String.join("\t", row));
                 writer.newLine();
             }
+            writer.flush();
+            outputStream.getChannel().force(false);
         }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 
     public void saveAllTables(Map<String, Table> tables) throws IOException {
@@ -97,6 +763,10 @@ public class DatabaseManager {
         }
     }
 
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
     public String getStorageFolderPath() {
         return storageFolderPath;
     }
@@ -104,5 +774,5 @@ public class DatabaseManager {
     public void setStorageFolderPath(String storageFolderPath) {
         this.storageFolderPath = storageFolderPath;
     }
-    
+
 }
@@ -0,0 +1,187 @@
+package edu.uob;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Floating point column stored in a double[]. Whole numbers written without a
+ * decimal point (e.g. 65 in a column that also holds 65.5) are flagged so that
+ * they are printed back the way they were entered.
+ */
+public class DoubleColumn extends Column {
+
+    // 2^53 以内的整数可以用 double 精确表示
+    private static final double MAX_EXACT_INTEGER = 9007199254740992.0;
+
+    private double[] values = new double[0];
+    private BitSet integral = new BitSet();
+    private BitSet nulls = new BitSet();
+
+    public static boolean canHold(String value) {
+        if (value.isEmpty()) {
+            return true;
+        }
+        if (LongColumn.canHold(value)) {
+            return Math.abs((double) Long.parseLong(value)) <= MAX_EXACT_INTEGER;
+        }
+        try {
+            return Double.toString(Double.parseDouble(value)).equals(value);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public String getType() {
+        return "DOUBLE";
+    }
+
+    @Override
+    public boolean accepts(String value) {
+        return canHold(value);
+    }
+
+    @Override
+    public void add(String value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, grow(values.length, size + 1));
+        }
+        ++size;
+        set(size - 1, value);
+    }
+
+    // 不经过字符串直接追加一个值；integral 表示原来写的是不带小数点的整数
+    public void addDouble(double value, boolean isIntegral) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, grow(values.length, size + 1));
+        }
+        values[size] = value;
+        integral.set(size, isIntegral);
+        ++size;
+    }
+
+    @Override
+    public void set(int position, String value) {
+        if (value.isEmpty()) {
+            nulls.set(position);
+            integral.clear(position);
+            values[position] = 0;
+        } else if (LongColumn.canHold(value)) {
+            nulls.clear(position);
+            integral.set(position);
+            values[position] = Long.parseLong(value);
+        } else {
+            nulls.clear(position);
+            integral.clear(position);
+            values[position] = Double.parseDouble(value);
+        }
+    }
+
+    @Override
+    public String get(int position) {
+        if (nulls.get(position)) {
+            return "";
+        }
+        return integral.get(position) ? Long.toString((long) values[position]) : Double.toString(values[position]);
+    }
+
+    public boolean isNull(int position) {
+        return nulls.get(position);
+    }
+
+    public double getDouble(int position) {
+        return values[position];
+    }
+
+    public boolean isIntegral(int position) {
+        return integral.get(position);
+    }
+
+    @Override
+    public boolean isEmpty(int position) {
+        return nulls.get(position);
+    }
+
+    @Override
+    public boolean isNumber(int position) {
+        return !nulls.get(position);
+    }
+
+    @Override
+    public double getNumber(int position) {
+        return values[position];
+    }
+
+    @Override
+    public boolean isWhole(int position) {
+        return !nulls.get(position) && integral.get(position);
+    }
+
+    @Override
+    public long getWhole(int position) {
+        return (long) values[position];
+    }
+
+    @Override
+    public boolean test(int position, Condition condition) {
+        if (nulls.get(position)) {
+            return condition.testText("");
+        }
+        if (condition.usesNumbers()) {
+            return condition.testNumber(values[position]);
+        }
+        return condition.testText(get(position));
+    }
+
+    @Override
+    public Filter compile(Condition condition) {
+        if (!condition.usesNumbers()) {
+            return rowByRow(condition);
+        }
+        double[] cells = values;
+        BitSet empty = nulls;
+        boolean anyEmpty = !nulls.isEmpty();
+        boolean emptyMatches = condition.testText("");
+        boolean[] outcomes = condition.outcomes();
+        double literal = condition.number;
+        return (selection, count) -> {
+            int kept = 0;
+            for (int i = 0; i < count; ++i) {
+                int position = selection[i];
+                boolean match = anyEmpty && empty.get(position) ? emptyMatches
+                        : outcomes[Condition.order(cells[position], literal)];
+                selection[kept] = position;
+                kept += match ? 1 : 0;
+            }
+            return kept;
+        };
+    }
+
+    @Override
+    public void removeAll(BitSet removed) {
+        int target = 0;
+        for (int i = 0; i < size; ++i) {
+            if (!removed.get(i)) {
+                values[target++] = values[i];
+            }
+        }
+        integral = compact(integral, removed, size);
+        nulls = compact(nulls, removed, size);
+        size = target;
+    }
+
+    @Override
+    public long estimateBytes() {
+        return 8L * values.length + (integral.size() + nulls.size()) / 8;
+    }
+
+    @Override
+    public Column copy() {
+        DoubleColumn column = new DoubleColumn();
+        column.values = Arrays.copyOf(values, size);
+        column.integral = (BitSet) integral.clone();
+        column.nulls = (BitSet) nulls.clone();
+        column.size = size;
+        return column;
+    }
+}
@@ -0,0 +1,14 @@
+package edu.uob;
+
+/**
+ * How DatabaseManager.commit() makes a statement's log records durable
+ * before the server answers.
+ */
+public enum Durability {
+    // 每次提交都 fsync 一次
+    SYNC,
+    // 同时在等的提交共用一次 fsync：一次 fsync 进行时到达的提交由下一次一起完成
+    GROUP,
+    // 先回答，后台线程定期 fsync；崩溃时可能丢掉最近一小段时间的修改
+    ASYNC
+}
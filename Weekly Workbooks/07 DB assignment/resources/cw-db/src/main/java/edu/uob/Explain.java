@@ -0,0 +1,282 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * What EXPLAIN shows for a SELECT, UPDATE, DELETE or JOIN: the operators the
+ * rows go through, in order (how rows are found, the WHERE predicates in the
+ * order they run, the join algorithm, grouping, sorting, paging and the
+ * output), each with the number of rows it is expected to produce.
+ * For EXPLAIN ANALYZE the command really runs with the Explain attached to
+ * its thread. The operators record the rows they produced and the time they
+ * took; the time left over is counted as the output (or the change itself).
+ */
+public class Explain {
+
+    /** The kind of work an operator does; the running code records its rows and time against it. */
+    public enum Step { ACCESS, FILTER, JOIN, AGGREGATE, SORT, LIMIT, CHANGE, OUTPUT }
+
+    // 当前线程正在 EXPLAIN ANALYZE 的命令
+    private static final ThreadLocal<Explain> CURRENT = new ThreadLocal<>();
+
+    private static class Operator {
+        final Step step;
+        final String name;
+        final String detail;
+        // -1 表示没有估计（计划里没有、执行时才出现的操作）
+        final long estimatedRows;
+        long actualRows;
+        long nanos;
+
+        Operator(Step step, String name, String detail, long estimatedRows) {
+            this.step = step;
+            this.name = name;
+            this.detail = detail;
+            this.estimatedRows = estimatedRows;
+        }
+    }
+
+    private final List<Operator> operators = new ArrayList<>();
+
+    private boolean analyzed;
+
+    void add(Step step, String name, String detail, long estimatedRows) {
+        operators.add(new Operator(step, name, detail, estimatedRows));
+    }
+
+    // 最后一个操作的估计行数
+    long lastEstimate() {
+        return operators.isEmpty() ? 0 : operators.get(operators.size() - 1).estimatedRows;
+    }
+
+    // ----------------- 计划 -----------------
+
+    /**
+     * 按 DBServer 执行 SELECT 的方式列出操作；列名不存在时抛出 IllegalArgumentException
+     * where、offset、limit 已经绑定好（limit < 0 表示没有 LIMIT）
+     */
+    static Explain select(Table table, QueryPlan plan, Expression where, int offset, int limit) {
+        Explain explain = new Explain();
+        List<String> output = new ArrayList<>();
+        for (int i = 0; i < plan.columns.size(); i++) {
+            if (!plan.columns.get(i).equals("*")) {
+                column(table, plan.columns.get(i), "SELECT");
+            }
+            output.add(plan.label(i));
+        }
+        if (plan.selectAll) {
+            output.addAll(table.getColumns());
+        }
+        List<Integer> orderColumns = new ArrayList<>();
+        List<String> orderLabels = new ArrayList<>();
+        for (int i = 0; i < plan.orderBy.size(); i++) {
+            if (!plan.isAggregate()) {
+                orderColumns.add(column(table, plan.orderBy.get(i), "ORDER BY"));
+            }
+            orderLabels.add(plan.orderLabel(i) + (plan.descending.get(i) ? " DESC" : ""));
+        }
+
+        OrderedIndex index = plan.isAggregate() ? null : RowOrder.usableIndex(table, orderColumns);
+        long matches;
+        if (index != null && RowOrder.walksIndex(where, limit)) {
+            // 按索引的顺序读，过滤之后够一页就停
+            matches = explain.estimateMatches(table, where);
+            String detail = table.getName() + " ordered by " + orderLabels.get(0)
+                    + (where == null ? "" : ", then " + where.describe(table));
+            explain.add(Step.ACCESS, "INDEX ORDER SCAN", detail, pageSize(matches, offset, limit, false));
+        } else {
+            matches = explain.access(table, where);
+            if (plan.isAggregate()) {
+                List<String> functions = new ArrayList<>();
+                for (int i = 0; i < plan.columns.size(); i++) {
+                    if (plan.functions.get(i) != null) functions.add(plan.label(i));
+                }
+                for (String col : plan.groupBy) {
+                    column(table, col, "GROUP BY");
+                }
+                String detail = (plan.groupBy.isEmpty() ? "" : "GROUP BY " + String.join(", ", plan.groupBy) + ": ")
+                        + String.join(", ", functions);
+                matches = plan.groupBy.isEmpty() ? 1 : matches;
+                explain.add(Step.AGGREGATE, "AGGREGATE", detail, matches);
+            }
+            if (!orderLabels.isEmpty()) {
+                boolean topN = limit >= 0 && !plan.isAggregate();
+                explain.add(Step.SORT, topN ? "TOP-N SORT" : "SORT", String.join(", ", orderLabels),
+                        topN ? pageSize(matches, 0, offset + limit, false) : matches);
+            }
+        }
+        if (offset > 0 || limit >= 0) {
+            explain.add(Step.LIMIT, "LIMIT", "OFFSET " + offset + (limit < 0 ? "" : " LIMIT " + limit),
+                    pageSize(matches, offset, limit, true));
+        }
+        explain.add(Step.OUTPUT, "OUTPUT", String.join(", ", output), explain.lastEstimate());
+        return explain;
+    }
+
+    // UPDATE 和 DELETE：先找到要改的行，再改
+    static Explain change(Table table, QueryPlan plan, Expression where) {
+        Explain explain = new Explain();
+        long matches = explain.access(table, where);
+        String detail = table.getName();
+        if (plan.getKind() == QueryPlan.Kind.UPDATE) {
+            List<String> assignments = new ArrayList<>();
+            for (String col : plan.columns) {
+                column(table, col, "UPDATE");
+                assignments.add(col + " = ?");
+            }
+            detail += " SET " + String.join(", ", assignments);
+        }
+        explain.add(Step.CHANGE, plan.getKind().name(), detail, matches);
+        return explain;
+    }
+
+    // 和 TableJoin.matchingPairs 选的算法一样；估计的行数按两边不同值的个数算
+    static Explain join(Table left, int leftColumn, Table right, int rightColumn) {
+        Explain explain = new Explain();
+        String on = left.getName() + "." + left.getColumns().get(leftColumn) + " = "
+                + right.getName() + "." + right.getColumns().get(rightColumn);
+        long estimate = TableJoin.estimatePairs(left, leftColumn, right, rightColumn);
+        TableJoin.Strategy strategy = TableJoin.strategy(left, leftColumn, right, rightColumn);
+        if (strategy == TableJoin.Strategy.MERGE) {
+            explain.add(Step.JOIN, "MERGE JOIN", on + ", over both ordered indexes", estimate);
+        } else {
+            boolean buildLeft = strategy == TableJoin.Strategy.HASH_BUILD_LEFT;
+            Table build = buildLeft ? left : right;
+            Table probe = buildLeft ? right : left;
+            explain.add(Step.JOIN, "HASH JOIN", on + ", build " + build.getName() + " (" + build.getRowCount()
+                    + " rows), probe " + probe.getName() + " (" + probe.getRowCount() + " rows"
+                    + (ParallelScan.isWorthIt(probe.getRowCount()) ? ", parallel" : "") + ")", estimate);
+        }
+        explain.add(Step.OUTPUT, "OUTPUT", "id and every other column of both tables", estimate);
+        return explain;
+    }
+
+    // 怎么找到候选行（扫描或者索引）和 WHERE 的过滤；返回估计满足 WHERE 的行数
+    private long access(Table table, Expression where) {
+        int rows = table.getRowCount();
+        List<Condition> indexed = new ArrayList<>();
+        int[] candidates = where == null ? null : where.candidates(table, indexed);
+        int count = candidates == null ? rows : candidates.length;
+        String parallel = ParallelScan.isWorthIt(count) ? ", parallel" : "";
+        if (candidates == null) {
+            add(Step.ACCESS, "SCAN", table.getName() + " (" + rows + " rows" + parallel + ")", rows);
+        } else {
+            List<String> conditions = new ArrayList<>();
+            for (Condition condition : indexed) {
+                conditions.add(Expression.describe(condition));
+            }
+            add(Step.ACCESS, "INDEX SEEK", table.getName() + " on " + String.join(", ", conditions) + parallel, count);
+        }
+        if (where == null) {
+            return count;
+        }
+        long matches = Math.min(count, estimateMatches(table, where));
+        add(Step.FILTER, "FILTER", where.describe(table), matches);
+        return matches;
+    }
+
+    private long estimateMatches(Table table, Expression where) {
+        return where == null ? table.getRowCount() : Math.round(table.getRowCount() * where.selectivity(table));
+    }
+
+    // 跳过 offset 行之后最多 limit 行（limit < 0 表示不限）
+    private static long pageSize(long rows, int offset, long limit, boolean skip) {
+        long remaining = skip ? Math.max(0, rows - offset) : rows;
+        return limit < 0 ? remaining : Math.min(remaining, limit);
+    }
+
+    private static int column(Table table, String name, String clause) {
+        int index = table.getColumnIndex(name);
+        if (index == -1) {
+            throw new IllegalArgumentException(clause + " column " + name + " does not exist");
+        }
+        return index;
+    }
+
+    // ----------------- EXPLAIN ANALYZE -----------------
+
+    // 开始在当前线程记录；返回之前的记录，结束时交给 end
+    static Explain begin(Explain explain) {
+        Explain previous = CURRENT.get();
+        CURRENT.set(explain);
+        return previous;
+    }
+
+    static void end(Explain previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    static Explain current() {
+        return CURRENT.get();
+    }
+
+    // 不在 EXPLAIN ANALYZE 时返回 0，record 什么也不做
+    static long start() {
+        return CURRENT.get() == null ? 0 : System.nanoTime();
+    }
+
+    static void record(Step step, long rows, long start) {
+        Explain explain = CURRENT.get();
+        if (explain != null) {
+            explain.actual(step, rows, System.nanoTime() - start);
+        }
+    }
+
+    // 同一种操作多次记录时（比如每一批过滤）累加起来
+    void actual(Step step, long rows, long nanos) {
+        analyzed = true;
+        for (Operator operator : operators) {
+            if (operator.step == step) {
+                operator.actualRows += rows;
+                operator.nanos += nanos;
+                return;
+            }
+        }
+        Operator operator = new Operator(step, step.name(), "", -1);
+        operator.actualRows = rows;
+        operator.nanos = nanos;
+        operators.add(operator);
+    }
+
+    /**
+     * 命令执行完了：总时间减去各个操作记下的时间就是最后一个操作（输出或者修改）的时间
+     * rows 是它的行数；UPDATE / DELETE 时用找到的行数
+     */
+    void finish(long totalNanos, long rows) {
+        analyzed = true;
+        operators.sort(Comparator.comparing(operator -> operator.step));
+        Operator last = operators.get(operators.size() - 1);
+        long recorded = 0;
+        for (Operator operator : operators) {
+            if (operator != last) recorded += operator.nanos;
+        }
+        last.nanos = Math.max(0, totalNanos - recorded);
+        if (last.step == Step.CHANGE) {
+            Operator found = operators.size() > 1 ? operators.get(operators.size() - 2) : null;
+            last.actualRows = found == null ? rows : found.actualRows;
+        } else {
+            last.actualRows = rows;
+        }
+    }
+
+    // 表格形式，和 SELECT 的结果一样：表头一行，每个操作一行；ANALYZE 时多两列
+    public String toTable() {
+        StringBuilder table = new StringBuilder("operator\tdetail\testimatedRows");
+        table.append(analyzed ? "\tactualRows\tmicros\n" : "\n");
+        for (Operator operator : operators) {
+            table.append(operator.name).append('\t').append(operator.detail).append('\t')
+                    .append(operator.estimatedRows < 0 ? "" : Long.toString(operator.estimatedRows));
+            if (analyzed) {
+                table.append('\t').append(operator.actualRows).append('\t').append(operator.nanos / 1000);
+            }
+            table.append('\n');
+        }
+        return table.toString();
+    }
+}
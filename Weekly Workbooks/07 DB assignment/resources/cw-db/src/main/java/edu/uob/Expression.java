@@ -0,0 +1,357 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A bound WHERE clause: conditions combined with AND, OR and NOT, nested to
+ * any depth. RowCursor compiles it against a table into a tree of column
+ * filters. The operands of AND and OR are reordered by estimated cost and
+ * selectivity, so cheap tests that decide most rows run first and the
+ * later ones only see the rows that are still undecided. Indexes are used
+ * through intersection (AND) and union (OR) of the positions they return.
+ */
+public class Expression {
+
+    public enum Kind { AND, OR, NOT, CONDITION }
+
+    // 比较文本的条件在数字列上要逐行转字符串，比向量化的比较贵得多
+    private static final double ROW_BY_ROW_COST = 20;
+
+    // 按索引给出的位置取行比顺序扫描慢得多，估计选中的行超过这个比例时不用索引
+    private static final double INDEX_SELECTIVITY_LIMIT = 0.1;
+
+    // LIKE 逐行找子串很贵，trigram 索引给出的候选行不超过这个比例就值得用
+    private static final double LIKE_INDEX_LIMIT = 0.5;
+
+    final Kind kind;
+
+    final List<Expression> children;
+
+    final Condition condition;
+
+    private Expression(Kind kind, List<Expression> children, Condition condition) {
+        this.kind = kind;
+        this.children = children;
+        this.condition = condition;
+    }
+
+    public static Expression of(Condition condition) {
+        return new Expression(Kind.CONDITION, List.of(), condition);
+    }
+
+    public static Expression and(List<Expression> operands) {
+        return operands.size() == 1 ? operands.get(0) : new Expression(Kind.AND, List.copyOf(operands), null);
+    }
+
+    public static Expression or(List<Expression> operands) {
+        return operands.size() == 1 ? operands.get(0) : new Expression(Kind.OR, List.copyOf(operands), null);
+    }
+
+    public static Expression not(Expression operand) {
+        return new Expression(Kind.NOT, List.of(operand), null);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public List<Expression> getChildren() {
+        return children;
+    }
+
+    public Condition getCondition() {
+        return condition;
+    }
+
+    // 所有的条件（叶子），按出现的顺序
+    public List<Condition> conditions() {
+        List<Condition> conditions = new ArrayList<>();
+        collect(conditions);
+        return conditions;
+    }
+
+    private void collect(List<Condition> conditions) {
+        if (kind == Kind.CONDITION) {
+            conditions.add(condition);
+        }
+        for (Expression child : children) {
+            child.collect(conditions);
+        }
+    }
+
+    // ----------------- 编译成过滤器 -----------------
+
+    // 调用方拿着表锁，过滤器用完之前表不会被修改
+    public Column.Filter compile(Table table) {
+        switch (kind) {
+            case CONDITION:
+                return table.compile(table.getColumnIndex(condition.attribute), condition);
+            case AND:
+                return allOf(compileAll(table, ordered(table)));
+            case OR:
+                return anyOf(compileAll(table, ordered(table)));
+            default:
+                return noneOf(children.get(0).compile(table));
+        }
+    }
+
+    // AND 先算便宜并且能排除最多行的，OR 先算便宜并且能选中最多行的
+    private List<Expression> ordered(Table table) {
+        Comparator<Expression> order = kind == Kind.AND
+                ? Comparator.comparingDouble(e -> e.cost(table) / Math.max(1e-6, 1 - e.selectivity(table)))
+                : Comparator.comparingDouble(e -> e.cost(table) / Math.max(1e-6, e.selectivity(table)));
+        List<Expression> ordered = new ArrayList<>(children);
+        ordered.sort(order);
+        return ordered;
+    }
+
+    private static Column.Filter[] compileAll(Table table, List<Expression> ordered) {
+        Column.Filter[] filters = new Column.Filter[ordered.size()];
+        for (int i = 0; i < filters.length; i++) {
+            filters[i] = ordered.get(i).compile(table);
+        }
+        return filters;
+    }
+
+    // 按过滤器真正执行的顺序写出来（EXPLAIN 用），比如 (mark > 60 AND name == 'Sim')
+    public String describe(Table table) {
+        switch (kind) {
+            case CONDITION:
+                return describe(condition);
+            case NOT:
+                return "NOT " + children.get(0).describe(table);
+            default: {
+                List<String> operands = new ArrayList<>();
+                for (Expression child : ordered(table)) {
+                    operands.add(child.describe(table));
+                }
+                return "(" + String.join(" " + kind + " ", operands) + ")";
+            }
+        }
+    }
+
+    static String describe(Condition condition) {
+        String value = condition.value;
+        boolean bare = condition.numeric || value.equalsIgnoreCase("TRUE") || value.equalsIgnoreCase("FALSE")
+                || value.equalsIgnoreCase("NULL");
+        return condition.attribute + " " + condition.comparator + " " + (bare ? value : "'" + value + "'");
+    }
+
+    private static Column.Filter allOf(Column.Filter[] filters) {
+        return (selection, count) -> {
+            for (int i = 0; i < filters.length && count > 0; i++) {
+                count = filters[i].apply(selection, count);
+            }
+            return count;
+        };
+    }
+
+    // 每个操作数只看前面的操作数还没选中的行，选中的行按位置合并
+    // 过滤器可能被几个线程同时使用，所以临时数组每个线程一份
+    private static Column.Filter anyOf(Column.Filter[] filters) {
+        ThreadLocal<int[][]> scratch = ThreadLocal.withInitial(() -> new int[4][0]);
+        return (selection, count) -> {
+            int[][] arrays = scratch.get();
+            if (arrays[0].length < count) {
+                for (int i = 0; i < arrays.length; i++) {
+                    arrays[i] = new int[count];
+                }
+            }
+            int[] rest = arrays[0];
+            int[] hits = arrays[1];
+            int[] matched = arrays[2];
+            int[] merged = arrays[3];
+            System.arraycopy(selection, 0, rest, 0, count);
+            int restCount = count;
+            int matchedCount = 0;
+            for (int i = 0; i < filters.length && restCount > 0; i++) {
+                System.arraycopy(rest, 0, hits, 0, restCount);
+                int hitCount = filters[i].apply(hits, restCount);
+                if (hitCount == 0) {
+                    continue;
+                }
+                restCount = subtract(rest, restCount, hits, hitCount, rest);
+                matchedCount = merge(matched, matchedCount, hits, hitCount, merged);
+                int[] swap = matched;
+                matched = merged;
+                merged = swap;
+            }
+            System.arraycopy(matched, 0, selection, 0, matchedCount);
+            return matchedCount;
+        };
+    }
+
+    private static Column.Filter noneOf(Column.Filter filter) {
+        ThreadLocal<int[][]> scratch = ThreadLocal.withInitial(() -> new int[1][0]);
+        return (selection, count) -> {
+            int[][] arrays = scratch.get();
+            if (arrays[0].length < count) {
+                arrays[0] = new int[count];
+            }
+            int[] hits = arrays[0];
+            System.arraycopy(selection, 0, hits, 0, count);
+            int hitCount = filter.apply(hits, count);
+            return subtract(selection, count, hits, hitCount, selection);
+        };
+    }
+
+    // a 中不在 b 里的位置（都是升序）；out 可以就是 a
+    static int subtract(int[] a, int aCount, int[] b, int bCount, int[] out) {
+        int kept = 0;
+        int j = 0;
+        for (int i = 0; i < aCount; i++) {
+            while (j < bCount && b[j] < a[i]) {
+                j++;
+            }
+            if (j == bCount || b[j] != a[i]) {
+                out[kept++] = a[i];
+            }
+        }
+        return kept;
+    }
+
+    // 合并两个升序的位置列表（去掉重复）
+    static int merge(int[] a, int aCount, int[] b, int bCount, int[] out) {
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < aCount || j < bCount) {
+            if (j == bCount || (i < aCount && a[i] < b[j])) {
+                out[count++] = a[i++];
+            } else if (i == aCount || b[j] < a[i]) {
+                out[count++] = b[j++];
+            } else {
+                out[count++] = a[i++];
+                j++;
+            }
+        }
+        return count;
+    }
+
+    // ----------------- 代价和选择率的估计 -----------------
+
+    // 满足条件的行大约占多少
+    double selectivity(Table table) {
+        switch (kind) {
+            case CONDITION: {
+                // 按表的统计信息（不同值的个数、直方图）估计
+                int columnIndex = table.getColumnIndex(condition.attribute);
+                return columnIndex < 0 ? TableStats.guess(condition)
+                        : table.getStats().selectivity(table, columnIndex, condition);
+            }
+            case AND: {
+                double selectivity = 1;
+                for (Expression child : children) {
+                    selectivity *= child.selectivity(table);
+                }
+                return selectivity;
+            }
+            case OR: {
+                double none = 1;
+                for (Expression child : children) {
+                    none *= 1 - child.selectivity(table);
+                }
+                return 1 - none;
+            }
+            default:
+                return 1 - children.get(0).selectivity(table);
+        }
+    }
+
+    // 每行大约的代价（向量化的比较是 1）
+    double cost(Table table) {
+        if (kind == Kind.CONDITION) {
+            String type = table.getColumnType(table.getColumnIndex(condition.attribute));
+            boolean numeric = type.equals("LONG") || type.equals("DOUBLE");
+            return numeric && !condition.usesNumbers() ? ROW_BY_ROW_COST : 1;
+        }
+        double cost = 0;
+        for (Expression child : children) {
+            cost += child.cost(table);
+        }
+        return cost;
+    }
+
+    // ----------------- 索引 -----------------
+
+    /**
+     * 用索引得到候选行的位置（升序），还要再用过滤器检查；用不上索引时返回 null
+     * AND 取有索引的操作数的交集，OR 只有每个操作数都有索引时才取并集
+     */
+    public int[] candidates(Table table) {
+        return candidates(table, null);
+    }
+
+    // 同上，另外把用上了索引的条件放进 used（EXPLAIN 用）；used 可以是 null
+    public int[] candidates(Table table, List<Condition> used) {
+        switch (kind) {
+            case CONDITION: {
+                // id 上的二分查找总是比扫描便宜；LIKE 没有统计信息可用，看索引实际给出多少行
+                int columnIndex = table.getColumnIndex(condition.attribute);
+                boolean like = condition.comparator.equals("LIKE");
+                if (columnIndex > 0 && !like && selectivity(table) > INDEX_SELECTIVITY_LIMIT) {
+                    return null;
+                }
+                int[] positions = table.findMatching(condition.attribute, condition.comparator, condition.value);
+                if (like && positions != null && positions.length > LIKE_INDEX_LIMIT * table.getRowCount()) {
+                    return null;
+                }
+                if (positions != null && used != null) {
+                    used.add(condition);
+                }
+                return positions;
+            }
+            case AND: {
+                int[] result = null;
+                for (Expression child : children) {
+                    int[] positions = child.candidates(table, used);
+                    if (positions != null) {
+                        result = result == null ? positions : intersect(result, positions);
+                    }
+                }
+                return result;
+            }
+            case OR: {
+                // 有一个操作数用不上索引就整个不用，它之前记下的条件也不算
+                List<Condition> usedHere = used == null ? null : new ArrayList<>();
+                int[] result = new int[0];
+                for (Expression child : children) {
+                    int[] positions = child.candidates(table, usedHere);
+                    if (positions == null) {
+                        return null;
+                    }
+                    int[] union = new int[result.length + positions.length];
+                    result = Arrays.copyOf(union, merge(result, result.length, positions, positions.length, union));
+                }
+                if (used != null) {
+                    used.addAll(usedHere);
+                }
+                return result;
+            }
+            default:
+                return null;
+        }
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (b[j] < a[i]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+}
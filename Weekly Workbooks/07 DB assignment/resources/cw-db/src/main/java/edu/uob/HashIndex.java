@@ -0,0 +1,81 @@
+package edu.uob;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Secondary hash index: cell value -> ids of the rows holding it.
+ * Numbers are keyed by their numeric value so that a lookup agrees with the
+ * numeric "==" used by WHERE clauses (e.g. 65 == 65.0).
+ */
+public class HashIndex implements ColumnIndex {
+
+    private final String column;
+
+    private final Map<String, Set<Integer>> idsByKey = new HashMap<>();
+
+    public HashIndex(String column) {
+        this.column = column;
+    }
+
+    @Override
+    public String getColumn() {
+        return column;
+    }
+
+    @Override
+    public String getType() {
+        return "HASH";
+    }
+
+    @Override
+    public void add(String value, int id) {
+        idsByKey.computeIfAbsent(key(value), k -> new HashSet<>()).add(id);
+    }
+
+    @Override
+    public void remove(String value, int id) {
+        String key = key(value);
+        Set<Integer> ids = idsByKey.get(key);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                idsByKey.remove(key);
+            }
+        }
+    }
+
+    // 哈希索引只能回答 ==
+    @Override
+    public Collection<Integer> find(String comparator, String value) {
+        return comparator.equals("==") ? get(value) : null;
+    }
+
+    // 返回可能满足 "== value" 的行 id（调用方仍需要再检查一次）
+    public Set<Integer> get(String value) {
+        String key = key(value);
+        if (key.equals("nan:")) {
+            return Collections.emptySet();
+        }
+        Set<Integer> ids = idsByKey.get(key);
+        return ids == null ? Collections.emptySet() : ids;
+    }
+
+    public static String key(String value) {
+        try {
+            double number = Double.parseDouble(value);
+            if (Double.isNaN(number)) {
+                // NaN 不等于任何值，单独放一个永远查不到的桶
+                return "nan:";
+            }
+            // + 0.0 把 -0.0 变成 0.0
+            return "n:" + (number + 0.0);
+        } catch (NumberFormatException e) {
+            return "s:" + value;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package edu.uob;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/** Integer column stored in a long[]; empty cells are tracked in a null bitmap. */
+public class LongColumn extends Column {
+
+    private long[] values = new long[0];
+    private BitSet nulls = new BitSet();
+
+    // 只接受规范写法（没有前导零和正号），这样转回字符串时和原来的一样
+    public static boolean canHold(String value) {
+        if (value.isEmpty()) {
+            return true;
+        }
+        if (value.length() > 20) {
+            return false;
+        }
+        try {
+            return Long.toString(Long.parseLong(value)).equals(value);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public String getType() {
+        return "LONG";
+    }
+
+    @Override
+    public boolean accepts(String value) {
+        return canHold(value);
+    }
+
+    @Override
+    public void add(String value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, grow(values.length, size + 1));
+        }
+        ++size;
+        set(size - 1, value);
+    }
+
+    // 不经过字符串直接追加一个值（读二进制表文件时用）
+    public void addLong(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, grow(values.length, size + 1));
+        }
+        values[size++] = value;
+    }
+
+    @Override
+    public void set(int position, String value) {
+        if (value.isEmpty()) {
+            nulls.set(position);
+            values[position] = 0;
+        } else {
+            nulls.clear(position);
+            values[position] = Long.parseLong(value);
+        }
+    }
+
+    @Override
+    public String get(int position) {
+        return nulls.get(position) ? "" : Long.toString(values[position]);
+    }
+
+    public boolean isNull(int position) {
+        return nulls.get(position);
+    }
+
+    public long getLong(int position) {
+        return values[position];
+    }
+
+    @Override
+    public boolean isEmpty(int position) {
+        return nulls.get(position);
+    }
+
+    @Override
+    public boolean isNumber(int position) {
+        return !nulls.get(position);
+    }
+
+    @Override
+    public double getNumber(int position) {
+        return values[position];
+    }
+
+    @Override
+    public boolean isWhole(int position) {
+        return !nulls.get(position);
+    }
+
+    @Override
+    public long getWhole(int position) {
+        return values[position];
+    }
+
+    @Override
+    public Object groupKey(int position) {
+        return nulls.get(position) ? "" : Long.valueOf(values[position]);
+    }
+
+    @Override
+    public boolean test(int position, Condition condition) {
+        if (nulls.get(position)) {
+            return condition.testText("");
+        }
+        if (condition.usesNumbers()) {
+            return condition.testNumber(values[position]);
+        }
+        return condition.testText(Long.toString(values[position]));
+    }
+
+    @Override
+    public Filter compile(Condition condition) {
+        if (!condition.usesNumbers()) {
+            return rowByRow(condition);
+        }
+        long[] cells = values;
+        BitSet empty = nulls;
+        boolean anyEmpty = !nulls.isEmpty();
+        boolean emptyMatches = condition.testText("");
+        boolean[] outcomes = condition.outcomes();
+        double literal = condition.number;
+        return (selection, count) -> {
+            int kept = 0;
+            for (int i = 0; i < count; ++i) {
+                int position = selection[i];
+                boolean match = anyEmpty && empty.get(position) ? emptyMatches
+                        : outcomes[Condition.order(cells[position], literal)];
+                // 不用分支：先写进去，不满足时下一行会把它覆盖
+                selection[kept] = position;
+                kept += match ? 1 : 0;
+            }
+            return kept;
+        };
+    }
+
+    @Override
+    public void removeAll(BitSet removed) {
+        int target = 0;
+        for (int i = 0; i < size; ++i) {
+            if (!removed.get(i)) {
+                values[target++] = values[i];
+            }
+        }
+        nulls = compact(nulls, removed, size);
+        size = target;
+    }
+
+    @Override
+    public long estimateBytes() {
+        return 8L * values.length + nulls.size() / 8;
+    }
+
+    @Override
+    public Column copy() {
+        LongColumn column = new LongColumn();
+        column.values = Arrays.copyOf(values, size);
+        column.nulls = (BitSet) nulls.clone();
+        column.size = size;
+        return column;
+    }
+}
@@ -0,0 +1,372 @@
+package edu.uob;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking front end for a DBServer. One selector thread accepts
+ * connections and does all socket reads and writes; commands run on a
+ * bounded worker pool. The protocol is unchanged: one command per line, and
+ * every response is followed by a line holding END_OF_TRANSMISSION.
+ *
+ * Each connection has at most one command executing, so its responses come
+ * back in order. A response is sent in chunks while the command is still
+ * running; a worker whose client reads slowly waits once too much output is
+ * queued, instead of buffering the whole result. When too many of its commands are queued the connection
+ * stops reading and TCP pushes back on the client. When the worker queue is
+ * full, connections wait their turn here instead of getting an error.
+ */
+public class NioServer implements Closeable {
+
+    private static final char END_OF_TRANSMISSION = 4;
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    // 一行命令的最大长度，超过就断开连接
+    private static final int MAX_COMMAND_LENGTH = 1 << 20;
+
+    // 一个连接最多缓存这么多条还没执行的命令，超过就先不读
+    private static final int MAX_QUEUED_COMMANDS = 64;
+
+    // 一个连接还没发出去的输出超过这么多字节，工作线程就先等客户端读
+    private static final int MAX_PENDING_OUTPUT = 256 * 1024;
+
+    private final DBServer server;
+
+    private final Selector selector;
+
+    private final ServerSocketChannel serverChannel;
+
+    private final ThreadPoolExecutor workers;
+
+    private final Charset charset = Charset.defaultCharset();
+
+    // 命令执行完的连接，由 selector 线程写回结果
+    private final Queue<Connection> finished = new ConcurrentLinkedQueue<>();
+
+    // 工作线程刚放了输出进去、需要 selector 线程开始写的连接
+    private final Queue<Connection> flushRequests = new ConcurrentLinkedQueue<>();
+
+    // 线程池队列满时等着提交命令的连接（只在 selector 线程里用）
+    private final Deque<Connection> waiting = new ArrayDeque<>();
+
+    private volatile boolean running = true;
+
+    public NioServer(DBServer server, int port, int workerCount, int queueCapacity) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "db-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    // 实际监听的端口（构造时传 0 会随机分配一个）
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /** Serves connections until close() is called or the thread is interrupted. */
+    public void run() throws IOException {
+        try {
+            while (running && !Thread.currentThread().isInterrupted()) {
+                selector.select();
+                Connection connection;
+                while ((connection = flushRequests.poll()) != null) {
+                    connection.flush();
+                }
+                while ((connection = finished.poll()) != null) {
+                    connection.commandFinished();
+                }
+                retryWaiting();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            Connection client = (Connection) key.attachment();
+                            if (key.isReadable()) {
+                                client.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                client.write();
+                            }
+                        }
+                    } catch (IOException e) {
+                        // 一个连接出错不影响其他连接
+                        if (key.attachment() instanceof Connection) {
+                            ((Connection) key.attachment()).close();
+                        } else {
+                            AsyncLog.console().log("Server encountered a non-fatal IO error: " + e.getMessage());
+                        }
+                    }
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    private void retryWaiting() {
+        for (int i = waiting.size(); i > 0; --i) {
+            waiting.poll().dispatch();
+        }
+    }
+
+    private class Connection {
+
+        private final SocketChannel channel;
+
+        private SelectionKey key;
+
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        // 还没读到换行符的半行
+        private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+
+        private final Deque<String> commands = new ArrayDeque<>();
+
+        // 等着写到 socket 的输出；工作线程往里放，selector 线程往外写，都要先锁住它
+        private final Deque<ByteBuffer> output = new ArrayDeque<>();
+
+        private int pendingBytes;
+
+        private boolean executing;
+
+        // 客户端已经关闭了输出：把剩下的命令执行完再断开
+        private boolean inputClosed;
+
+        private volatile boolean closed;
+
+        // BEGIN ... COMMIT 跨越同一个连接上的多条命令
+        private final Session session = new Session();
+
+        // Streams a command's response into this connection's output queue
+        private final ResultSink sink = new ResultSink() {
+            @Override
+            public void write(CharSequence text) {
+                enqueue(charset.encode(CharBuffer.wrap(text)));
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return closed || Thread.currentThread().isInterrupted();
+            }
+        };
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            int count = channel.read(readBuffer);
+            if (count < 0) {
+                inputClosed = true;
+                closeIfDone();
+                updateInterest();
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    String command = new String(partialLine.toByteArray(), charset);
+                    if (command.endsWith("\r")) {
+                        command = command.substring(0, command.length() - 1);
+                    }
+                    commands.add(command);
+                    partialLine.reset();
+                } else {
+                    partialLine.write(b);
+                }
+            }
+            readBuffer.clear();
+            if (partialLine.size() > MAX_COMMAND_LENGTH) {
+                close();
+                return;
+            }
+            updateInterest();
+            dispatch();
+        }
+
+        // 每个连接同时只执行一条命令，并且上一条的结果写完之后才执行下一条
+        void dispatch() {
+            if (executing || hasOutput() || commands.isEmpty() || !key.isValid()) {
+                return;
+            }
+            String command = commands.poll();
+            executing = true;
+            try {
+                workers.execute(() -> {
+                    try {
+                        server.handleCommand(command, sink, session);
+                    } catch (RuntimeException e) {
+                        sink.write("[ERROR] " + e);
+                    }
+                    sink.write("\n" + END_OF_TRANSMISSION + "\n");
+                    finished.add(this);
+                    selector.wakeup();
+                });
+            } catch (RejectedExecutionException e) {
+                // 线程池满了：命令放回去，等有线程空出来再试
+                executing = false;
+                commands.addFirst(command);
+                waiting.add(this);
+            }
+            updateInterest();
+        }
+
+        // Called on a worker thread; waits while too much output is already queued
+        private void enqueue(ByteBuffer bytes) {
+            synchronized (output) {
+                while (pendingBytes > MAX_PENDING_OUTPUT && !closed) {
+                    try {
+                        output.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                output.add(bytes);
+                pendingBytes += bytes.remaining();
+            }
+            flushRequests.add(this);
+            selector.wakeup();
+        }
+
+        private boolean hasOutput() {
+            synchronized (output) {
+                return !output.isEmpty();
+            }
+        }
+
+        void flush() {
+            if (!key.isValid()) {
+                return;
+            }
+            try {
+                write();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void commandFinished() {
+            executing = false;
+            flush();
+        }
+
+        void write() throws IOException {
+            synchronized (output) {
+                while (!output.isEmpty()) {
+                    ByteBuffer head = output.peek();
+                    pendingBytes -= channel.write(head);
+                    if (head.hasRemaining()) {
+                        break;
+                    }
+                    output.poll();
+                }
+                output.notifyAll();
+            }
+            updateInterest();
+            dispatch();
+            closeIfDone();
+        }
+
+        private void closeIfDone() {
+            if (inputClosed && !executing && !hasOutput() && commands.isEmpty() && key.isValid()) {
+                close();
+            }
+        }
+
+        private void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+            int ops = 0;
+            if (hasOutput()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            if (!inputClosed && commands.size() < MAX_QUEUED_COMMANDS) {
+                ops |= SelectionKey.OP_READ;
+            }
+            key.interestOps(ops);
+        }
+
+        void close() {
+            synchronized (output) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                output.clear();
+                output.notifyAll();
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already closed.
+            }
+            // 没有提交的事务回滚掉；要等表锁，所以不在 selector 线程上做
+            try {
+                workers.execute(() -> server.endSession(session));
+            } catch (RejectedExecutionException e) {
+                server.endSession(session);
+            }
+        }
+    }
+}
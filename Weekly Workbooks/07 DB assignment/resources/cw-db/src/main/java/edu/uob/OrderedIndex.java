@@ -0,0 +1,141 @@
+package edu.uob;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Ordered secondary index for range predicates (>, <, >=, <=) and ==.
+ * Values that parse as numbers are ordered numerically and all other values
+ * lexicographically, which is exactly how evaluateCondition compares a cell
+ * with a literal. When every value in the column is numeric only the numeric
+ * tree is used.
+ */
+public class OrderedIndex implements ColumnIndex {
+
+    private final String column;
+
+    private final TreeMap<Double, Set<Integer>> numericValues = new TreeMap<>();
+
+    private final TreeMap<String, Set<Integer>> textValues = new TreeMap<>();
+
+    public OrderedIndex(String column) {
+        this.column = column;
+    }
+
+    @Override
+    public String getColumn() {
+        return column;
+    }
+
+    @Override
+    public String getType() {
+        return "ORDERED";
+    }
+
+    @Override
+    public void add(String value, int id) {
+        Double number = parseNumber(value);
+        if (number != null) {
+            numericValues.computeIfAbsent(number, k -> new HashSet<>()).add(id);
+        } else {
+            textValues.computeIfAbsent(value, k -> new HashSet<>()).add(id);
+        }
+    }
+
+    @Override
+    public void remove(String value, int id) {
+        Double number = parseNumber(value);
+        if (number != null) {
+            removeFrom(numericValues, number, id);
+        } else {
+            removeFrom(textValues, value, id);
+        }
+    }
+
+    private static <K> void removeFrom(TreeMap<K, Set<Integer>> tree, K key, int id) {
+        Set<Integer> ids = tree.get(key);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                tree.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public Collection<Integer> find(String comparator, String value) {
+        if (comparator.equals("!=") || comparator.equals("LIKE")) {
+            return null;
+        }
+        Double number = parseNumber(value);
+        Set<Integer> ids = new HashSet<>();
+        if (number != null) {
+            // 数字和数字按数值比较，非数字的单元格和字面量按字符串比较
+            if (number.isNaN()) {
+                return Collections.emptySet();
+            }
+            collect(numericRange(comparator, number), ids);
+            if (comparator.equals("==")) {
+                return ids;
+            }
+            collect(range(textValues, comparator, value), ids);
+            return ids;
+        }
+        if (comparator.equals("==")) {
+            // 字面量不是数字时，数字单元格不可能和它相等
+            Set<Integer> matches = textValues.get(value);
+            return matches == null ? Collections.emptySet() : matches;
+        }
+        if (!numericValues.isEmpty()) {
+            // 数字单元格这时要按字符串比较，数值顺序帮不上忙
+            return null;
+        }
+        collect(range(textValues, comparator, value), ids);
+        return ids;
+    }
+
+    // 只读视图，按键的顺序遍历（sort-merge join 使用）
+    public NavigableMap<Double, Set<Integer>> getNumericValues() {
+        return Collections.unmodifiableNavigableMap(numericValues);
+    }
+
+    public NavigableMap<String, Set<Integer>> getTextValues() {
+        return Collections.unmodifiableNavigableMap(textValues);
+    }
+
+    private NavigableMap<Double, Set<Integer>> numericRange(String comparator, double number) {
+        // NaN 在 TreeMap 里排在最大，而它和任何数比较都是 false，所以上界截止到 NaN
+        NavigableMap<Double, Set<Integer>> comparable = numericValues.headMap(Double.NaN, false);
+        return range(comparable, comparator, number);
+    }
+
+    private static <K> NavigableMap<K, Set<Integer>> range(NavigableMap<K, Set<Integer>> tree, String comparator, K key) {
+        switch (comparator) {
+            case "==": return tree.subMap(key, true, key, true);
+            case ">": return tree.tailMap(key, false);
+            case ">=": return tree.tailMap(key, true);
+            case "<": return tree.headMap(key, false);
+            case "<=": return tree.headMap(key, true);
+            default: return Collections.emptyNavigableMap();
+        }
+    }
+
+    private static void collect(NavigableMap<?, Set<Integer>> range, Set<Integer> ids) {
+        for (Set<Integer> matches : range.values()) {
+            ids.addAll(matches);
+        }
+    }
+
+    private static Double parseNumber(String value) {
+        try {
+            // + 0.0 把 -0.0 变成 0.0，两者在比较时相等
+            return Double.parseDouble(value) + 0.0;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package edu.uob;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Binary table file (.tbl), read and written through a FileChannel.
+ * After an 8-byte header (magic, version) the file is a sequence of pages,
+ * each stored as [int payload length][payload][int CRC32 of the payload].
+ * The first page holds the schema: column names and types, the next id and
+ * the row count. Every other page holds whole rows: an int id followed by one
+ * typed cell per column (a tag byte, then 8 bytes for a number or a
+ * length-prefixed UTF-8 string). Numbers are stored as numbers, so loading
+ * fills the typed columns without parsing any text.
+ */
+public class PageFile {
+
+    public static final String EXTENSION = ".tbl";
+
+    private static final int MAGIC = 0x43574442;
+
+    private static final int VERSION = 1;
+
+    // 一页攒到这么大就写出去；一行不会被拆到两页
+    static final int PAGE_SIZE = 64 * 1024;
+
+    // 单元格的类型标记
+    private static final byte EMPTY = 0;
+    private static final byte LONG = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte TRUE = 3;
+    private static final byte FALSE = 4;
+    private static final byte STRING = 5;
+
+    public static void write(File file, Table table) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            writeFully(channel, header);
+
+            PageBuffer page = new PageBuffer();
+            List<String> columns = table.getColumns();
+            page.ensure(4).putInt(columns.size() - 1);
+            for (int c = 1; c < columns.size(); ++c) {
+                page.putString(columns.get(c));
+                page.putString(table.getColumnType(c));
+            }
+            page.ensure(8).putInt(table.getNextId()).putInt(table.getRowCount());
+            page.writeTo(channel);
+
+            for (int position = 0; position < table.getRowCount(); ++position) {
+                page.ensure(4).putInt(table.getId(position));
+                for (int c = 1; c < columns.size(); ++c) {
+                    writeCell(page, table.getColumn(c), position);
+                }
+                if (page.size() >= PAGE_SIZE) {
+                    page.writeTo(channel);
+                }
+            }
+            if (page.size() > 0) {
+                page.writeTo(channel);
+            }
+            channel.force(false);
+        }
+    }
+
+    private static void writeCell(PageBuffer page, Column column, int position) {
+        if (column instanceof LongColumn) {
+            LongColumn longs = (LongColumn) column;
+            if (longs.isNull(position)) {
+                page.ensure(1).put(EMPTY);
+            } else {
+                page.ensure(9).put(LONG).putLong(longs.getLong(position));
+            }
+        } else if (column instanceof DoubleColumn) {
+            DoubleColumn doubles = (DoubleColumn) column;
+            if (doubles.isNull(position)) {
+                page.ensure(1).put(EMPTY);
+            } else if (doubles.isIntegral(position)) {
+                page.ensure(9).put(LONG).putLong((long) doubles.getDouble(position));
+            } else {
+                page.ensure(9).put(DOUBLE).putDouble(doubles.getDouble(position));
+            }
+        } else if (column instanceof BooleanColumn) {
+            BooleanColumn booleans = (BooleanColumn) column;
+            if (booleans.isNull(position)) {
+                page.ensure(1).put(EMPTY);
+            } else {
+                page.ensure(1).put(booleans.getBoolean(position) ? TRUE : FALSE);
+            }
+        } else {
+            page.ensure(1).put(STRING);
+            page.putString(column.get(position));
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    public static Table read(File file, String tableName) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Table file " + file.getName() + " is too large");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (size < 8 || buffer.getInt() != MAGIC) {
+                throw new IOException("Table file " + file.getName() + " is not a binary table file");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Table file " + file.getName() + " has unknown version " + version);
+            }
+            try {
+                return readPages(file, tableName, buffer);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("Table file " + file.getName() + " is corrupt");
+            }
+        }
+    }
+
+    private static Table readPages(File file, String tableName, ByteBuffer buffer) throws IOException {
+        ByteBuffer schema = nextPage(file, buffer, 0);
+        int columnCount = schema.getInt();
+        byte[] scratch = new byte[256];
+        List<String> columns = new ArrayList<>();
+        List<Column> values = new ArrayList<>();
+        for (int c = 0; c < columnCount; ++c) {
+            columns.add(readString(schema, scratch));
+            values.add(Column.ofType(readString(schema, scratch)));
+        }
+        int nextId = schema.getInt();
+        int rowCount = schema.getInt();
+        if (rowCount < 0) {
+            throw new IOException("Table file " + file.getName() + " is corrupt");
+        }
+
+        int[] ids = new int[rowCount];
+        int row = 0;
+        for (int pageNumber = 1; buffer.hasRemaining(); ++pageNumber) {
+            ByteBuffer page = nextPage(file, buffer, pageNumber);
+            while (page.hasRemaining()) {
+                int id = page.getInt();
+                if (row == rowCount || (row > 0 && id <= ids[row - 1])) {
+                    throw new IOException("Table file " + file.getName() + " page " + pageNumber + " has an invalid row");
+                }
+                ids[row++] = id;
+                for (Column column : values) {
+                    readCell(page, column, scratch);
+                }
+            }
+        }
+        if (row != rowCount) {
+            throw new IOException("Table file " + file.getName() + " is truncated");
+        }
+        return Table.fromColumns(tableName, columns, ids, values, nextId);
+    }
+
+    // 读出下一页并检查校验和，返回只包含这一页内容的 buffer
+    private static ByteBuffer nextPage(File file, ByteBuffer buffer, int pageNumber) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || buffer.remaining() < length + 4) {
+            throw new IOException("Table file " + file.getName() + " is truncated at page " + pageNumber);
+        }
+        ByteBuffer page = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        CRC32 crc = new CRC32();
+        crc.update(page.duplicate());
+        if (buffer.getInt() != (int) crc.getValue()) {
+            throw new IOException("Table file " + file.getName() + " page " + pageNumber + " has a bad checksum");
+        }
+        return page;
+    }
+
+    private static void readCell(ByteBuffer page, Column column, byte[] scratch) {
+        byte tag = page.get();
+        switch (tag) {
+            case EMPTY:
+                column.add("");
+                break;
+            case LONG: {
+                long value = page.getLong();
+                if (column instanceof LongColumn) {
+                    ((LongColumn) column).addLong(value);
+                } else if (column instanceof DoubleColumn) {
+                    ((DoubleColumn) column).addDouble(value, true);
+                } else {
+                    column.add(Long.toString(value));
+                }
+                break;
+            }
+            case DOUBLE: {
+                double value = page.getDouble();
+                if (column instanceof DoubleColumn) {
+                    ((DoubleColumn) column).addDouble(value, false);
+                } else {
+                    column.add(Double.toString(value));
+                }
+                break;
+            }
+            case TRUE:
+                column.add("TRUE");
+                break;
+            case FALSE:
+                column.add("FALSE");
+                break;
+            case STRING:
+                column.add(readString(page, scratch));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown cell type " + tag);
+        }
+    }
+
+    private static String readString(ByteBuffer page, byte[] scratch) {
+        int length = page.getInt();
+        byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+        page.get(bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // 正在写的一页，空间不够时变大
+    private static class PageBuffer {
+        private ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE + 1024);
+
+        ByteBuffer ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            return buffer;
+        }
+
+        void putString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensure(4 + bytes.length).putInt(bytes.length).put(bytes);
+        }
+
+        int size() {
+            return buffer.position();
+        }
+
+        void writeTo(FileChannel channel) throws IOException {
+            int length = buffer.position();
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, length);
+            ByteBuffer prefix = ByteBuffer.allocate(4).putInt(length);
+            ByteBuffer suffix = ByteBuffer.allocate(4).putInt((int) crc.getValue());
+            prefix.flip();
+            buffer.flip();
+            suffix.flip();
+            ByteBuffer[] parts = {prefix, buffer, suffix};
+            while (suffix.hasRemaining()) {
+                channel.write(parts);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Splits the rows of a large table into chunks and works on them in parallel
+ * on a fork/join pool: filtering with a WHERE expression, formatting the
+ * selected rows and probing a join's hash table. The chunks are joined back
+ * in their original order, so the results are the same as a serial scan.
+ * Tables below the threshold are scanned serially, as the hand-off would
+ * cost more than it saves.
+ * The caller holds the table's read lock for the whole scan; the workers
+ * only read.
+ */
+public class ParallelScan {
+
+    // 用系统属性 -Ddb.parallelThreshold=... 设置，行数不少于它时才并行
+    public static final String THRESHOLD_PROPERTY = "db.parallelThreshold";
+
+    // 只有一个核时默认不并行（设置了属性的话照样并行）
+    static final int DEFAULT_THRESHOLD = Runtime.getRuntime().availableProcessors() > 1 ? 100_000 : Integer.MAX_VALUE;
+
+    // 一块的行数在这两个值之间，每个线程大约分到四块
+    static final int MIN_CHUNK_ROWS = RowCursor.BATCH_SIZE;
+    static final int MAX_CHUNK_ROWS = 16 * 1024;
+
+    // 和处理命令的线程池分开，扫描再多也不会让新的命令排不上队
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    // 处理一块 [from, to)
+    public interface ChunkTask<T> {
+        T run(int from, int to);
+    }
+
+    // 把第 i 个结果行（从 0 开始）写进 out
+    public interface RowWriter {
+        void write(int i, StringBuilder out);
+    }
+
+    public static int threshold() {
+        return Integer.getInteger(THRESHOLD_PROPERTY, DEFAULT_THRESHOLD);
+    }
+
+    public static boolean isWorthIt(int rows) {
+        return rows >= threshold();
+    }
+
+    // 每一块在池里算，结果按块的顺序返回
+    public static <T> List<T> mapChunks(int count, ChunkTask<T> task) {
+        int chunkRows = Math.max(MIN_CHUNK_ROWS, Math.min(MAX_CHUNK_ROWS, count / (4 * POOL.getParallelism())));
+        List<ForkJoinTask<T>> chunks = new ArrayList<>();
+        for (int from = 0; from < count; from += chunkRows) {
+            int start = from;
+            int end = Math.min(count, from + chunkRows);
+            chunks.add(POOL.submit(() -> task.run(start, end)));
+        }
+        List<T> results = new ArrayList<>(chunks.size());
+        for (ForkJoinTask<T> chunk : chunks) {
+            results.add(chunk.join());
+        }
+        return results;
+    }
+
+    // 满足 where 的行的位置（升序），和 new RowCursor(table, where).toArray() 一样
+    public static int[] filter(Table table, Expression where) {
+        long start = Explain.start();
+        Column.Filter filter = where == null ? null : where.compile(table);
+        int[] candidates = where == null ? null : where.candidates(table);
+        int count = candidates == null ? table.getRowCount() : candidates.length;
+        if (where != null) {
+            Explain.record(Explain.Step.ACCESS, count, start);
+            start = Explain.start();
+        }
+        int[] matching = concat(mapChunks(count, (from, to) -> new RowCursor(filter, candidates, from, to).toArray()));
+        // 在调用者的线程上记下扫描的行数，各块的线程不记
+        QueryStats.scanned(count);
+        Explain.record(where == null ? Explain.Step.ACCESS : Explain.Step.FILTER, matching.length, start);
+        return matching;
+    }
+
+    /**
+     * 把 rows 个结果行格式化后按顺序写进 sink
+     * 每次并行格式化一组块，写出去之后再做下一组，所以内存里最多只有一组的文本
+     * 客户端断开时返回 false
+     */
+    public static boolean writeRows(int rows, RowWriter writer, ResultSink sink) {
+        int window = 4 * MAX_CHUNK_ROWS * POOL.getParallelism();
+        for (int start = 0; start < rows; start += window) {
+            int offset = start;
+            List<StringBuilder> parts = mapChunks(Math.min(window, rows - start), (from, to) -> {
+                StringBuilder out = new StringBuilder();
+                for (int i = offset + from; i < offset + to; i++) {
+                    writer.write(i, out);
+                }
+                return out;
+            });
+            for (StringBuilder part : parts) {
+                sink.write(part);
+            }
+            if (sink.isCancelled()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int[] concat(List<int[]> parts) {
+        int total = 0;
+        for (int[] part : parts) {
+            total += part.length;
+        }
+        int[] result = new int[total];
+        int offset = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+
+    static long[] concatPairs(List<long[]> parts) {
+        int total = 0;
+        for (long[] part : parts) {
+            total += part.length;
+        }
+        long[] result = new long[total];
+        int offset = 0;
+        for (long[] part : parts) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+}
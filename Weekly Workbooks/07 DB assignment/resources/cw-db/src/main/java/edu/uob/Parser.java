@@ -0,0 +1,455 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recursive-descent parser turning a token list into a QueryPlan.
+ * Syntax errors are reported as IllegalArgumentException.
+ */
+public class Parser {
+
+    private static final List<String> COMPARATORS = List.of("==", "!=", ">=", "<=", ">", "<");
+
+    private final List<Token> tokens;
+
+    private int position;
+
+    // 已经读过的字面量个数，和 Tokenizer.normalise 的参数编号一致
+    private int literalCount;
+
+    private QueryPlan plan;
+
+    private boolean cacheable = true;
+
+    public Parser(List<Token> tokens) {
+        this.tokens = tokens;
+    }
+
+    public QueryPlan parse() {
+        if (tokens.isEmpty()) {
+            throw new IllegalArgumentException("Empty command received");
+        }
+        Token first = peek();
+        // EXPLAIN [ANALYZE] 后面跟一个普通的命令
+        boolean explain = false;
+        boolean analyze = false;
+        if (first.isWord("EXPLAIN")) {
+            next();
+            explain = true;
+            analyze = accept("ANALYZE");
+            if (position >= tokens.size() || !(peek().isWord("SELECT") || peek().isWord("UPDATE")
+                    || peek().isWord("DELETE") || peek().isWord("JOIN"))) {
+                throw new IllegalArgumentException("EXPLAIN only works with SELECT, UPDATE, DELETE and JOIN");
+            }
+            first = peek();
+        }
+        if (first.isWord("USE")) {
+            next();
+            plan = new QueryPlan(QueryPlan.Kind.USE);
+            plan.name = name();
+        } else if (first.isWord("CREATE")) {
+            parseCreate();
+        } else if (first.isWord("INSERT")) {
+            parseInsert();
+        } else if (first.isWord("SELECT")) {
+            parseSelect();
+        } else if (first.isWord("UPDATE")) {
+            parseUpdate();
+        } else if (first.isWord("DELETE")) {
+            parseDelete();
+        } else if (first.isWord("ALTER")) {
+            parseAlter();
+        } else if (first.isWord("DROP")) {
+            parseDrop();
+        } else if (first.isWord("JOIN")) {
+            parseJoin();
+        } else if (first.isWord("SET")) {
+            // SET DURABILITY SYNC|GROUP|ASYNC
+            next();
+            expect("DURABILITY");
+            plan = new QueryPlan(QueryPlan.Kind.SET_DURABILITY);
+            String mode = identifier();
+            plan.name = mode.toUpperCase();
+            if (!plan.name.equals("SYNC") && !plan.name.equals("GROUP") && !plan.name.equals("ASYNC")) {
+                throw new IllegalArgumentException("Unknown durability mode " + mode);
+            }
+        } else if (first.isWord("SHOW")) {
+            // SHOW DURABILITY | SHOW STATS
+            next();
+            if (accept("STATS")) {
+                plan = new QueryPlan(QueryPlan.Kind.SHOW_STATS);
+            } else {
+                expect("DURABILITY");
+                plan = new QueryPlan(QueryPlan.Kind.SHOW_DURABILITY);
+            }
+        } else if (first.isWord("ANALYZE")) {
+            // ANALYZE [tableName]
+            next();
+            plan = new QueryPlan(QueryPlan.Kind.ANALYZE);
+            if (position < tokens.size()) {
+                plan.name = name();
+            }
+        } else if (first.isWord("BEGIN")) {
+            // BEGIN [TRANSACTION]
+            next();
+            accept("TRANSACTION");
+            plan = new QueryPlan(QueryPlan.Kind.BEGIN);
+        } else if (first.isWord("COMMIT")) {
+            next();
+            plan = new QueryPlan(QueryPlan.Kind.COMMIT);
+        } else if (first.isWord("ROLLBACK")) {
+            next();
+            plan = new QueryPlan(QueryPlan.Kind.ROLLBACK);
+        } else if (first.isWord("IMPORT")) {
+            parseTransfer(QueryPlan.Kind.IMPORT, "FROM");
+        } else if (first.isWord("EXPORT")) {
+            parseTransfer(QueryPlan.Kind.EXPORT, "TO");
+        } else if (first.isWord("COPY")) {
+            parseTransfer(QueryPlan.Kind.COPY, "FROM");
+        } else {
+            throw new IllegalArgumentException("Unknown command");
+        }
+        if (position < tokens.size()) {
+            throw new IllegalArgumentException("Unexpected " + peek() + " in " + command());
+        }
+        plan.explain = explain;
+        plan.analyze = analyze;
+        // 只缓存查询和修改数据的命令；DDL 里的列名要保留原来的大小写
+        plan.cacheable = cacheable && (plan.kind == QueryPlan.Kind.SELECT || plan.kind == QueryPlan.Kind.INSERT
+                || plan.kind == QueryPlan.Kind.UPDATE || plan.kind == QueryPlan.Kind.DELETE
+                || plan.kind == QueryPlan.Kind.JOIN);
+        return plan;
+    }
+
+    private void parseCreate() {
+        next();
+        if (accept("DATABASE")) {
+            plan = new QueryPlan(QueryPlan.Kind.CREATE_DATABASE);
+            plan.name = name();
+        } else if (accept("TABLE")) {
+            // CREATE TABLE name [(col, ...)]
+            plan = new QueryPlan(QueryPlan.Kind.CREATE_TABLE);
+            plan.name = name();
+            if (acceptSymbol("(")) {
+                do {
+                    plan.columns.add(identifier());
+                } while (acceptSymbol(","));
+                expectSymbol(")");
+            }
+        } else if (accept("INDEX")) {
+            // CREATE INDEX ON name (column) [USING HASH|ORDERED|TRIGRAM]
+            plan = new QueryPlan(QueryPlan.Kind.CREATE_INDEX);
+            expect("ON");
+            plan.name = name();
+            expectSymbol("(");
+            plan.columns.add(identifier());
+            expectSymbol(")");
+            plan.indexType = "HASH";
+            if (accept("USING")) {
+                String type = identifier();
+                plan.indexType = type.toUpperCase();
+                if (!plan.indexType.equals("HASH") && !plan.indexType.equals("ORDERED") && !plan.indexType.equals("TRIGRAM")) {
+                    throw new IllegalArgumentException("Unknown index type " + type);
+                }
+            }
+        } else {
+            throw new IllegalArgumentException("CREATE must be followed by DATABASE, TABLE or INDEX");
+        }
+    }
+
+    private void parseInsert() {
+        // INSERT INTO name VALUES (value, ...) [, (value, ...)]...
+        next();
+        plan = new QueryPlan(QueryPlan.Kind.INSERT);
+        expect("INTO");
+        plan.name = name();
+        expect("VALUES");
+        do {
+            int start = plan.values.size();
+            expectSymbol("(");
+            do {
+                plan.values.add(value());
+            } while (acceptSymbol(","));
+            expectSymbol(")");
+            if (start == 0) {
+                plan.rowWidth = plan.values.size();
+            } else if (plan.values.size() - start != plan.rowWidth) {
+                throw new IllegalArgumentException("Every row in VALUES must have " + plan.rowWidth + " values");
+            }
+        } while (acceptSymbol(","));
+        // 一条命令插入很多行时，计划不会再被用到，不值得缓存
+        if (plan.values.size() > plan.rowWidth) {
+            cacheable = false;
+        }
+    }
+
+    private void parseSelect() {
+        // SELECT * | item, ... FROM name [WHERE expression] [GROUP BY col, ...]
+        //        [ORDER BY item [ASC|DESC], ...] [LIMIT n] [OFFSET n]
+        // item 是列名或者聚合函数，比如 COUNT(*)、SUM(mark)
+        next();
+        plan = new QueryPlan(QueryPlan.Kind.SELECT);
+        if (acceptSymbol("*")) {
+            plan.selectAll = true;
+        } else {
+            do {
+                item(plan.columns, plan.functions);
+            } while (acceptSymbol(","));
+        }
+        expect("FROM");
+        plan.name = name();
+        if (accept("WHERE")) {
+            plan.where = disjunction();
+        }
+        if (accept("GROUP")) {
+            expect("BY");
+            do {
+                plan.groupBy.add(identifier());
+            } while (acceptSymbol(","));
+        }
+        if (accept("ORDER")) {
+            expect("BY");
+            do {
+                item(plan.orderBy, plan.orderFunctions);
+                boolean descending = accept("DESC");
+                if (!descending) {
+                    accept("ASC");
+                }
+                plan.descending.add(descending);
+            } while (acceptSymbol(","));
+        }
+        if (accept("LIMIT")) {
+            plan.limit = value();
+        }
+        if (accept("OFFSET")) {
+            plan.offset = value();
+        }
+    }
+
+    // 列名或者聚合函数：列名放进 columns，函数名放进 functions（普通的列是 null）
+    private void item(List<String> columns, List<String> functions) {
+        boolean call = position + 1 < tokens.size() && peek().type == Token.Type.WORD
+                && Aggregation.FUNCTIONS.contains(peek().text.toUpperCase()) && tokens.get(position + 1).isSymbol("(");
+        if (!call) {
+            functions.add(null);
+            columns.add(identifier());
+            return;
+        }
+        String function = next().text.toUpperCase();
+        next();
+        if (function.equals("COUNT") && acceptSymbol("*")) {
+            columns.add("*");
+        } else {
+            columns.add(identifier());
+        }
+        functions.add(function);
+        expectSymbol(")");
+    }
+
+    private void parseUpdate() {
+        // UPDATE name SET col = value, ... WHERE expression
+        next();
+        plan = new QueryPlan(QueryPlan.Kind.UPDATE);
+        plan.name = name();
+        expect("SET");
+        do {
+            plan.columns.add(identifier());
+            expectSymbol("=");
+            plan.values.add(value());
+        } while (acceptSymbol(","));
+        expect("WHERE");
+        plan.where = disjunction();
+    }
+
+    private void parseDelete() {
+        // DELETE FROM name WHERE expression
+        next();
+        plan = new QueryPlan(QueryPlan.Kind.DELETE);
+        expect("FROM");
+        plan.name = name();
+        expect("WHERE");
+        plan.where = disjunction();
+    }
+
+    private void parseAlter() {
+        // ALTER TABLE name ADD|DROP column
+        next();
+        expect("TABLE");
+        String tableName = name();
+        if (accept("ADD")) {
+            plan = new QueryPlan(QueryPlan.Kind.ALTER_ADD);
+        } else if (accept("DROP")) {
+            plan = new QueryPlan(QueryPlan.Kind.ALTER_DROP);
+        } else {
+            throw new IllegalArgumentException("ALTER TABLE operation not supported");
+        }
+        plan.name = tableName;
+        plan.columns.add(identifier());
+    }
+
+    private void parseDrop() {
+        // DROP TABLE name | DROP DATABASE name
+        next();
+        if (accept("TABLE")) {
+            plan = new QueryPlan(QueryPlan.Kind.DROP_TABLE);
+        } else if (accept("DATABASE")) {
+            plan = new QueryPlan(QueryPlan.Kind.DROP_DATABASE);
+        } else {
+            throw new IllegalArgumentException("DROP operation not supported");
+        }
+        plan.name = name();
+    }
+
+    private void parseJoin() {
+        // JOIN name AND name ON attribute AND attribute
+        next();
+        plan = new QueryPlan(QueryPlan.Kind.JOIN);
+        plan.name = name();
+        expect("AND");
+        plan.otherName = name();
+        expect("ON");
+        plan.columns.add(identifier());
+        expect("AND");
+        plan.columns.add(identifier());
+    }
+
+    private void parseTransfer(QueryPlan.Kind kind, String preposition) {
+        // IMPORT name FROM 'file' | EXPORT name TO 'file' | COPY name FROM 'file'
+        next();
+        plan = new QueryPlan(kind);
+        plan.name = name();
+        expect(preposition);
+        plan.values.add(value());
+    }
+
+    // WHERE 表达式：OR 的优先级最低，然后是 AND、NOT；括号可以任意嵌套
+    private QueryPlan.Clause disjunction() {
+        List<QueryPlan.Clause> operands = new ArrayList<>();
+        do {
+            operands.add(conjunction());
+        } while (accept("OR"));
+        return operands.size() == 1 ? operands.get(0) : new QueryPlan.Clause(Expression.Kind.OR, operands);
+    }
+
+    private QueryPlan.Clause conjunction() {
+        List<QueryPlan.Clause> operands = new ArrayList<>();
+        do {
+            operands.add(negation());
+        } while (accept("AND"));
+        return operands.size() == 1 ? operands.get(0) : new QueryPlan.Clause(Expression.Kind.AND, operands);
+    }
+
+    private QueryPlan.Clause negation() {
+        if (accept("NOT")) {
+            return new QueryPlan.Clause(Expression.Kind.NOT, List.of(negation()));
+        }
+        if (acceptSymbol("(")) {
+            QueryPlan.Clause clause = disjunction();
+            expectSymbol(")");
+            return clause;
+        }
+        return condition();
+    }
+
+    private QueryPlan.Clause condition() {
+        String attribute = identifier();
+        if (position >= tokens.size()) {
+            throw new IllegalArgumentException("Invalid WHERE condition: missing comparator after " + attribute);
+        }
+        Token comparator = next();
+        String text;
+        if (comparator.type == Token.Type.SYMBOL && COMPARATORS.contains(comparator.text)) {
+            text = comparator.text;
+        } else if (comparator.isWord("LIKE")) {
+            text = "LIKE";
+        } else {
+            throw new IllegalArgumentException("Invalid WHERE condition: unknown comparator " + comparator);
+        }
+        return new QueryPlan.Clause(new QueryPlan.Predicate(attribute, text, value()));
+    }
+
+    // 值可以是字面量（变成参数）或者不带引号的单词
+    private QueryPlan.Value value() {
+        if (position >= tokens.size()) {
+            throw new IllegalArgumentException("Missing value in " + command());
+        }
+        Token token = peek();
+        if (token.isLiteral()) {
+            int parameter = literalCount;
+            next();
+            return QueryPlan.Value.parameter(parameter);
+        }
+        if (token.type != Token.Type.WORD) {
+            throw new IllegalArgumentException("Expected a value but found " + token);
+        }
+        next();
+        return QueryPlan.Value.constant(token.text);
+    }
+
+    // 表名和数据库名不区分大小写
+    private String name() {
+        return identifier().toLowerCase();
+    }
+
+    private String identifier() {
+        if (position >= tokens.size()) {
+            throw new IllegalArgumentException("Missing name in " + command());
+        }
+        Token token = next();
+        if (token.type == Token.Type.NUMBER) {
+            // 数字也可以当名字，但它在缓存键里是参数，所以这个计划不能复用
+            cacheable = false;
+            return token.text;
+        }
+        if (token.type != Token.Type.WORD || token.isLiteral()) {
+            throw new IllegalArgumentException("Expected a name but found " + token);
+        }
+        return token.text;
+    }
+
+    private Token peek() {
+        return tokens.get(position);
+    }
+
+    private Token next() {
+        Token token = tokens.get(position++);
+        if (token.isLiteral()) {
+            ++literalCount;
+        }
+        return token;
+    }
+
+    private boolean accept(String keyword) {
+        if (position < tokens.size() && peek().isWord(keyword)) {
+            next();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean acceptSymbol(String symbol) {
+        if (position < tokens.size() && peek().isSymbol(symbol)) {
+            next();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String keyword) {
+        if (!accept(keyword)) {
+            throw new IllegalArgumentException("Missing " + keyword + " keyword in " + command());
+        }
+    }
+
+    private void expectSymbol(String symbol) {
+        if (!acceptSymbol(symbol)) {
+            throw new IllegalArgumentException("Expected '" + symbol + "' in " + command());
+        }
+    }
+
+    // 错误信息里用的命令名，比如 "SELECT command"
+    private String command() {
+        return tokens.get(0).text.toUpperCase() + " command";
+    }
+}
@@ -0,0 +1,59 @@
+package edu.uob;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of parsed plans, keyed by the normalised command text
+ * (see Tokenizer.normalise). Plans hold no literals and no table state,
+ * so a cached plan stays valid across schema changes.
+ */
+public class PlanCache {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final Map<String, QueryPlan> plans;
+
+    private long hits;
+
+    private long misses;
+
+    public PlanCache(int capacity) {
+        // accessOrder = true：最近用过的排在最后，超出容量时删掉最前面的
+        this.plans = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, QueryPlan> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    // 没有缓存时返回 null
+    public synchronized QueryPlan get(String key) {
+        QueryPlan plan = plans.get(key);
+        if (plan == null) {
+            ++misses;
+        } else {
+            ++hits;
+        }
+        return plan;
+    }
+
+    public synchronized void put(String key, QueryPlan plan) {
+        plans.put(key, plan);
+    }
+
+    public synchronized int size() {
+        return plans.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
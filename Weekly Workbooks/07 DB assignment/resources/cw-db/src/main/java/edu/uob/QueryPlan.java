@@ -0,0 +1,186 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A parsed command. Literals are not stored in the plan itself but as
+ * numbered parameters, so one plan can be reused for every command of the
+ * same shape; bind the parameters when executing it.
+ */
+public class QueryPlan {
+
+    public enum Kind {
+        USE, CREATE_DATABASE, CREATE_TABLE, CREATE_INDEX, INSERT, SELECT, UPDATE, DELETE,
+        ALTER_ADD, ALTER_DROP, DROP_TABLE, DROP_DATABASE, JOIN, IMPORT, EXPORT,
+        SET_DURABILITY, SHOW_DURABILITY, SHOW_STATS, ANALYZE, BEGIN, COMMIT, ROLLBACK, COPY
+    }
+
+    final Kind kind;
+
+    // 数据库名或表名（SET DURABILITY 时是模式名）
+    String name;
+
+    // JOIN 的第二个表
+    String otherName;
+
+    // CREATE TABLE / SELECT / UPDATE SET / CREATE INDEX / ALTER / JOIN 用到的列名
+    final List<String> columns = new ArrayList<>();
+
+    // SELECT *
+    boolean selectAll;
+
+    // SELECT 中和 columns 一一对应的聚合函数，普通的列是 null；COUNT(*) 的列名是 *
+    final List<String> functions = new ArrayList<>();
+
+    // GROUP BY 的列
+    final List<String> groupBy = new ArrayList<>();
+
+    // ORDER BY 的列（聚合查询里也可以是聚合函数）和方向
+    final List<String> orderBy = new ArrayList<>();
+    final List<String> orderFunctions = new ArrayList<>();
+    final List<Boolean> descending = new ArrayList<>();
+
+    // LIMIT 和 OFFSET 的行数，没有时为 null
+    Value limit;
+    Value offset;
+
+    // INSERT 的值，UPDATE 中和 columns 一一对应的新值，或者 IMPORT / EXPORT / COPY 的文件名
+    final List<Value> values = new ArrayList<>();
+
+    // INSERT 每一行的值个数；插入多行时 values 是各行的值依次排开
+    int rowWidth;
+
+    // WHERE 子句，没有 WHERE 时为 null
+    Clause where;
+
+    String indexType;
+
+    // EXPLAIN 只列出执行计划；EXPLAIN ANALYZE 还真的执行一遍
+    boolean explain;
+    boolean analyze;
+
+    // 字面量被当成名字用了（比如数字做表名）的计划不能缓存
+    boolean cacheable = true;
+
+    public QueryPlan(Kind kind) {
+        this.kind = kind;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    // 有聚合函数或者 GROUP BY 的 SELECT
+    boolean isAggregate() {
+        return !groupBy.isEmpty() || functions.stream().anyMatch(function -> function != null)
+                || orderFunctions.stream().anyMatch(function -> function != null);
+    }
+
+    // SELECT 结果里第 i 列的标题，比如 AVG(mark)
+    String label(int i) {
+        return label(functions.get(i), columns.get(i));
+    }
+
+    // 第 i 个 ORDER BY 键，写法和 label 一样
+    String orderLabel(int i) {
+        return label(orderFunctions.get(i), orderBy.get(i));
+    }
+
+    private static String label(String function, String column) {
+        return function == null ? column : function + "(" + column + ")";
+    }
+
+    /** A value in a plan: either a parameter number or a constant word. */
+    static class Value {
+        final int parameter;
+        final String text;
+
+        private Value(int parameter, String text) {
+            this.parameter = parameter;
+            this.text = text;
+        }
+
+        static Value parameter(int parameter) {
+            return new Value(parameter, null);
+        }
+
+        static Value constant(String text) {
+            return new Value(-1, text);
+        }
+
+        String bind(List<String> parameters) {
+            return parameter < 0 ? text : parameters.get(parameter);
+        }
+    }
+
+    /** "attribute comparator value" with the value still unbound. */
+    static class Predicate {
+        final String attribute;
+        final String comparator;
+        final Value value;
+
+        Predicate(String attribute, String comparator, Value value) {
+            this.attribute = attribute;
+            this.comparator = comparator;
+            this.value = value;
+        }
+
+        Condition bind(List<String> parameters) {
+            return new Condition(attribute, comparator, value.bind(parameters));
+        }
+    }
+
+    /** A WHERE clause or part of one (AND, OR, NOT or a predicate) with its values still unbound. */
+    static class Clause {
+        final Expression.Kind kind;
+        final List<Clause> children;
+        final Predicate predicate;
+
+        Clause(Expression.Kind kind, List<Clause> children) {
+            this.kind = kind;
+            this.children = children;
+            this.predicate = null;
+        }
+
+        Clause(Predicate predicate) {
+            this.kind = Expression.Kind.CONDITION;
+            this.children = List.of();
+            this.predicate = predicate;
+        }
+
+        Expression bind(List<String> parameters) {
+            if (kind == Expression.Kind.CONDITION) {
+                return Expression.of(predicate.bind(parameters));
+            }
+            List<Expression> operands = new ArrayList<>(children.size());
+            for (Clause child : children) {
+                operands.add(child.bind(parameters));
+            }
+            switch (kind) {
+                case AND: return Expression.and(operands);
+                case OR: return Expression.or(operands);
+                default: return Expression.not(operands.get(0));
+            }
+        }
+
+        // 用到的所有列名
+        void attributes(List<String> attributes) {
+            if (predicate != null) {
+                attributes.add(predicate.attribute);
+            }
+            for (Clause child : children) {
+                child.attributes(attributes);
+            }
+        }
+    }
+
+    // 没有 WHERE 时返回 null
+    Expression bindWhere(List<String> parameters) {
+        return where == null ? null : where.bind(parameters);
+    }
+}
@@ -0,0 +1,301 @@
+package edu.uob;
+
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Counters for each kind of command: how many ran and failed, a latency
+ * histogram, rows scanned against rows returned, and the bytes of the
+ * responses. Commands that do not parse are counted as INVALID.
+ * Latencies go into power-of-two buckets of microseconds, so a percentile is
+ * the upper bound of the bucket it falls in (at most twice the real value).
+ * Commands slower than db.slowQueryMillis are also counted as slow queries.
+ */
+public class QueryStats implements QueryStatsMBean {
+
+    // 用系统属性 -Ddb.slowQueryMillis=... 设置，超过这个时间的命令写进慢查询日志
+    public static final String SLOW_QUERY_PROPERTY = "db.slowQueryMillis";
+
+    private static final long DEFAULT_SLOW_QUERY_MILLIS = 100;
+
+    // 第 i 个桶是 [2^(i-1), 2^i) 微秒，第 0 个桶是 0 微秒
+    private static final int BUCKETS = 40;
+
+    private static final String INVALID = "INVALID";
+
+    // 当前线程正在执行的命令，扫描行数记在这里
+    private static final ThreadLocal<Sample> CURRENT = new ThreadLocal<>();
+
+    /** One command while it runs and after it finishes. */
+    public static class Sample {
+        // 解析失败时是 null
+        QueryPlan.Kind kind;
+        long rowsScanned;
+        long rowsReturned;
+        long bytesWritten;
+        long latencyNanos;
+        boolean error;
+
+        public String getCommand() {
+            return kind == null ? INVALID : kind.name();
+        }
+    }
+
+    private static class KindStats {
+        long commands;
+        long errors;
+        long slow;
+        long latencyNanos;
+        long maxLatencyNanos;
+        long rowsScanned;
+        long rowsReturned;
+        long bytesWritten;
+        final long[] histogram = new long[BUCKETS];
+
+        // p 分位数所在的桶的上界（微秒）
+        long percentileMicros(double p) {
+            long rank = (long) Math.ceil(commands * p);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += histogram[i];
+                if (seen >= rank) {
+                    return i == 0 ? 0 : 1L << i;
+                }
+            }
+            return maxLatencyNanos / 1000;
+        }
+    }
+
+    // INVALID 放在 invalid 里
+    private final Map<QueryPlan.Kind, KindStats> stats = new EnumMap<>(QueryPlan.Kind.class);
+
+    private KindStats invalid = new KindStats();
+
+    private final long slowQueryNanos;
+
+    public QueryStats() {
+        this(Long.getLong(SLOW_QUERY_PROPERTY, DEFAULT_SLOW_QUERY_MILLIS) * 1_000_000);
+    }
+
+    public QueryStats(long slowQueryNanos) {
+        this.slowQueryNanos = slowQueryNanos;
+        reset();
+    }
+
+    // 开始记录当前线程的一条命令；返回之前的记录，结束时交给 end
+    static Sample begin(Sample sample) {
+        Sample previous = CURRENT.get();
+        CURRENT.set(sample);
+        return previous;
+    }
+
+    static void end(Sample previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    // 解析出的命令类型
+    static void command(QueryPlan.Kind kind) {
+        Sample sample = CURRENT.get();
+        if (sample != null) {
+            sample.kind = kind;
+        }
+    }
+
+    // 过滤或者连接时看过的行数；只在执行命令的线程上调用
+    static void scanned(long rows) {
+        Sample sample = CURRENT.get();
+        if (sample != null) {
+            sample.rowsScanned += rows;
+        }
+    }
+
+    public boolean isSlow(Sample sample) {
+        return sample.latencyNanos >= slowQueryNanos;
+    }
+
+    public synchronized void record(Sample sample) {
+        KindStats kindStats = sample.kind == null ? invalid : stats.get(sample.kind);
+        ++kindStats.commands;
+        if (sample.error) ++kindStats.errors;
+        if (isSlow(sample)) ++kindStats.slow;
+        kindStats.latencyNanos += sample.latencyNanos;
+        kindStats.maxLatencyNanos = Math.max(kindStats.maxLatencyNanos, sample.latencyNanos);
+        kindStats.rowsScanned += sample.rowsScanned;
+        kindStats.rowsReturned += sample.rowsReturned;
+        kindStats.bytesWritten += sample.bytesWritten;
+        long micros = sample.latencyNanos / 1000;
+        ++kindStats.histogram[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))];
+    }
+
+    @Override
+    public synchronized void reset() {
+        for (QueryPlan.Kind kind : QueryPlan.Kind.values()) {
+            stats.put(kind, new KindStats());
+        }
+        invalid = new KindStats();
+    }
+
+    private interface Counter {
+        long get(KindStats kindStats);
+    }
+
+    private synchronized long total(Counter counter) {
+        long total = counter.get(invalid);
+        for (KindStats kindStats : stats.values()) {
+            total += counter.get(kindStats);
+        }
+        return total;
+    }
+
+    @Override
+    public long getCommands() {
+        return total(kindStats -> kindStats.commands);
+    }
+
+    @Override
+    public long getErrors() {
+        return total(kindStats -> kindStats.errors);
+    }
+
+    @Override
+    public long getSlowQueries() {
+        return total(kindStats -> kindStats.slow);
+    }
+
+    @Override
+    public long getRowsScanned() {
+        return total(kindStats -> kindStats.rowsScanned);
+    }
+
+    @Override
+    public long getRowsReturned() {
+        return total(kindStats -> kindStats.rowsReturned);
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return total(kindStats -> kindStats.bytesWritten);
+    }
+
+    @Override
+    public String getTable() {
+        return toTable();
+    }
+
+    // 表格形式，和 SELECT 的结果一样：表头一行，每种执行过的命令一行
+    public synchronized String toTable() {
+        StringBuilder table = new StringBuilder("command\tcount\terrors\tslow\tavgMicros\tp50Micros\tp95Micros\tp99Micros"
+                + "\tmaxMicros\trowsScanned\trowsReturned\tbytesWritten\n");
+        for (Map.Entry<QueryPlan.Kind, KindStats> entry : stats.entrySet()) {
+            appendRow(table, entry.getKey().name(), entry.getValue());
+        }
+        appendRow(table, INVALID, invalid);
+        return table.toString();
+    }
+
+    private static void appendRow(StringBuilder table, String command, KindStats kindStats) {
+        if (kindStats.commands == 0) {
+            return;
+        }
+        table.append(command).append('\t').append(kindStats.commands).append('\t').append(kindStats.errors).append('\t')
+                .append(kindStats.slow).append('\t').append(kindStats.latencyNanos / kindStats.commands / 1000).append('\t')
+                .append(kindStats.percentileMicros(0.50)).append('\t').append(kindStats.percentileMicros(0.95)).append('\t')
+                .append(kindStats.percentileMicros(0.99)).append('\t').append(kindStats.maxLatencyNanos / 1000).append('\t')
+                .append(kindStats.rowsScanned).append('\t').append(kindStats.rowsReturned).append('\t')
+                .append(kindStats.bytesWritten).append('\n');
+    }
+
+    // 慢查询日志的一行（JSON），命令太长时只保留开头
+    static String slowQueryLine(Sample sample, String database, String statement) {
+        StringBuilder line = new StringBuilder(256);
+        line.append("{\"time\":\"").append(Instant.now()).append("\",\"command\":\"").append(sample.getCommand())
+                .append("\",\"micros\":").append(sample.latencyNanos / 1000)
+                .append(",\"database\":");
+        appendJson(line, database);
+        line.append(",\"rowsScanned\":").append(sample.rowsScanned).append(",\"rowsReturned\":").append(sample.rowsReturned)
+                .append(",\"bytes\":").append(sample.bytesWritten).append(",\"error\":").append(sample.error)
+                .append(",\"statement\":");
+        appendJson(line, statement.length() > 1000 ? statement.substring(0, 1000) + "..." : statement);
+        return line.append('}').toString();
+    }
+
+    private static void appendJson(StringBuilder out, String text) {
+        if (text == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    /**
+     * Passes a response on to the client's sink, counting its UTF-8 bytes and
+     * its rows (lines after the [OK] line and the header) on the way.
+     */
+    static class MeteredSink implements ResultSink {
+        private final ResultSink sink;
+        private long bytes;
+        private long lines;
+        private boolean first = true;
+        private boolean error;
+
+        MeteredSink(ResultSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void write(CharSequence text) {
+            if (first && text.length() > 0) {
+                first = false;
+                error = text.length() >= 7 && text.subSequence(0, 7).toString().equals("[ERROR]");
+            }
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    ++bytes;
+                    if (c == '\n') ++lines;
+                } else if (c < 0x800 || Character.isSurrogate(c)) {
+                    // 代理对一共 4 个字节，高位和低位各算 2 个
+                    bytes += 2;
+                } else {
+                    bytes += 3;
+                }
+            }
+            sink.write(text);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return sink.isCancelled();
+        }
+
+        // 结果的行数（不算 [OK] 和表头）
+        long getRows() {
+            return Math.max(0, lines - 2);
+        }
+
+        // 把计数填进 sample；只有 SELECT 和 JOIN 返回行
+        void finish(Sample sample) {
+            sample.bytesWritten = bytes;
+            sample.error = error;
+            if (!error && (sample.kind == QueryPlan.Kind.SELECT || sample.kind == QueryPlan.Kind.JOIN)) {
+                sample.rowsReturned = getRows();
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package edu.uob;
+
+/**
+ * The JMX view of {@link QueryStats}, registered while the server is
+ * listening as edu.uob:type=QueryStats,port=&lt;port&gt;.
+ */
+public interface QueryStatsMBean {
+
+    long getCommands();
+
+    long getErrors();
+
+    long getSlowQueries();
+
+    long getRowsScanned();
+
+    long getRowsReturned();
+
+    long getBytesWritten();
+
+    // 和 SHOW STATS 一样的表格
+    String getTable();
+
+    void reset();
+}
@@ -0,0 +1,16 @@
+package edu.uob;
+
+/**
+ * Receives a command's response piece by piece, so large results can be
+ * sent while they are being produced. write() must consume (copy) the text
+ * before returning, because callers reuse their buffers.
+ */
+public interface ResultSink {
+
+    void write(CharSequence text);
+
+    // 客户端已经断开时返回 true，查询可以提前结束
+    default boolean isCancelled() {
+        return false;
+    }
+}
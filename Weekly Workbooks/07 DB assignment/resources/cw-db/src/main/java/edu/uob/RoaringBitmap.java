@@ -0,0 +1,269 @@
+package edu.uob;
+
+import java.util.Arrays;
+
+/**
+ * A compact set of non-negative ints (row ids), laid out like a roaring
+ * bitmap: ids are grouped by their high 16 bits, and each group keeps its
+ * low 16 bits either as a sorted char array (up to 4096 values, 2 bytes
+ * each) or as a 65536-bit bitmap (8 KB), whichever is smaller.
+ */
+public class RoaringBitmap {
+
+    // 数组容器最多这么多个值，再多就换成位图（两种一样大）
+    private static final int ARRAY_LIMIT = 4096;
+
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    // 前 count 个是用到的组：keys 是高 16 位（升序），containers 是 char[]（升序）或者 long[]，sizes 是值的个数
+    private char[] keys = new char[0];
+    private Object[] containers = new Object[0];
+    private int[] sizes = new int[0];
+    private int count;
+
+    public void add(int value) {
+        char key = (char) (value >>> 16);
+        char low = (char) value;
+        int group = Arrays.binarySearch(keys, 0, count, key);
+        if (group < 0) {
+            group = -(group + 1);
+            insertGroup(group, key, new char[4], 0);
+        }
+        Object container = containers[group];
+        if (container instanceof long[]) {
+            long[] words = (long[]) container;
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) == 0) {
+                words[low >>> 6] |= bit;
+                ++sizes[group];
+            }
+            return;
+        }
+        char[] values = (char[]) container;
+        int size = sizes[group];
+        int position = Arrays.binarySearch(values, 0, size, low);
+        if (position >= 0) {
+            return;
+        }
+        if (size == ARRAY_LIMIT) {
+            long[] words = toBitmap(values, size);
+            words[low >>> 6] |= 1L << low;
+            containers[group] = words;
+            ++sizes[group];
+            return;
+        }
+        position = -(position + 1);
+        if (size == values.length) {
+            values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, size * 2));
+            containers[group] = values;
+        }
+        System.arraycopy(values, position, values, position + 1, size - position);
+        values[position] = low;
+        ++sizes[group];
+    }
+
+    public void remove(int value) {
+        char key = (char) (value >>> 16);
+        char low = (char) value;
+        int group = Arrays.binarySearch(keys, 0, count, key);
+        if (group < 0) {
+            return;
+        }
+        Object container = containers[group];
+        if (container instanceof long[]) {
+            long[] words = (long[]) container;
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) == 0) {
+                return;
+            }
+            words[low >>> 6] &= ~bit;
+            if (--sizes[group] == ARRAY_LIMIT) {
+                containers[group] = toArray(words, ARRAY_LIMIT);
+            }
+            return;
+        }
+        char[] values = (char[]) container;
+        int size = sizes[group];
+        int position = Arrays.binarySearch(values, 0, size, low);
+        if (position < 0) {
+            return;
+        }
+        System.arraycopy(values, position + 1, values, position, size - position - 1);
+        if (--sizes[group] == 0) {
+            removeGroup(group);
+        }
+    }
+
+    public boolean contains(int value) {
+        int group = Arrays.binarySearch(keys, 0, count, (char) (value >>> 16));
+        if (group < 0) {
+            return false;
+        }
+        char low = (char) value;
+        Object container = containers[group];
+        if (container instanceof long[]) {
+            return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) container, 0, sizes[group], low) >= 0;
+    }
+
+    public int getCardinality() {
+        int cardinality = 0;
+        for (int group = 0; group < count; group++) {
+            cardinality += sizes[group];
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    // 交集：只有两边都有的组才需要看
+    public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.count && j < b.count) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (b.keys[j] < a.keys[i]) {
+                j++;
+            } else {
+                result.andGroup(a.keys[i], a.containers[i], a.sizes[i], b.containers[j], b.sizes[j]);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    private void andGroup(char key, Object a, int aSize, Object b, int bSize) {
+        if (a instanceof long[] && b instanceof long[]) {
+            long[] words = new long[BITMAP_WORDS];
+            int size = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                words[w] = ((long[]) a)[w] & ((long[]) b)[w];
+                size += Long.bitCount(words[w]);
+            }
+            if (size > ARRAY_LIMIT) {
+                insertGroup(count, key, words, size);
+            } else if (size > 0) {
+                insertGroup(count, key, toArray(words, size), size);
+            }
+            return;
+        }
+        if (a instanceof long[]) {
+            // 让 a 是数组，逐个去 b 里查
+            Object swap = a;
+            a = b;
+            b = swap;
+            int swapSize = aSize;
+            aSize = bSize;
+            bSize = swapSize;
+        }
+        char[] values = (char[]) a;
+        char[] kept = new char[aSize];
+        int size = 0;
+        if (b instanceof long[]) {
+            long[] words = (long[]) b;
+            for (int i = 0; i < aSize; i++) {
+                char low = values[i];
+                if ((words[low >>> 6] & (1L << low)) != 0) {
+                    kept[size++] = low;
+                }
+            }
+        } else {
+            char[] other = (char[]) b;
+            int j = 0;
+            for (int i = 0; i < aSize && j < bSize; i++) {
+                while (j < bSize && other[j] < values[i]) {
+                    j++;
+                }
+                if (j < bSize && other[j] == values[i]) {
+                    kept[size++] = values[i];
+                }
+            }
+        }
+        if (size > 0) {
+            insertGroup(count, key, kept, size);
+        }
+    }
+
+    // 所有的值，升序
+    public int[] toArray() {
+        int[] result = new int[getCardinality()];
+        int n = 0;
+        for (int group = 0; group < count; group++) {
+            int high = keys[group] << 16;
+            Object container = containers[group];
+            if (container instanceof long[]) {
+                long[] words = (long[]) container;
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    for (long word = words[w]; word != 0; word &= word - 1) {
+                        result[n++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+                    }
+                }
+            } else {
+                char[] values = (char[]) container;
+                for (int i = 0; i < sizes[group]; i++) {
+                    result[n++] = high | values[i];
+                }
+            }
+        }
+        return result;
+    }
+
+    // 大概占用的堆内存（字节）
+    public long estimateBytes() {
+        long bytes = 64 + 16L * count;
+        for (int group = 0; group < count; group++) {
+            Object container = containers[group];
+            bytes += container instanceof long[] ? 8L * BITMAP_WORDS : 16 + 2L * ((char[]) container).length;
+        }
+        return bytes;
+    }
+
+    private void insertGroup(int group, char key, Object container, int size) {
+        if (count == keys.length) {
+            int capacity = Math.max(4, count * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            containers = Arrays.copyOf(containers, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+        }
+        System.arraycopy(keys, group, keys, group + 1, count - group);
+        System.arraycopy(containers, group, containers, group + 1, count - group);
+        System.arraycopy(sizes, group, sizes, group + 1, count - group);
+        keys[group] = key;
+        containers[group] = container;
+        sizes[group] = size;
+        ++count;
+    }
+
+    private void removeGroup(int group) {
+        System.arraycopy(keys, group + 1, keys, group, count - group - 1);
+        System.arraycopy(containers, group + 1, containers, group, count - group - 1);
+        System.arraycopy(sizes, group + 1, sizes, group, count - group - 1);
+        --count;
+        containers[count] = null;
+    }
+
+    private static long[] toBitmap(char[] values, int size) {
+        long[] words = new long[BITMAP_WORDS];
+        for (int i = 0; i < size; i++) {
+            words[values[i] >>> 6] |= 1L << values[i];
+        }
+        return words;
+    }
+
+    private static char[] toArray(long[] words, int size) {
+        char[] values = new char[size];
+        int n = 0;
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+            for (long word = words[w]; word != 0; word &= word - 1) {
+                values[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+            }
+        }
+        return values;
+    }
+}
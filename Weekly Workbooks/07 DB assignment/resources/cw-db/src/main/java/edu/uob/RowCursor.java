@@ -0,0 +1,117 @@
+package edu.uob;
+
+import java.util.Arrays;
+
+/**
+ * Walks the rows of a table that satisfy a WHERE expression, one position at
+ * a time and in table order, so a result can be streamed without first
+ * collecting it. Uses indexes for the expression when it can.
+ * The expression is compiled into column filters once; the candidates are
+ * then filtered a batch at a time through a selection vector, each filter
+ * shrinking the batch before the next one runs.
+ * The caller must hold the table's lock while the cursor is in use.
+ */
+public class RowCursor {
+
+    // 一批候选行的个数
+    static final int BATCH_SIZE = 1024;
+
+    // null 表示没有 WHERE
+    private final Column.Filter filter;
+
+    // 索引给出的候选行位置；null 表示所有行都是候选
+    private final int[] candidates;
+
+    // 只看 [scanned, candidateCount) 这一段候选
+    private final int candidateCount;
+
+    // 已经放进批里的候选个数
+    private int scanned;
+
+    // 当前这一批里满足所有条件的行（选择向量）
+    private final int[] batch;
+
+    private int batchCount;
+
+    private int batchNext;
+
+    // EXPLAIN ANALYZE 时记下扫描和过滤的行数和时间；并行扫描的块不记
+    private final Explain profile;
+
+    // where 为 null 时是所有行
+    public RowCursor(Table table, Expression where) {
+        long start = Explain.start();
+        this.filter = where == null ? null : where.compile(table);
+        this.candidates = where == null ? null : where.candidates(table);
+        this.candidateCount = candidates == null ? table.getRowCount() : candidates.length;
+        this.batch = new int[Math.min(BATCH_SIZE, candidateCount)];
+        this.profile = Explain.current();
+        Explain.record(Explain.Step.ACCESS, 0, start);
+    }
+
+    // 只扫描第 from 到 to 个候选（并行扫描的一块）；filter 已经编译好，可以被几个线程同时使用
+    RowCursor(Column.Filter filter, int[] candidates, int from, int to) {
+        this.filter = filter;
+        this.candidates = candidates;
+        this.candidateCount = to;
+        this.scanned = from;
+        this.batch = new int[Math.min(BATCH_SIZE, to - from)];
+        this.profile = null;
+    }
+
+    // 下一个满足所有条件的行的位置，没有了返回 -1
+    public int next() {
+        while (batchNext == batchCount) {
+            if (scanned == candidateCount) {
+                return -1;
+            }
+            nextBatch();
+        }
+        return batch[batchNext++];
+    }
+
+    private void nextBatch() {
+        int count = Math.min(batch.length, candidateCount - scanned);
+        if (candidates == null) {
+            for (int i = 0; i < count; i++) {
+                batch[i] = scanned + i;
+            }
+        } else {
+            System.arraycopy(candidates, scanned, batch, 0, count);
+        }
+        scanned += count;
+        if (profile != null) {
+            profile.actual(Explain.Step.ACCESS, count, 0);
+        }
+        if (filter != null && count > 0) {
+            long start = profile == null ? 0 : System.nanoTime();
+            count = filter.apply(batch, count);
+            if (profile != null) {
+                profile.actual(Explain.Step.FILTER, count, System.nanoTime() - start);
+            }
+        }
+        batchCount = count;
+        batchNext = 0;
+    }
+
+    // 到目前为止看过的候选行数（包括不满足条件的）
+    public int getScanned() {
+        return scanned;
+    }
+
+    // 剩下的所有匹配行（UPDATE / DELETE 先收集再修改）
+    public int[] toArray() {
+        int[] matching = new int[candidateCount - scanned + batchCount - batchNext];
+        int count = 0;
+        while (true) {
+            System.arraycopy(batch, batchNext, matching, count, batchCount - batchNext);
+            count += batchCount - batchNext;
+            batchNext = batchCount;
+            if (scanned == candidateCount) {
+                break;
+            }
+            nextBatch();
+        }
+        return Arrays.copyOf(matching, count);
+    }
+}
@@ -0,0 +1,158 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * ORDER BY for SELECT. Rows are ordered the way an OrderedIndex orders its
+ * keys: numbers by value first, then everything else as text. Rows with
+ * equal keys keep their table order, whatever the direction.
+ * With a LIMIT, only the first OFFSET + LIMIT rows are kept in a bounded
+ * heap instead of sorting every match. When the one sort key has an
+ * ordered index, rows are read in index order and the walk stops as soon
+ * as enough rows have matched.
+ * The caller must hold the table's read lock.
+ */
+public class RowOrder {
+
+    // 每个排序键的列（id 列是 null）和方向
+    private final Column[] keys;
+    private final boolean[] descending;
+
+    public RowOrder(Table table, List<Integer> columns, List<Boolean> descending) {
+        this.keys = new Column[columns.size()];
+        this.descending = new boolean[columns.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = columns.get(i) == 0 ? null : table.getColumn(columns.get(i));
+            this.descending[i] = descending.get(i);
+        }
+    }
+
+    // 两行的先后，键相同时按表里的顺序
+    public int compare(int a, int b) {
+        for (int i = 0; i < keys.length; i++) {
+            // id 和位置的顺序相同
+            int order = keys[i] == null ? Integer.compare(a, b) : keys[i].compare(a, b);
+            if (order != 0) {
+                return descending[i] ? -order : order;
+            }
+        }
+        return Integer.compare(a, b);
+    }
+
+    /**
+     * positions 里排在最前面的 count 个行（排好序）；count < 0 表示全部
+     * 只要一部分时用大小为 count 的堆，堆顶是目前留下的行里排在最后的
+     */
+    public int[] first(int[] positions, int count) {
+        if (count < 0 || count >= positions.length) {
+            Integer[] boxed = new Integer[positions.length];
+            for (int i = 0; i < boxed.length; i++) {
+                boxed[i] = positions[i];
+            }
+            Arrays.sort(boxed, this::compare);
+            int[] sorted = new int[boxed.length];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = boxed[i];
+            }
+            return sorted;
+        }
+        if (count == 0) {
+            return new int[0];
+        }
+        PriorityQueue<Integer> heap = new PriorityQueue<>(count, (a, b) -> compare(b, a));
+        for (int position : positions) {
+            if (heap.size() < count) {
+                heap.add(position);
+            } else if (compare(position, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(position);
+            }
+        }
+        int[] sorted = new int[heap.size()];
+        for (int i = sorted.length - 1; i >= 0; i--) {
+            sorted[i] = heap.poll();
+        }
+        return sorted;
+    }
+
+    // 只有一个排序键、并且它有有序索引时返回这个索引（id 列不算），否则返回 null
+    static OrderedIndex usableIndex(Table table, List<Integer> columns) {
+        if (columns.size() != 1 || columns.get(0) == 0) {
+            return null;
+        }
+        return (OrderedIndex) table.getIndex(table.getColumns().get(columns.get(0)), "ORDERED");
+    }
+
+    // 没有 WHERE，或者有 LIMIT（够一页就停）时才按索引的顺序走；否则先过滤再排序更快
+    static boolean walksIndex(Expression where, int limit) {
+        return where == null || limit >= 0;
+    }
+
+    /**
+     * 按有序索引的顺序取满足 filter（null 表示所有行）的前 count 个行；count < 0 表示全部
+     * 同一个键的行按表里的顺序；降序时先走文本再走数字，两棵树都倒着走
+     */
+    public static int[] fromIndex(Table table, OrderedIndex index, boolean descending, Column.Filter filter, int count) {
+        List<NavigableMap<?, Set<Integer>>> trees = new ArrayList<>();
+        trees.add(descending ? index.getNumericValues().descendingMap() : index.getNumericValues());
+        trees.add(descending ? index.getTextValues().descendingMap() : index.getTextValues());
+        if (descending) {
+            Collections.reverse(trees);
+        }
+        int limit = count < 0 ? table.getRowCount() : Math.min(count, table.getRowCount());
+        int[] result = new int[limit];
+        int found = 0;
+        long scanned = 0;
+        for (NavigableMap<?, Set<Integer>> tree : trees) {
+            for (Map.Entry<?, Set<Integer>> entry : tree.entrySet()) {
+                if (found == limit) {
+                    QueryStats.scanned(scanned);
+                    return result;
+                }
+                int[] positions = new int[entry.getValue().size()];
+                int size = 0;
+                for (int id : entry.getValue()) {
+                    positions[size++] = table.positionOfId(id);
+                }
+                Arrays.sort(positions);
+                scanned += size;
+                if (filter != null) {
+                    size = filter.apply(positions, size);
+                }
+                int taken = Math.min(size, limit - found);
+                System.arraycopy(positions, 0, result, found, taken);
+                found += taken;
+            }
+        }
+        QueryStats.scanned(scanned);
+        return Arrays.copyOf(result, found);
+    }
+
+    // 结果里的值（聚合查询排序用），和 Column.compare 的顺序一样
+    public static int compareText(String a, String b) {
+        Double aNumber = parseNumber(a);
+        Double bNumber = parseNumber(b);
+        if (aNumber != null && bNumber != null) {
+            return Double.compare(aNumber, bNumber);
+        }
+        if ((aNumber == null) != (bNumber == null)) {
+            return aNumber != null ? -1 : 1;
+        }
+        return a.compareTo(b);
+    }
+
+    private static Double parseNumber(String value) {
+        try {
+            return Double.parseDouble(value) + 0.0;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package edu.uob;
+
+/**
+ * State kept between the commands of one client: for now only its open
+ * transaction. The commands of a session run one at a time.
+ */
+public class Session {
+
+    // BEGIN 之后、COMMIT 或 ROLLBACK 之前不为 null
+    private Transaction transaction;
+
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    public void setTransaction(Transaction transaction) {
+        this.transaction = transaction;
+    }
+}
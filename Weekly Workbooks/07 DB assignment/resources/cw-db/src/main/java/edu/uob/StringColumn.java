@@ -0,0 +1,165 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary-encoded text column: every distinct string is stored once and the
+ * rows hold an int code. Whether a dictionary entry parses as a number is worked
+ * out when the entry is added, so comparisons never parse a cell.
+ */
+public class StringColumn extends Column {
+
+    private int[] codes = new int[0];
+    private List<String> dictionary = new ArrayList<>();
+    private Map<String, Integer> codeOf = new HashMap<>();
+    private double[] entryNumbers = new double[0];
+    private BitSet numericEntries = new BitSet();
+    // 写法是整数（并且 double 能精确表示）的字典项，求和时按 long 加
+    private BitSet wholeEntries = new BitSet();
+    // 字典里的字符串和哈希表项大概占的字节数
+    private long dictionaryBytes;
+
+    @Override
+    public String getType() {
+        return "STRING";
+    }
+
+    @Override
+    public boolean accepts(String value) {
+        return true;
+    }
+
+    @Override
+    public void add(String value) {
+        if (size == codes.length) {
+            codes = Arrays.copyOf(codes, grow(codes.length, size + 1));
+        }
+        ++size;
+        set(size - 1, value);
+    }
+
+    @Override
+    public void set(int position, String value) {
+        codes[position] = encode(value);
+    }
+
+    private int encode(String value) {
+        Integer code = codeOf.get(value);
+        if (code != null) {
+            return code;
+        }
+        int newCode = dictionary.size();
+        dictionary.add(value);
+        codeOf.put(value, newCode);
+        dictionaryBytes += 96 + 2L * value.length();
+        if (newCode == entryNumbers.length) {
+            entryNumbers = Arrays.copyOf(entryNumbers, grow(entryNumbers.length, newCode + 1));
+        }
+        try {
+            entryNumbers[newCode] = Double.parseDouble(value);
+            numericEntries.set(newCode);
+            wholeEntries.set(newCode, LongColumn.canHold(value) && DoubleColumn.canHold(value));
+        } catch (NumberFormatException e) {
+            // Text entry: compared as a string.
+        }
+        return newCode;
+    }
+
+    @Override
+    public String get(int position) {
+        return dictionary.get(codes[position]);
+    }
+
+    @Override
+    public boolean isNumber(int position) {
+        return numericEntries.get(codes[position]);
+    }
+
+    @Override
+    public double getNumber(int position) {
+        return entryNumbers[codes[position]];
+    }
+
+    @Override
+    public boolean isWhole(int position) {
+        return wholeEntries.get(codes[position]);
+    }
+
+    @Override
+    public long getWhole(int position) {
+        return (long) entryNumbers[codes[position]];
+    }
+
+    // 字典编码就是键
+    @Override
+    public Object groupKey(int position) {
+        return codes[position];
+    }
+
+    @Override
+    public boolean test(int position, Condition condition) {
+        int code = codes[position];
+        if (condition.usesNumbers() && numericEntries.get(code)) {
+            return condition.testNumber(entryNumbers[code]);
+        }
+        return condition.testText(dictionary.get(code));
+    }
+
+    // 每个字典项只比较一次，之后每行只是查一下它的编码
+    @Override
+    public Filter compile(Condition condition) {
+        boolean[] matchesCode = new boolean[dictionary.size()];
+        for (int code = 0; code < matchesCode.length; ++code) {
+            if (condition.usesNumbers() && numericEntries.get(code)) {
+                matchesCode[code] = condition.testNumber(entryNumbers[code]);
+            } else {
+                matchesCode[code] = condition.testText(dictionary.get(code));
+            }
+        }
+        int[] cells = codes;
+        return (selection, count) -> {
+            int kept = 0;
+            for (int i = 0; i < count; ++i) {
+                int position = selection[i];
+                selection[kept] = position;
+                kept += matchesCode[cells[position]] ? 1 : 0;
+            }
+            return kept;
+        };
+    }
+
+    @Override
+    public void removeAll(BitSet removed) {
+        int target = 0;
+        for (int i = 0; i < size; ++i) {
+            if (!removed.get(i)) {
+                codes[target++] = codes[i];
+            }
+        }
+        size = target;
+    }
+
+    @Override
+    public long estimateBytes() {
+        return 4L * codes.length + 8L * entryNumbers.length + dictionaryBytes;
+    }
+
+    @Override
+    public Column copy() {
+        StringColumn column = new StringColumn();
+        column.codes = Arrays.copyOf(codes, size);
+        column.dictionary = new ArrayList<>(dictionary);
+        column.codeOf = new HashMap<>(codeOf);
+        column.entryNumbers = entryNumbers.clone();
+        column.numericEntries = (BitSet) numericEntries.clone();
+        column.wholeEntries = (BitSet) wholeEntries.clone();
+        column.dictionaryBytes = dictionaryBytes;
+        column.size = size;
+        return column;
+    }
+}
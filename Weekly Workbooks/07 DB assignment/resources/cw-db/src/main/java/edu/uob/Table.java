@@ -1,79 +1,656 @@
 package edu.uob;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * 列式存储的表：id 存在一个 int[] 里（升序），其余每一列是一个带类型的 Column。
+ * 行用位置（0 .. getRowCount()-1）来访问，删除行之后后面的行的位置会前移。
+ */
 public class Table {
 
     private String name;
 
     private List<String> columns;
 
-    private List<List<String>> rows;
+    // 每行的 id，按升序存放，主键查找用二分
+    private int[] ids;
+
+    // values.get(i) 是第 i + 1 列（第 0 列是 id）
+    private List<Column> values;
+
+    private int rowCount;
 
     private int nextId;
 
+    // 二级索引（哈希或有序），每个索引记录自己的列名
+    private List<ColumnIndex> indexes;
+
+    // 表级读写锁：查询拿读锁，修改拿写锁；Table 自己的方法不加锁
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // 有未提交修改的事务（由 this 保护）；别的会话要等它提交或回滚才能用这个表
+    private Transaction owner;
+
+    // planner 用的统计信息，修改时增量维护；从文件恢复的表是 null，第一次用到时才统计
+    private volatile TableStats stats;
+
     public Table(String name, List<String> columns) {
         this.name = name;
         this.columns = new ArrayList<>();
         this.columns.add("id");
+        this.values = new ArrayList<>();
         if (columns != null) {
             this.columns.addAll(columns);
+            for (int i = 0; i < columns.size(); ++i) {
+                this.values.add(new LongColumn());
+            }
         }
-        this.rows = new ArrayList<>();
+        this.ids = new int[0];
+        this.rowCount = 0;
         this.nextId = 1;
+        this.indexes = new ArrayList<>();
+        this.stats = TableStats.empty(this.columns.size());
     }
 
-    // 添加一行数据到这个表中
-    public void addRow(List<String> rowData) {
+    // 添加一行数据到这个表中，返回带有新 id 的整行
+    public List<String> addRow(List<String> rowData) {
         if (rowData.size() != this.columns.size() - 1) {
             throw new IllegalArgumentException("The number of data rows and columns does not match");
         }
-        List<String> newRow = new ArrayList<>();
-        newRow.add(String.valueOf(nextId));
-        newRow.addAll(rowData);
-        rows.add(newRow);
+        appendRow(nextId, rowData);
         ++nextId;
+        return getRow(rowCount - 1);
+    }
+
+    // 一次追加多行，返回带有新 id 的各行；先检查所有行，有一行不对就一行都不加
+    public List<List<String>> addRows(List<List<String>> rows) {
+        for (List<String> rowData : rows) {
+            if (rowData.size() != this.columns.size() - 1) {
+                throw new IllegalArgumentException("The number of data rows and columns does not match");
+            }
+        }
+        if (ids.length < rowCount + rows.size()) {
+            ids = Arrays.copyOf(ids, Math.max(rowCount + rows.size(), rowCount + (rowCount >> 1)));
+        }
+        int first = rowCount;
+        for (List<String> rowData : rows) {
+            appendRow(nextId, rowData);
+            ++nextId;
+        }
+        List<List<String>> added = new ArrayList<>(rows.size());
+        for (int position = first; position < rowCount; ++position) {
+            added.add(getRow(position));
+        }
+        return added;
+    }
+
+    // 从文件或日志恢复一行，保留原来的 id
+    public void loadRow(List<String> row) {
+        if (row.size() != columns.size()) {
+            throw new IllegalArgumentException("The number of data rows and columns does not match");
+        }
+        int id = Integer.parseInt(row.get(0));
+        int position = positionOf(id);
+        if (position >= 0) {
+            throw new IllegalArgumentException("Duplicate id " + id);
+        }
+        if (-(position + 1) == rowCount) {
+            appendRow(id, row.subList(1, row.size()));
+        } else {
+            // 很少见：日志重放时 id 比已有的行小，要插到中间
+            restoreRows(List.of(row));
+        }
+        nextId = Math.max(nextId, id + 1);
+    }
+
+    private void appendRow(int id, List<String> rowData) {
+        for (int i = 0; i < rowData.size(); ++i) {
+            ensureAccepts(i + 1, rowData.get(i));
+        }
+        if (rowCount == ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(16, rowCount + (rowCount >> 1)));
+        }
+        ids[rowCount] = id;
+        for (int i = 0; i < rowData.size(); ++i) {
+            values.get(i).add(rowData.get(i));
+        }
+        TableStats current = stats;
+        if (current != null) {
+            for (int i = 0; i < rowData.size(); ++i) {
+                current.add(i + 1, rowData.get(i), values.get(i), rowCount);
+            }
+        }
+        ++rowCount;
+        for (ColumnIndex index : indexes) {
+            index.add(rowData.get(getColumnIndex(index.getColumn()) - 1), id);
+        }
+    }
+
+    /**
+     * 把几行（包括 id，都不在表里）按 id 插回它们原来的位置：回滚 DELETE 和重放日志时用
+     * 合并只做一遍，每一列只重建一次，所以放回 k 行的代价是 O(n + k log k)
+     */
+    public void restoreRows(List<List<String>> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        for (List<String> row : rows) {
+            if (row.size() != columns.size()) {
+                throw new IllegalArgumentException("The number of data rows and columns does not match");
+            }
+            if (positionOf(Integer.parseInt(row.get(0))) >= 0) {
+                throw new IllegalArgumentException("Duplicate id " + row.get(0));
+            }
+        }
+        List<List<String>> restored = new ArrayList<>(rows);
+        restored.sort(Comparator.comparingInt(row -> Integer.parseInt(row.get(0))));
+        // 先把每一列换成能装下所有放回的值的类型，合并时就不用再换了
+        for (List<String> row : restored) {
+            for (int i = 1; i < row.size(); ++i) {
+                ensureAccepts(i, row.get(i));
+            }
+        }
+
+        // 合并两个按 id 升序的序列；from[新位置] 是原来的位置，或者 -(放回的第几行 + 1)
+        int total = rowCount + restored.size();
+        int[] mergedIds = new int[total];
+        int[] from = new int[total];
+        int[] restoredPositions = new int[restored.size()];
+        int next = 0;
+        for (int position = 0, k = 0; position < total; ++position) {
+            int restoredId = k < restored.size() ? Integer.parseInt(restored.get(k).get(0)) : 0;
+            if (k < restored.size() && (next == rowCount || restoredId < ids[next])) {
+                mergedIds[position] = restoredId;
+                from[position] = -(k + 1);
+                restoredPositions[k++] = position;
+            } else {
+                mergedIds[position] = ids[next];
+                from[position] = next++;
+            }
+        }
+        for (int i = 0; i < values.size(); ++i) {
+            Column old = values.get(i);
+            Column merged = Column.ofType(old.getType());
+            for (int position = 0; position < total; ++position) {
+                merged.add(from[position] >= 0 ? old.get(from[position]) : restored.get(-from[position] - 1).get(i + 1));
+            }
+            values.set(i, merged);
+        }
+        ids = mergedIds;
+        rowCount = total;
+
+        TableStats current = stats;
+        for (int k = 0; k < restored.size(); ++k) {
+            List<String> row = restored.get(k);
+            int id = mergedIds[restoredPositions[k]];
+            for (ColumnIndex index : indexes) {
+                index.add(row.get(getColumnIndex(index.getColumn())), id);
+            }
+            if (current != null) {
+                for (int i = 1; i < row.size(); ++i) {
+                    current.add(i, row.get(i), values.get(i - 1), restoredPositions[k]);
+                }
+            }
+            nextId = Math.max(nextId, id + 1);
+        }
+    }
+
+    // 值放不进这一列当前的类型时，把整列换成更宽的类型
+    private void ensureAccepts(int columnIndex, String value) {
+        Column column = values.get(columnIndex - 1);
+        if (!column.accepts(value)) {
+            values.set(columnIndex - 1, Column.widen(column, value));
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public String getValue(int position, int columnIndex) {
+        if (columnIndex == 0) {
+            return String.valueOf(ids[position]);
+        }
+        return values.get(columnIndex - 1).get(position);
+    }
+
+    public int getId(int position) {
+        return ids[position];
+    }
+
+    // 复制出一整行（包括 id）
+    public List<String> getRow(int position) {
+        List<String> row = new ArrayList<>(columns.size());
+        row.add(String.valueOf(ids[position]));
+        for (Column column : values) {
+            row.add(column.get(position));
+        }
+        return row;
+    }
+
+    // 第 columnIndex 列的存储（不能是 id 列），二进制表文件按类型读写时用
+    public Column getColumn(int columnIndex) {
+        return values.get(columnIndex - 1);
+    }
+
+    /**
+     * 用已经建好的列恢复一个表（读二进制表文件时用），ids 必须是升序的
+     * 每一列的长度都要等于 ids 的长度
+     */
+    public static Table fromColumns(String name, List<String> columns, int[] ids, List<Column> values, int nextId) {
+        Table table = new Table(name, null);
+        table.columns.addAll(columns);
+        table.values.addAll(values);
+        table.ids = ids;
+        table.rowCount = ids.length;
+        table.nextId = Math.max(nextId, ids.length == 0 ? 1 : ids[ids.length - 1] + 1);
+        table.stats = null;
+        return table;
+    }
+
+    public int getNextId() {
+        return nextId;
+    }
+
+    public String getColumnType(int columnIndex) {
+        return columnIndex == 0 ? "LONG" : values.get(columnIndex - 1).getType();
+    }
+
+    // 把一个条件编译成这一列上的过滤器（id 是第 0 列），用列的类型直接比较，不需要再解析单元格
+    public Column.Filter compile(int columnIndex, Condition condition) {
+        if (columnIndex > 0) {
+            return values.get(columnIndex - 1).compile(condition);
+        }
+        int[] cells = ids;
+        if (!condition.usesNumbers()) {
+            return (selection, count) -> {
+                int kept = 0;
+                for (int i = 0; i < count; ++i) {
+                    int position = selection[i];
+                    if (condition.testText(String.valueOf(cells[position]))) {
+                        selection[kept++] = position;
+                    }
+                }
+                return kept;
+            };
+        }
+        boolean[] outcomes = condition.outcomes();
+        double literal = condition.number;
+        return (selection, count) -> {
+            int kept = 0;
+            for (int i = 0; i < count; ++i) {
+                int position = selection[i];
+                selection[kept] = position;
+                kept += outcomes[Condition.order(cells[position], literal)] ? 1 : 0;
+            }
+            return kept;
+        };
+    }
+
+    public List<String> getRowById(String id) {
+        int position = positionOfId(id);
+        return position < 0 ? null : getRow(position);
+    }
+
+    // 行的位置，不存在时返回 -1
+    public int positionOfId(String id) {
+        try {
+            int position = positionOf(Integer.parseInt(id));
+            return position < 0 ? -1 : position;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public int positionOfId(int id) {
+        int position = positionOf(id);
+        return position < 0 ? -1 : position;
+    }
+
+    // id 是升序的，二分查找行的位置；找不到时返回 -(插入位置 + 1)
+    private int positionOf(int id) {
+        return Arrays.binarySearch(ids, 0, rowCount, id);
+    }
+
+    public int getColumnIndex(String column) {
+        for (int i = 0; i < columns.size(); ++i) {
+            if (columns.get(i).equalsIgnoreCase(column)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     // 删除一行
     public boolean deleteRowById(String id){
-        for(int i = 0; i < rows.size(); ++i) {
-            List<String> row = rows.get(i);
-            if(row.get(0).equals(id)){
-                rows.remove(i);
-                return true;
+        int position = positionOfId(id);
+        if (position < 0) {
+            return false;
+        }
+        deleteRows(new int[] {position});
+        return true;
+    }
+
+    // 一次删除多行（位置），每一列只需要压缩一遍
+    public void deleteRows(int[] positions) {
+        if (positions.length == 0) {
+            return;
+        }
+        BitSet removed = new BitSet(rowCount);
+        TableStats current = stats;
+        for (int position : positions) {
+            removed.set(position);
+            for (ColumnIndex index : indexes) {
+                index.remove(getValue(position, getColumnIndex(index.getColumn())), ids[position]);
+            }
+            if (current != null) {
+                for (int i = 0; i < values.size(); ++i) {
+                    current.remove(i + 1, values.get(i), position);
+                }
+            }
+        }
+        int target = 0;
+        for (int i = 0; i < rowCount; ++i) {
+            if (!removed.get(i)) {
+                ids[target++] = ids[i];
             }
         }
-        return false;
+        for (Column column : values) {
+            column.removeAll(removed);
+        }
+        rowCount = target;
     }
 
     public boolean updateRowById(String id, List<String> newRowData){
         if (newRowData.size() != columns.size() - 1){
             throw new IllegalArgumentException("value number is valid.");
         }
-        for(List<String> row: rows){
-            if(row.get(0).equals(id)){
-                for(int j = 0; j < newRowData.size(); ++j){
-                    row.set(j + 1, newRowData.get(j));
+        int position = positionOfId(id);
+        if (position < 0) {
+            return false;
+        }
+        for(int j = 0; j < newRowData.size(); ++j){
+            setValue(position, j + 1, newRowData.get(j));
+        }
+        return true;
+    }
+
+    // 修改一个单元格，同时维护这一列上的索引
+    public void setValue(int position, int columnIndex, String value) {
+        if (columnIndex == 0) {
+            throw new IllegalArgumentException("The id column cannot be updated");
+        }
+        for (ColumnIndex index : indexes) {
+            if (index.getColumn().equalsIgnoreCase(columns.get(columnIndex))) {
+                index.remove(getValue(position, columnIndex), ids[position]);
+                index.add(value, ids[position]);
+            }
+        }
+        TableStats current = stats;
+        if (current != null) {
+            current.remove(columnIndex, values.get(columnIndex - 1), position);
+        }
+        ensureAccepts(columnIndex, value);
+        values.get(columnIndex - 1).set(position, value);
+        if (current != null) {
+            current.add(columnIndex, value, values.get(columnIndex - 1), position);
+        }
+    }
+
+    /**
+     * 在一列上建立索引，type 为 HASH、ORDERED 或 TRIGRAM
+     * 同一列上已经有同类型的索引时返回 false
+     */
+    public boolean createIndex(String column, String type) {
+        int columnIndex = getColumnIndex(column);
+        if (columnIndex == -1) {
+            throw new IllegalArgumentException("Column " + column + " does not exist");
+        }
+        if (columnIndex == 0 || getIndex(column, type) != null) {
+            return false;
+        }
+        String columnName = columns.get(columnIndex);
+        ColumnIndex index;
+        if (type.equals("HASH")) {
+            index = new HashIndex(columnName);
+        } else if (type.equals("ORDERED")) {
+            index = new OrderedIndex(columnName);
+        } else if (type.equals("TRIGRAM")) {
+            index = new TrigramIndex(columnName);
+        } else {
+            throw new IllegalArgumentException("Unknown index type " + type);
+        }
+        Column columnValues = values.get(columnIndex - 1);
+        for (int position = 0; position < rowCount; ++position) {
+            index.add(columnValues.get(position), ids[position]);
+        }
+        indexes.add(index);
+        return true;
+    }
+
+    public ColumnIndex getIndex(String column, String type) {
+        for (ColumnIndex index : indexes) {
+            if (index.getColumn().equalsIgnoreCase(column) && index.getType().equals(type)) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    // 每个索引一项: [列名, 类型]
+    public List<List<String>> getIndexDefinitions() {
+        List<List<String>> definitions = new ArrayList<>();
+        for (ColumnIndex index : indexes) {
+            definitions.add(List.of(index.getColumn(), index.getType()));
+        }
+        return definitions;
+    }
+
+    /**
+     * 用索引找出可能满足 "column comparator value" 的行的位置（升序），调用方仍然要检查条件
+     * 没有能用的索引时返回 null
+     */
+    public int[] findMatching(String column, String comparator, String value) {
+        int columnIndex = getColumnIndex(column);
+        if (columnIndex == 0) {
+            return findById(comparator, value);
+        }
+        for (ColumnIndex index : indexes) {
+            if (index.getColumn().equalsIgnoreCase(column)) {
+                Collection<Integer> matchingIds = index.find(comparator, value);
+                if (matchingIds != null) {
+                    return positionsOfIds(matchingIds);
                 }
-                return true;
             }
         }
-        return false;
+        return null;
+    }
+
+    private int[] positionsOfIds(Collection<Integer> matchingIds) {
+        int[] positions = new int[matchingIds.size()];
+        int count = 0;
+        for (int id : matchingIds) {
+            int position = positionOf(id);
+            if (position >= 0) {
+                positions[count++] = position;
+            }
+        }
+        positions = Arrays.copyOf(positions, count);
+        Arrays.sort(positions);
+        return positions;
+    }
+
+    // id 都是整数，和数字字面量按数值比较；id 是升序的，范围查询直接二分
+    private int[] findById(String comparator, String value) {
+        double number;
+        try {
+            number = Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            // 字面量不是数字时按字符串比较，只能扫描
+            return comparator.equals("==") ? new int[0] : null;
+        }
+        if (Double.isNaN(number)) {
+            return comparator.equals("!=") ? null : new int[0];
+        }
+        switch (comparator) {
+            case "==": {
+                int position = number == Math.rint(number) && Math.abs(number) <= Integer.MAX_VALUE
+                        ? positionOf((int) number) : -1;
+                return position < 0 ? new int[0] : new int[] {position};
+            }
+            case ">": return positionRange(firstPositionAbove(number, false), rowCount);
+            case ">=": return positionRange(firstPositionAbove(number, true), rowCount);
+            case "<": return positionRange(0, firstPositionAbove(number, true));
+            case "<=": return positionRange(0, firstPositionAbove(number, false));
+            default: return null;
+        }
+    }
+
+    private static int[] positionRange(int from, int to) {
+        int[] positions = new int[Math.max(0, to - from)];
+        for (int i = 0; i < positions.length; ++i) {
+            positions[i] = from + i;
+        }
+        return positions;
+    }
+
+    // 第一个 id > number（inclusive 时 >=）的行的位置
+    private int firstPositionAbove(double number, boolean inclusive) {
+        int low = 0;
+        int high = rowCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int middleId = ids[middle];
+            if (middleId > number || (inclusive && middleId == number)) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    public void addColumn(String column) {
+        columns.add(column);
+        values.add(Column.of(Collections.nCopies(rowCount, "")));
+        TableStats current = stats;
+        if (current != null) {
+            current.addColumn(rowCount);
+        }
+    }
+
+    public void dropColumn(int columnIndex) {
+        String dropped = columns.get(columnIndex);
+        indexes.removeIf(index -> index.getColumn().equalsIgnoreCase(dropped));
+        columns.remove(columnIndex);
+        values.remove(columnIndex - 1);
+        TableStats current = stats;
+        if (current != null) {
+            current.dropColumn(columnIndex);
+        }
+    }
+
+    // 统计信息，调用方要拿着表锁；还没有统计过时（从文件恢复的表）先统计一遍
+    public TableStats getStats() {
+        TableStats current = stats;
+        if (current == null) {
+            current = TableStats.analyze(this);
+            stats = current;
+        }
+        return current;
+    }
+
+    // ANALYZE：从所有的行重新统计，包括直方图（调用方拿着写锁）
+    public TableStats analyze() {
+        stats = TableStats.analyze(this);
+        return stats;
+    }
+
+    // 大概占用的堆内存（字节），调用方要拿着表锁
+    public long estimateBytes() {
+        long bytes = 128 + 4L * ids.length;
+        for (Column column : values) {
+            bytes += column.estimateBytes();
+        }
+        // 索引的每一项（装箱的 id 和集合的节点）大约 64 字节；trigram 索引自己算
+        for (ColumnIndex index : indexes) {
+            bytes += index instanceof TrigramIndex ? ((TrigramIndex) index).estimateBytes() : 64L * rowCount;
+        }
+        return bytes;
+    }
+
+    // 拷贝数据（不包括索引），checkpoint 在锁外写文件时使用
+    public Table copy() {
+        Table table = new Table(name, null);
+        table.columns = new ArrayList<>(columns);
+        for (Column column : values) {
+            table.values.add(column.copy());
+        }
+        table.ids = Arrays.copyOf(ids, rowCount);
+        table.rowCount = rowCount;
+        table.nextId = nextId;
+        table.stats = null;
+        return table;
     }
 
     public String getName() {
         return name;
     }
 
+    public ReentrantReadWriteLock getLock() {
+        return lock;
+    }
+
+    public synchronized Transaction getOwner() {
+        return owner;
+    }
+
+    public synchronized void setOwner(Transaction owner) {
+        this.owner = owner;
+        if (owner == null) {
+            notifyAll();
+        }
+    }
+
+    // 等到没有事务占用这个表，超时返回 false；调用方不能拿着表锁等
+    public synchronized boolean awaitRelease(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (owner != null) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    // 列名，只读；增加或删除列要用 addColumn / dropColumn
     public List<String> getColumns() {
-        return columns;
+        return Collections.unmodifiableList(columns);
     }
 
+    // 按行读取的只读视图，每次 get 时才从列里取值
     public List<List<String>> getRows() {
-        return rows;
+        return new AbstractList<List<String>>() {
+            @Override
+            public List<String> get(int position) {
+                return getRow(position);
+            }
+
+            @Override
+            public int size() {
+                return rowCount;
+            }
+        };
     }
 
-    
 }
@@ -0,0 +1,158 @@
+package edu.uob;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 当前数据库里的表，键为表名
+ * 表在第一次用到时才从磁盘加载（读快照再重放日志），所以 USE 不需要读整个数据库
+ * 打开的表由 BufferPool 管理，超出内存预算时会被换出，下次用到时再加载
+ */
+public class TableCatalog {
+
+    // 表的加载和写回
+    public interface Storage {
+        Table load(String name, Unopened table) throws IOException;
+
+        // 换出之前调用（调用方拿着表的写锁）：表改过的话写回磁盘，返回下次打开它用的文件
+        File writeBack(Table table) throws IOException;
+    }
+
+    // 还没打开的表：快照文件（日志里重新 CREATE 过的表没有）和日志里还没重放的记录
+    public static class Unopened {
+        final File file;
+        final List<String> columns;
+        final List<List<String>> records = new ArrayList<>();
+
+        Unopened(File file, List<String> columns) {
+            this.file = file;
+            this.columns = columns;
+        }
+    }
+
+    private final Map<String, BufferPool.Frame> open = new ConcurrentHashMap<>();
+
+    private final Map<String, Unopened> unopened;
+
+    private final Storage storage;
+
+    private final BufferPool pool;
+
+    // 没有任何表
+    public TableCatalog() {
+        this(new HashMap<>(), null, new BufferPool(Long.MAX_VALUE));
+    }
+
+    public TableCatalog(Map<String, Unopened> unopened, Storage storage, BufferPool pool) {
+        this.unopened = new ConcurrentHashMap<>(unopened);
+        this.storage = storage;
+        this.pool = pool;
+    }
+
+    // 表不存在时返回 null
+    public Table get(String name) throws IOException {
+        BufferPool.Frame frame = open.get(name);
+        if (frame != null) {
+            pool.hit(frame);
+            return frame.table;
+        }
+        Unopened pending = unopened.get(name);
+        if (pending == null) {
+            frame = open.get(name);
+            return frame == null ? null : frame.table;
+        }
+        Table table;
+        synchronized (pending) {
+            // 另一个线程已经打开了它（之后也可能已经被删掉了）
+            if (unopened.get(name) != pending) {
+                frame = open.get(name);
+                return frame == null ? null : frame.table;
+            }
+            pool.miss();
+            table = storage.load(name, pending);
+            open.put(name, pool.admit(this, table));
+            unopened.remove(name);
+        }
+        pool.evictIfOverBudget(table);
+        return table;
+    }
+
+    // 拿到表锁之后确认它还是这个名字对应的表（没有被删掉或换出）
+    public boolean isCurrent(String name, Table table) {
+        BufferPool.Frame frame = open.get(name);
+        return frame != null && frame.table == table;
+    }
+
+    // 已经有同名的表时返回 false
+    public boolean putIfAbsent(String name, Table table) {
+        // 打开和换出时都是先放进另一边再删，所以两边都查一遍不会漏
+        if (unopened.containsKey(name)) {
+            return false;
+        }
+        BufferPool.Frame frame = pool.admit(this, table);
+        if (open.putIfAbsent(name, frame) != null) {
+            pool.remove(frame);
+            return false;
+        }
+        return true;
+    }
+
+    public void remove(String name) {
+        unopened.remove(name);
+        BufferPool.Frame frame = open.remove(name);
+        if (frame != null) {
+            pool.remove(frame);
+        }
+    }
+
+    // 修改完一个表之后（还拿着它的写锁）更新它的大小，超出预算时换出别的表
+    public void resized(Table table) {
+        BufferPool.Frame frame = open.get(table.getName());
+        if (frame != null && frame.table == table) {
+            pool.resized(frame);
+            pool.evictIfOverBudget(table);
+        }
+    }
+
+    // 由 BufferPool 调用：表没有人在用时写回并换出，返回 false 表示现在不能换出
+    boolean evict(BufferPool.Frame frame) {
+        Table table = frame.table;
+        // 当前线程自己拿着写锁时 tryLock 也会成功，但它正在用这个表
+        if (table.getLock().isWriteLockedByCurrentThread() || !table.getLock().writeLock().tryLock()) {
+            return false;
+        }
+        try {
+            // 事务还没提交的修改不能写进快照
+            if (table.getOwner() != null) {
+                return false;
+            }
+            String name = table.getName();
+            if (open.get(name) != frame) {
+                // 已经被删掉了
+                return true;
+            }
+            File file = storage.writeBack(table);
+            unopened.put(name, new Unopened(file, null));
+            open.remove(name);
+            return true;
+        } catch (IOException e) {
+            AsyncLog.console().log("Could not write back table " + table.getName() + ": " + e.getMessage());
+            return false;
+        } finally {
+            table.getLock().writeLock().unlock();
+        }
+    }
+
+    public Set<String> names() {
+        Set<String> names = new TreeSet<>(open.keySet());
+        names.addAll(unopened.keySet());
+        return names;
+    }
+}
@@ -0,0 +1,203 @@
+package edu.uob;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+
+/**
+ * Equi-join of two tables on one attribute each. Cells match when their text
+ * is equal, as in the original nested-loop JOIN, and the pairs come back in
+ * the same order (by left row, then right row).
+ * The algorithm is picked by estimated cost from the tables' statistics:
+ * a sort-merge over the two ordered indexes (only when both join attributes
+ * have one), or a hash join built on either table. The probe side of a
+ * large hash join is split into chunks probed in parallel.
+ */
+public class TableJoin {
+
+    /** How matchingPairs finds the pairs. */
+    public enum Strategy { HASH_BUILD_LEFT, HASH_BUILD_RIGHT, MERGE }
+
+    // 每行的相对代价：放进哈希表、查哈希表、合并时按 id 找位置、排序结果时每次比较
+    private static final double HASH_BUILD_COST = 4;
+    private static final double HASH_PROBE_COST = 2;
+    private static final double MERGE_PAIR_COST = 2;
+    private static final double SORT_COST = 0.1;
+
+    // 每一对匹配的行编码成 (左边位置 << 32) | 右边位置，按左边、再按右边的顺序排好
+    public static long[] matchingPairs(Table left, int leftColumn, Table right, int rightColumn) {
+        switch (strategy(left, leftColumn, right, rightColumn)) {
+            case MERGE:
+                return mergeJoin(left, leftColumn, orderedIndex(left, leftColumn),
+                        right, rightColumn, orderedIndex(right, rightColumn));
+            case HASH_BUILD_LEFT:
+                return hashJoin(left, leftColumn, right, rightColumn, true);
+            default:
+                return hashJoin(left, leftColumn, right, rightColumn, false);
+        }
+    }
+
+    /**
+     * 按估计的代价选算法：哈希连接在哪边建表，或者（两边都有有序索引时）合并连接
+     * 建在左表时结果要重新排序；合并连接要走完两棵索引树，结果也要排序
+     */
+    public static Strategy strategy(Table left, int leftColumn, Table right, int rightColumn) {
+        double leftRows = left.getRowCount();
+        double rightRows = right.getRowCount();
+        double pairs = estimatePairs(left, leftColumn, right, rightColumn);
+        double sort = SORT_COST * pairs * Math.log(Math.max(2, pairs)) / Math.log(2);
+        double buildLeft = HASH_BUILD_COST * leftRows + HASH_PROBE_COST * rightRows + pairs + sort;
+        double buildRight = HASH_BUILD_COST * rightRows + HASH_PROBE_COST * leftRows + pairs;
+        Strategy best = buildLeft < buildRight ? Strategy.HASH_BUILD_LEFT : Strategy.HASH_BUILD_RIGHT;
+        if (orderedIndex(left, leftColumn) != null && orderedIndex(right, rightColumn) != null) {
+            double merge = left.getStats().distinct(left, leftColumn) + right.getStats().distinct(right, rightColumn)
+                    + MERGE_PAIR_COST * pairs + sort;
+            if (merge <= Math.min(buildLeft, buildRight)) {
+                best = Strategy.MERGE;
+            }
+        }
+        return best;
+    }
+
+    // 匹配的对数：假设不同值少的一边的每个值都在另一边出现
+    public static long estimatePairs(Table left, int leftColumn, Table right, int rightColumn) {
+        if (left.getRowCount() == 0 || right.getRowCount() == 0) {
+            return 0;
+        }
+        long distinct = Math.max(left.getStats().distinct(left, leftColumn), right.getStats().distinct(right, rightColumn));
+        return Math.round((double) left.getRowCount() * right.getRowCount() / distinct);
+    }
+
+    public static int leftPosition(long pair) {
+        return (int) (pair >>> 32);
+    }
+
+    public static int rightPosition(long pair) {
+        return (int) pair;
+    }
+
+    private static long pair(int leftPosition, int rightPosition) {
+        return ((long) leftPosition << 32) | rightPosition;
+    }
+
+    private static OrderedIndex orderedIndex(Table table, int column) {
+        if (column == 0) {
+            return null;
+        }
+        return (OrderedIndex) table.getIndex(table.getColumns().get(column), "ORDERED");
+    }
+
+    private static long[] hashJoin(Table left, int leftColumn, Table right, int rightColumn, boolean buildLeft) {
+        Table build = buildLeft ? left : right;
+        Table probe = buildLeft ? right : left;
+        int buildColumn = buildLeft ? leftColumn : rightColumn;
+        int probeColumn = buildLeft ? rightColumn : leftColumn;
+
+        // 值 -> 第一个位置，next[位置] 串起同一个值的其他位置（升序）
+        int buildRows = build.getRowCount();
+        Map<String, Integer> heads = new HashMap<>(Math.max(16, buildRows * 4 / 3 + 1));
+        int[] next = new int[buildRows];
+        for (int position = buildRows - 1; position >= 0; --position) {
+            Integer head = heads.put(build.getValue(position, buildColumn), position);
+            next[position] = head == null ? -1 : head;
+        }
+
+        // 建好之后 heads 和 next 只会被读，几个线程可以同时探测
+        long[] result;
+        if (ParallelScan.isWorthIt(probe.getRowCount())) {
+            result = ParallelScan.concatPairs(ParallelScan.mapChunks(probe.getRowCount(),
+                    (from, to) -> probe(probe, probeColumn, from, to, heads, next, buildLeft)));
+        } else {
+            result = probe(probe, probeColumn, 0, probe.getRowCount(), heads, next, buildLeft);
+        }
+        if (buildLeft) {
+            // 按右表的顺序探测出来的，要排回左表的顺序
+            Arrays.sort(result);
+        }
+        return result;
+    }
+
+    // 用 probe 表第 from 到 to 行去查哈希表
+    private static long[] probe(Table probe, int probeColumn, int from, int to,
+                                Map<String, Integer> heads, int[] next, boolean buildLeft) {
+        PairBuffer pairs = new PairBuffer();
+        for (int position = from; position < to; ++position) {
+            Integer head = heads.get(probe.getValue(position, probeColumn));
+            for (int match = head == null ? -1 : head; match >= 0; match = next[match]) {
+                pairs.add(buildLeft ? pair(match, position) : pair(position, match));
+            }
+        }
+        return pairs.toArray();
+    }
+
+    private static long[] mergeJoin(Table left, int leftColumn, OrderedIndex leftIndex,
+                                    Table right, int rightColumn, OrderedIndex rightIndex) {
+        PairBuffer pairs = new PairBuffer();
+        merge(leftIndex.getNumericValues(), rightIndex.getNumericValues(), left, leftColumn, right, rightColumn, pairs);
+        merge(leftIndex.getTextValues(), rightIndex.getTextValues(), left, leftColumn, right, rightColumn, pairs);
+        long[] result = pairs.toArray();
+        Arrays.sort(result);
+        return result;
+    }
+
+    // 两棵树按键的顺序一起往前走，键相同时再逐对比较原文（比如 65 和 65.0 键相同但文本不同）
+    private static <K extends Comparable<K>> void merge(NavigableMap<K, Set<Integer>> leftTree,
+                                                        NavigableMap<K, Set<Integer>> rightTree,
+                                                        Table left, int leftColumn, Table right, int rightColumn,
+                                                        PairBuffer pairs) {
+        Iterator<Map.Entry<K, Set<Integer>>> leftEntries = leftTree.entrySet().iterator();
+        Iterator<Map.Entry<K, Set<Integer>>> rightEntries = rightTree.entrySet().iterator();
+        if (!leftEntries.hasNext() || !rightEntries.hasNext()) {
+            return;
+        }
+        Map.Entry<K, Set<Integer>> leftEntry = leftEntries.next();
+        Map.Entry<K, Set<Integer>> rightEntry = rightEntries.next();
+        while (true) {
+            int comparison = leftEntry.getKey().compareTo(rightEntry.getKey());
+            if (comparison == 0) {
+                for (int leftId : leftEntry.getValue()) {
+                    int leftPosition = left.positionOfId(leftId);
+                    String value = left.getValue(leftPosition, leftColumn);
+                    for (int rightId : rightEntry.getValue()) {
+                        int rightPosition = right.positionOfId(rightId);
+                        if (value.equals(right.getValue(rightPosition, rightColumn))) {
+                            pairs.add(pair(leftPosition, rightPosition));
+                        }
+                    }
+                }
+            }
+            if (comparison <= 0) {
+                if (!leftEntries.hasNext()) {
+                    return;
+                }
+                leftEntry = leftEntries.next();
+            }
+            if (comparison >= 0) {
+                if (!rightEntries.hasNext()) {
+                    return;
+                }
+                rightEntry = rightEntries.next();
+            }
+        }
+    }
+
+    // 可以增长的 long 数组
+    private static class PairBuffer {
+        private long[] pairs = new long[16];
+        private int size;
+
+        void add(long pair) {
+            if (size == pairs.length) {
+                pairs = Arrays.copyOf(pairs, size * 2);
+            }
+            pairs[size++] = pair;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(pairs, size);
+        }
+    }
+}
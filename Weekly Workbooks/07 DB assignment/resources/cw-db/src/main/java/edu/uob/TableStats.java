@@ -0,0 +1,262 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Statistics the planner estimates row counts from. For every column: the
+ * number of distinct values (HyperLogLog), how many cells are numbers and
+ * how many are empty, the smallest and largest number, and an equi-depth
+ * histogram of the numbers. Table keeps the counts, the distinct values and
+ * the range up to date as rows are inserted, updated and deleted; ANALYZE
+ * rebuilds everything from the rows, including the histogram. Without a
+ * histogram, numbers are taken to be spread evenly between min and max.
+ */
+public class TableStats {
+
+    // 等深直方图的桶数
+    static final int BUCKETS = 32;
+
+    // 没有办法估计时（比如比较文本的大小）用的选择率
+    private static final double UNKNOWN_RANGE = 1.0 / 3;
+    private static final double UNKNOWN_LIKE = 0.25;
+    private static final double UNKNOWN_EQUAL = 0.1;
+
+    static class ColumnStats {
+        final HyperLogLog distinct = new HyperLogLog();
+        long numbers;
+        long empties;
+        // NaN 和任何数比较都是 false，不算进范围和直方图
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        // ANALYZE 时数字的分位点：bounds[0] 是最小值，bounds[BUCKETS] 是最大值；没有数字或者还没 ANALYZE 时为 null
+        double[] bounds;
+
+        void add(String text, Column column, int position) {
+            distinct.add(text);
+            if (column.isNumber(position)) {
+                ++numbers;
+                double number = column.getNumber(position);
+                if (!Double.isNaN(number)) {
+                    min = Math.min(min, number);
+                    max = Math.max(max, number);
+                }
+            } else if (text.isEmpty()) {
+                ++empties;
+            }
+        }
+
+        // 不同值的个数和范围只会变大，要等下一次 ANALYZE 才会缩小
+        void remove(Column column, int position) {
+            if (column.isNumber(position)) {
+                --numbers;
+            } else if (column.isEmpty(position)) {
+                --empties;
+            }
+        }
+
+        // 数字里小于 x（inclusive 时是小于等于 x）的大约占多少
+        double fractionBelow(double x, boolean inclusive) {
+            if (numbers <= 0 || min > max || x < min || (x == min && !inclusive)) {
+                return 0;
+            }
+            if (x > max || (x == max && inclusive)) {
+                return 1;
+            }
+            if (bounds == null) {
+                return max == min ? 0.5 : (x - min) / (max - min);
+            }
+            // 有几个分位点在 x 之下，x 在最后一个和下一个分位点之间按均匀分布插值
+            int below = 0;
+            while (below < bounds.length && (bounds[below] < x || (inclusive && bounds[below] == x))) {
+                ++below;
+            }
+            if (below == 0) {
+                return 0;
+            }
+            if (below == bounds.length) {
+                return 1;
+            }
+            double low = bounds[below - 1];
+            double high = bounds[below];
+            double within = high > low ? (x - low) / (high - low) : 0;
+            return (below - 1 + within) / BUCKETS;
+        }
+    }
+
+    // 第 i 个是表的第 i 列；id 列（第 0 个）不统计，是 null
+    private final List<ColumnStats> columns = new ArrayList<>();
+
+    // 新建的空表：之后加进来的每一行都会被统计
+    static TableStats empty(int columnCount) {
+        TableStats stats = new TableStats();
+        stats.columns.add(null);
+        for (int i = 1; i < columnCount; i++) {
+            stats.columns.add(new ColumnStats());
+        }
+        return stats;
+    }
+
+    // 从所有的行统计一遍（调用方拿着表锁）
+    static TableStats analyze(Table table) {
+        int columnCount = table.getColumns().size();
+        int rows = table.getRowCount();
+        TableStats stats = empty(columnCount);
+        for (int i = 1; i < columnCount; i++) {
+            Column column = table.getColumn(i);
+            ColumnStats columnStats = stats.columns.get(i);
+            for (int position = 0; position < rows; position++) {
+                columnStats.add(column.get(position), column, position);
+            }
+            if (columnStats.min <= columnStats.max) {
+                double[] numbers = new double[(int) columnStats.numbers];
+                int count = 0;
+                for (int position = 0; position < rows; position++) {
+                    if (column.isNumber(position) && !Double.isNaN(column.getNumber(position))) {
+                        numbers[count++] = column.getNumber(position);
+                    }
+                }
+                Arrays.sort(numbers, 0, count);
+                columnStats.bounds = new double[BUCKETS + 1];
+                for (int bucket = 0; bucket <= BUCKETS; bucket++) {
+                    columnStats.bounds[bucket] = numbers[(int) ((long) bucket * (count - 1) / BUCKETS)];
+                }
+            }
+        }
+        return stats;
+    }
+
+    void add(int columnIndex, String text, Column column, int position) {
+        columns.get(columnIndex).add(text, column, position);
+    }
+
+    void remove(int columnIndex, Column column, int position) {
+        columns.get(columnIndex).remove(column, position);
+    }
+
+    // 新加的列全是空的
+    void addColumn(int rows) {
+        ColumnStats columnStats = new ColumnStats();
+        if (rows > 0) {
+            columnStats.distinct.add("");
+            columnStats.empties = rows;
+        }
+        columns.add(columnStats);
+    }
+
+    void dropColumn(int columnIndex) {
+        columns.remove(columnIndex);
+    }
+
+    // 一列不同值的个数（id 列每行都不同），至少是 1，最多是行数
+    long distinct(Table table, int columnIndex) {
+        long rows = Math.max(1, table.getRowCount());
+        return columnIndex == 0 ? rows : Math.max(1, Math.min(rows, columns.get(columnIndex).distinct.estimate()));
+    }
+
+    // 满足条件的行大约占多少
+    double selectivity(Table table, int columnIndex, Condition condition) {
+        int rows = table.getRowCount();
+        if (rows == 0) {
+            return guess(condition);
+        }
+        if (condition.usesNumbers() && Double.isNaN(condition.number)) {
+            // 只有 != 对 NaN 成立
+            return condition.comparator.equals("!=") ? 1 : 0;
+        }
+        if (columnIndex == 0) {
+            return idSelectivity(table, condition);
+        }
+        ColumnStats columnStats = columns.get(columnIndex);
+        double numbers = Math.min(1, Math.max(0, (double) columnStats.numbers / rows));
+        double perValue = 1.0 / distinct(table, columnIndex);
+        double x = condition.number;
+        switch (condition.comparator) {
+            case "==":
+                return equal(columnStats, condition, numbers, perValue);
+            case "!=":
+                return 1 - equal(columnStats, condition, numbers, perValue);
+            case "<":
+                return range(columnStats.fractionBelow(x, false), condition, numbers);
+            case "<=":
+                return range(columnStats.fractionBelow(x, true), condition, numbers);
+            case ">":
+                return range(1 - columnStats.fractionBelow(x, true), condition, numbers);
+            case ">=":
+                return range(1 - columnStats.fractionBelow(x, false), condition, numbers);
+            default:
+                return UNKNOWN_LIKE;
+        }
+    }
+
+    // 数字字面量只可能等于数字格（直方图里重复的分位点说明这个值很多），文本字面量只可能等于文本格
+    private static double equal(ColumnStats columnStats, Condition condition, double numbers, double perValue) {
+        if (!condition.usesNumbers()) {
+            return Math.min(perValue, 1 - numbers);
+        }
+        double x = condition.number;
+        if (columnStats.numbers <= 0 || !(x >= columnStats.min && x <= columnStats.max)) {
+            return 0;
+        }
+        double spike = columnStats.fractionBelow(x, true) - columnStats.fractionBelow(x, false);
+        return Math.min(numbers, Math.max(perValue, numbers * spike));
+    }
+
+    // 数字格按直方图估计；文本格（或者字面量不是数字时所有的格）按字符串比较，没有办法估计
+    private static double range(double fraction, Condition condition, double numbers) {
+        if (!condition.usesNumbers()) {
+            return UNKNOWN_RANGE;
+        }
+        return numbers * fraction + (1 - numbers) * UNKNOWN_RANGE;
+    }
+
+    // id 是唯一的升序整数
+    private static double idSelectivity(Table table, Condition condition) {
+        int rows = table.getRowCount();
+        if (condition.comparator.equals("==")) {
+            return 1.0 / rows;
+        }
+        if (condition.comparator.equals("!=")) {
+            return 1 - 1.0 / rows;
+        }
+        if (!condition.usesNumbers()) {
+            return guess(condition);
+        }
+        double first = table.getId(0);
+        double last = table.getId(rows - 1);
+        double below = last == first ? 0.5 : Math.min(1, Math.max(0, (condition.number - first) / (last - first)));
+        return condition.comparator.startsWith("<") ? below : 1 - below;
+    }
+
+    // 没有统计信息时的固定估计
+    static double guess(Condition condition) {
+        switch (condition.comparator) {
+            case "==": return UNKNOWN_EQUAL;
+            case "!=": return 1 - UNKNOWN_EQUAL;
+            case "LIKE": return UNKNOWN_LIKE;
+            default: return UNKNOWN_RANGE;
+        }
+    }
+
+    // ANALYZE 的结果：表头一行，每一列一行（直方图是用空格分开的分位点）
+    String toTable(Table table) {
+        StringBuilder out = new StringBuilder("column\tdistinct\tnumbers\tempty\tmin\tmax\thistogram\n");
+        for (int i = 1; i < columns.size(); i++) {
+            ColumnStats columnStats = columns.get(i);
+            boolean anyNumbers = columnStats.min <= columnStats.max;
+            out.append(table.getColumns().get(i)).append('\t').append(distinct(table, i)).append('\t')
+                    .append(columnStats.numbers).append('\t').append(columnStats.empties).append('\t')
+                    .append(anyNumbers ? Aggregation.format(columnStats.min) : "").append('\t')
+                    .append(anyNumbers ? Aggregation.format(columnStats.max) : "").append('\t');
+            if (columnStats.bounds != null) {
+                for (int bucket = 0; bucket < columnStats.bounds.length; bucket++) {
+                    if (bucket > 0) out.append(' ');
+                    out.append(Aggregation.format(columnStats.bounds[bucket]));
+                }
+            }
+            out.append('\n');
+        }
+        return out.toString();
+    }
+}
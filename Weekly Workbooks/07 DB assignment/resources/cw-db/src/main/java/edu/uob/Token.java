@@ -0,0 +1,47 @@
+package edu.uob;
+
+/** One lexical token of a command, produced by the Tokenizer. */
+public class Token {
+
+    public enum Type { WORD, STRING, NUMBER, SYMBOL }
+
+    final Type type;
+
+    // 字符串字面量不带引号
+    final String text;
+
+    public Token(Type type, String text) {
+        this.type = type;
+        this.text = text;
+    }
+
+    // 字面量在计划缓存的键里会被替换成参数
+    public boolean isLiteral() {
+        if (type == Type.STRING || type == Type.NUMBER) {
+            return true;
+        }
+        return type == Type.WORD && (text.equalsIgnoreCase("TRUE")
+                || text.equalsIgnoreCase("FALSE") || text.equalsIgnoreCase("NULL"));
+    }
+
+    public boolean isWord(String keyword) {
+        return type == Type.WORD && text.equalsIgnoreCase(keyword);
+    }
+
+    public boolean isSymbol(String symbol) {
+        return type == Type.SYMBOL && text.equals(symbol);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    @Override
+    public String toString() {
+        return type == Type.STRING ? "'" + text + "'" : text;
+    }
+}
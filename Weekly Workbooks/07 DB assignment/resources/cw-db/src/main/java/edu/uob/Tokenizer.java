@@ -0,0 +1,90 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Splits a command (without its trailing semicolon) into tokens in a single
+ * pass. Quoted strings may contain spaces, commas and keywords.
+ */
+public class Tokenizer {
+
+    private static final String SYMBOLS = "(),;*=<>!";
+
+    private static final Pattern NUMBER = Pattern.compile("[+-]?(\\d+(\\.\\d*)?|\\.\\d+)([eE][+-]?\\d+)?");
+
+    // 键里统一成大写的关键字
+    static final Set<String> KEYWORDS = Set.of("SELECT", "INSERT", "INTO", "VALUES", "UPDATE", "SET",
+            "DELETE", "FROM", "WHERE", "JOIN", "ON", "CREATE", "DATABASE", "TABLE", "INDEX", "USING",
+            "DROP", "ALTER", "ADD", "USE", "AND", "OR", "NOT", "LIKE", "TRUE", "FALSE", "NULL",
+            "IMPORT", "EXPORT", "TO", "SHOW", "DURABILITY", "STATS", "BEGIN", "TRANSACTION", "COMMIT", "ROLLBACK", "COPY",
+            "GROUP", "BY", "COUNT", "SUM", "AVG", "MIN", "MAX", "ORDER", "ASC", "DESC", "LIMIT", "OFFSET",
+            "EXPLAIN", "ANALYZE");
+
+    public static List<Token> tokenize(String command) {
+        List<Token> tokens = new ArrayList<>();
+        int length = command.length();
+        int i = 0;
+        while (i < length) {
+            char c = command.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'' || c == '"') {
+                int end = command.indexOf(c, i + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unterminated string literal");
+                }
+                tokens.add(new Token(Token.Type.STRING, command.substring(i + 1, end)));
+                i = end + 1;
+            } else if (SYMBOLS.indexOf(c) >= 0) {
+                // ==, !=, >=, <= 是两个字符的比较符
+                if ("=!<>".indexOf(c) >= 0 && i + 1 < length && command.charAt(i + 1) == '=') {
+                    tokens.add(new Token(Token.Type.SYMBOL, command.substring(i, i + 2)));
+                    i += 2;
+                } else {
+                    tokens.add(new Token(Token.Type.SYMBOL, String.valueOf(c)));
+                    i++;
+                }
+            } else {
+                int start = i;
+                while (i < length && !isDelimiter(command.charAt(i))) {
+                    i++;
+                }
+                String word = command.substring(start, i);
+                Token.Type type = NUMBER.matcher(word).matches() ? Token.Type.NUMBER : Token.Type.WORD;
+                tokens.add(new Token(type, word));
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isDelimiter(char c) {
+        return Character.isWhitespace(c) || SYMBOLS.indexOf(c) >= 0 || c == '\'' || c == '"';
+    }
+
+    /**
+     * Builds the plan cache key: keywords in upper case, single spaces, and
+     * every literal replaced by a placeholder. The literals are appended to
+     * parameters in the order they appear.
+     */
+    public static String normalise(List<Token> tokens, List<String> parameters) {
+        StringBuilder key = new StringBuilder();
+        for (Token token : tokens) {
+            if (key.length() > 0) {
+                key.append(' ');
+            }
+            if (token.isLiteral()) {
+                // 引号不会出现在单词里，所以 '?' 不会和标识符冲突
+                key.append("'?'");
+                parameters.add(token.text);
+            } else if (token.type == Token.Type.WORD && KEYWORDS.contains(token.text.toUpperCase())) {
+                key.append(token.text.toUpperCase());
+            } else {
+                key.append(token.text);
+            }
+        }
+        return key.toString();
+    }
+}
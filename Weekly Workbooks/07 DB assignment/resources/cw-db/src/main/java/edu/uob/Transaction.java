@@ -0,0 +1,138 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A transaction of one session, from BEGIN to COMMIT or ROLLBACK.
+ * Its changes are applied to the tables straight away, so the session reads
+ * its own writes, but nothing is logged yet: the redo buffer keeps the log
+ * records until COMMIT hands them to the DatabaseManager in one write, and
+ * the undo buffer keeps the old rows so ROLLBACK can put the tables back.
+ * Until it ends, the transaction owns the tables it changed (Table.getOwner),
+ * and other sessions, checkpoints and the buffer pool leave them alone, so
+ * uncommitted data is never seen or written to a snapshot.
+ */
+public class Transaction implements ChangeLog {
+
+    // 等别的事务放开一个表最多等这么久，超时一般是两个事务在互相等
+    static final long LOCK_WAIT_MS = 2000;
+
+    // 回滚用的一行：被插入的行 row 为 null，否则是第一次修改之前的整行
+    private static class Undo {
+        final Table table;
+        final int id;
+        final List<String> row;
+
+        Undo(Table table, int id, List<String> row) {
+            this.table = table;
+            this.id = id;
+            this.row = row;
+        }
+    }
+
+    // 按顺序记下的日志记录，COMMIT 时一次写进日志
+    private final List<List<String>> redo = new ArrayList<>();
+
+    private final List<Undo> undo = new ArrayList<>();
+
+    // 每个表里已经记过旧值（或者是这个事务插入）的行
+    private final Map<Table, Set<Integer>> saved = new HashMap<>();
+
+    // 这个事务改过的表
+    private final Set<Table> tables = new LinkedHashSet<>();
+
+    // 调用方拿着表的写锁：从现在到事务结束，别的会话都要等
+    public void own(Table table) {
+        if (tables.add(table)) {
+            table.setOwner(this);
+        }
+    }
+
+    public Set<Table> getTables() {
+        return tables;
+    }
+
+    public List<List<String>> getRedo() {
+        return redo;
+    }
+
+    @Override
+    public void beforeChange(Table table, int position) {
+        int id = table.getId(position);
+        if (saved.computeIfAbsent(table, t -> new HashSet<>()).add(id)) {
+            undo.add(new Undo(table, id, table.getRow(position)));
+        }
+    }
+
+    @Override
+    public void logInsert(Table table, List<String> row) {
+        int id = Integer.parseInt(row.get(0));
+        saved.computeIfAbsent(table, t -> new HashSet<>()).add(id);
+        undo.add(new Undo(table, id, null));
+        redo.add(DatabaseManager.insertRecord(table, row));
+    }
+
+    @Override
+    public void logUpdate(Table table, String id, String column, String value) {
+        redo.add(DatabaseManager.updateRecord(table, id, column, value));
+    }
+
+    @Override
+    public void logDelete(Table table, String id) {
+        redo.add(DatabaseManager.deleteRecord(table, id));
+    }
+
+    // 语句结束时什么都不做，COMMIT 时才写日志
+    @Override
+    public void commit() {
+    }
+
+    /**
+     * 撤销所有修改；调用方拿着 getTables() 里所有表的写锁
+     * 每一行最多有一条 Undo，所以顺序无所谓：先改回被修改的行，再一次删掉插入的行，
+     * 最后把被删掉的行一次合并回去（逐行插回中间要每次重建整个表）
+     */
+    public void rollback() {
+        Map<Table, List<Integer>> inserted = new LinkedHashMap<>();
+        Map<Table, List<List<String>>> deleted = new LinkedHashMap<>();
+        for (Undo change : undo) {
+            Table table = change.table;
+            int position = table.positionOfId(change.id);
+            if (change.row == null) {
+                if (position >= 0) {
+                    inserted.computeIfAbsent(table, t -> new ArrayList<>()).add(position);
+                }
+            } else if (position < 0) {
+                deleted.computeIfAbsent(table, t -> new ArrayList<>()).add(change.row);
+            } else {
+                for (int c = 1; c < change.row.size(); ++c) {
+                    table.setValue(position, c, change.row.get(c));
+                }
+            }
+        }
+        for (Map.Entry<Table, List<Integer>> entry : inserted.entrySet()) {
+            entry.getKey().deleteRows(entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        for (Map.Entry<Table, List<List<String>>> entry : deleted.entrySet()) {
+            entry.getKey().restoreRows(entry.getValue());
+        }
+        undo.clear();
+        redo.clear();
+        saved.clear();
+    }
+
+    // 事务结束（提交或回滚之后），等着这些表的会话可以继续了
+    public void release() {
+        for (Table table : tables) {
+            table.setOwner(null);
+        }
+        tables.clear();
+    }
+}
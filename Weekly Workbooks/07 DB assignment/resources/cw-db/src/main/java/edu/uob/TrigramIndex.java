@@ -0,0 +1,111 @@
+package edu.uob;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trigram index for LIKE, which matches cells containing the literal as a
+ * substring. Every run of three characters in a cell maps to the ids of the
+ * rows containing it, kept as a compact bitmap. A cell can only contain the
+ * literal if it contains every trigram of the literal, so intersecting
+ * their bitmaps gives the candidate rows, which the caller still checks.
+ * Literals shorter than three characters cannot be answered.
+ */
+public class TrigramIndex implements ColumnIndex {
+
+    private final String column;
+
+    // 三个字符（每个 16 位）拼成一个 long 作为键
+    private final Map<Long, RoaringBitmap> idsByTrigram = new HashMap<>();
+
+    public TrigramIndex(String column) {
+        this.column = column;
+    }
+
+    @Override
+    public String getColumn() {
+        return column;
+    }
+
+    @Override
+    public String getType() {
+        return "TRIGRAM";
+    }
+
+    // 同一个值里重复的 trigram 加几次都一样
+    @Override
+    public void add(String value, int id) {
+        for (int i = 0; i + 3 <= value.length(); i++) {
+            idsByTrigram.computeIfAbsent(trigram(value, i), k -> new RoaringBitmap()).add(id);
+        }
+    }
+
+    @Override
+    public void remove(String value, int id) {
+        for (int i = 0; i + 3 <= value.length(); i++) {
+            Long key = trigram(value, i);
+            RoaringBitmap ids = idsByTrigram.get(key);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    idsByTrigram.remove(key);
+                }
+            }
+        }
+    }
+
+    // 只能回答 LIKE，而且字面量至少要有三个字符
+    @Override
+    public Collection<Integer> find(String comparator, String value) {
+        if (!comparator.equals("LIKE") || value.length() < 3) {
+            return null;
+        }
+        List<RoaringBitmap> postings = new ArrayList<>();
+        for (int i = 0; i + 3 <= value.length(); i++) {
+            RoaringBitmap ids = idsByTrigram.get(trigram(value, i));
+            if (ids == null) {
+                return Collections.emptyList();
+            }
+            postings.add(ids);
+        }
+        // 从最短的开始求交集，结果越来越小，空了就停
+        postings.sort(Comparator.comparingInt(RoaringBitmap::getCardinality));
+        RoaringBitmap result = postings.get(0);
+        for (int i = 1; i < postings.size() && !result.isEmpty(); i++) {
+            if (postings.get(i) != result) {
+                result = RoaringBitmap.and(result, postings.get(i));
+            }
+        }
+        int[] ids = result.toArray();
+        return new AbstractList<Integer>() {
+            @Override
+            public Integer get(int index) {
+                return ids[index];
+            }
+
+            @Override
+            public int size() {
+                return ids.length;
+            }
+        };
+    }
+
+    // 大概占用的堆内存（字节）：每个 trigram 的键和哈希表的节点，加上它的位图
+    public long estimateBytes() {
+        long bytes = 64;
+        for (RoaringBitmap ids : idsByTrigram.values()) {
+            bytes += 64 + ids.estimateBytes();
+        }
+        return bytes;
+    }
+
+    private static long trigram(String value, int start) {
+        return ((long) value.charAt(start) << 32) | ((long) value.charAt(start + 1) << 16) | value.charAt(start + 2);
+    }
+}
@@ -0,0 +1,185 @@
+package edu.uob;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only redo log for one database folder.
+ * 每条记录一行: crc \t op \t table \t fields...，字段里的 tab/换行会被转义
+ */
+public class WriteAheadLog {
+
+    public static final String LOG_FILE_NAME = "wal.log";
+    // 正在做 checkpoint 的旧日志段
+    public static final String ROTATED_FILE_NAME = "wal.log.old";
+
+    private final File logFile;
+    private final File rotatedFile;
+    private FileOutputStream outputStream;
+    private BufferedWriter writer;
+    private long size;
+    private int unsyncedRecords;
+
+    public WriteAheadLog(File folder) {
+        this.logFile = new File(folder, LOG_FILE_NAME);
+        this.rotatedFile = new File(folder, ROTATED_FILE_NAME);
+        this.size = logFile.length();
+    }
+
+    // Records are buffered here and only reach the disk on sync()
+    public void append(List<String> fields) throws IOException {
+        if (writer == null) {
+            outputStream = new FileOutputStream(logFile, true);
+            writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        }
+        List<String> escaped = new ArrayList<>();
+        for (String field : fields) {
+            escaped.add(escape(field));
+        }
+        String payload = String.join("\t", escaped);
+        String line = checksum(payload) + "\t" + payload + "\n";
+        writer.write(line);
+        size += line.getBytes(StandardCharsets.UTF_8).length;
+        ++unsyncedRecords;
+    }
+
+    // Flush and fsync everything appended since the last sync, as one group; returns false if there was nothing to sync
+    public boolean sync() throws IOException {
+        if (writer == null || unsyncedRecords == 0) {
+            return false;
+        }
+        writer.flush();
+        outputStream.getChannel().force(false);
+        unsyncedRecords = 0;
+        return true;
+    }
+
+    /**
+     * Hands the buffered records to the OS without waiting for the disk, and returns the
+     * channel to force() (outside the caller's lock), or null if nothing was written yet.
+     * The records still count as unsynced, so rotate() and close() fsync them again.
+     */
+    public FileChannel flush() throws IOException {
+        if (writer == null) {
+            return null;
+        }
+        writer.flush();
+        return outputStream.getChannel();
+    }
+
+    /**
+     * Moves the current log aside so a checkpoint can snapshot the tables while new
+     * records keep going to a fresh file. Returns false if an older rotated segment is
+     * still waiting for its checkpoint to finish.
+     */
+    public boolean rotate() throws IOException {
+        if (rotatedFile.exists()) {
+            return false;
+        }
+        sync();
+        closeWriter();
+        if (logFile.exists()) {
+            Files.move(logFile.toPath(), rotatedFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        size = 0;
+        return true;
+    }
+
+    public void deleteRotated() throws IOException {
+        Files.deleteIfExists(rotatedFile.toPath());
+    }
+
+    public boolean hasRotated() {
+        return rotatedFile.exists();
+    }
+
+    // 旧的日志段在前，当前日志在后；遇到校验失败或不完整的尾部记录就停止
+    public List<List<String>> readAll() throws IOException {
+        List<List<String>> records = new ArrayList<>();
+        readFile(rotatedFile, records);
+        readFile(logFile, records);
+        return records;
+    }
+
+    private void readFile(File file, List<List<String>> records) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab == -1) {
+                    return;
+                }
+                String payload = line.substring(tab + 1);
+                if (!line.substring(0, tab).equals(checksum(payload))) {
+                    return;
+                }
+                List<String> fields = new ArrayList<>();
+                for (String field : payload.split("\t", -1)) {
+                    fields.add(unescape(field));
+                }
+                records.add(fields);
+            }
+        }
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void close() throws IOException {
+        sync();
+        closeWriter();
+    }
+
+    private void closeWriter() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            outputStream = null;
+        }
+    }
+
+    private static String checksum(String payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') == -1) {
+            return value;
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                if (next == 't') result.append('\t');
+                else if (next == 'n') result.append('\n');
+                else if (next == 'r') result.append('\r');
+                else result.append(next);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
@@ -6,7 +6,18 @@ import static org.junit.jupiter.api.Assertions.fail;
 import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class ExampleDBTests {
 
@@ -88,6 +99,31 @@ public class ExampleDBTests {
         assertTrue(response.contains("Simon"), "Simon was added to a table and the server restarted - but Simon was not returned by SELECT *");
     }
 
+    // Updates and deletes are only written to the log - make sure they are replayed (with the original ids) after a restart
+    @Test
+    public void testLoggedChangesReplayedAfterRestart() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark, pass);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65, TRUE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Sion', 55, TRUE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Rob', 35, FALSE);");
+        sendCommandToServer("DELETE FROM marks WHERE name == 'Simon';");
+        sendCommandToServer("UPDATE marks SET mark = 40 WHERE name == 'Rob';");
+        sendCommandToServer("ALTER TABLE marks ADD age;");
+        server = new DBServer();
+        sendCommandToServer("USE " + randomName + ";");
+        String response = sendCommandToServer("SELECT * FROM marks;");
+        assertFalse(response.contains("Simon"), "Simon was deleted before the restart but was returned by SELECT *");
+        assertTrue(response.contains("age"), "A column added before the restart was missing from the header: " + response);
+        response = sendCommandToServer("SELECT id, mark FROM marks WHERE name == 'Rob';");
+        assertTrue(response.contains("3\t40"), "Rob should keep id 3 and the updated mark after a restart: " + response);
+        sendCommandToServer("INSERT INTO marks VALUES ('Chris', 20, FALSE, 21);");
+        response = sendCommandToServer("SELECT id FROM marks WHERE name == 'Chris';");
+        assertTrue(response.contains("4"), "Ids should not be reused after a restart: " + response);
+    }
+
     // Test to make sure that the [ERROR] tag is returned in the case of an error (and NOT the [OK] tag)
     @Test
     public void testForErrorTag() {
@@ -173,6 +209,36 @@ public class ExampleDBTests {
                 "JOIN result should contain at least one record. Response: " + response);
     }
 
+    // Test CREATE INDEX: lookups through a hash index must see inserts, updates and deletes
+    @Test
+    public void testHashIndexLookups() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark, pass);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65, TRUE);");
+        String response = sendCommandToServer("CREATE INDEX ON marks (mark);");
+        assertTrue(response.contains("[OK]"), "Creating an index on an existing column should succeed. Response: " + response);
+        sendCommandToServer("INSERT INTO marks VALUES ('Sion', 55, TRUE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Rob', 35, FALSE);");
+        response = sendCommandToServer("SELECT name FROM marks WHERE mark == 55.0;");
+        assertTrue(response.contains("Sion"), "Indexed == should still compare numbers numerically. Response: " + response);
+        sendCommandToServer("UPDATE marks SET mark = 70 WHERE name == 'Rob';");
+        response = sendCommandToServer("SELECT name FROM marks WHERE mark == 35;");
+        assertFalse(response.contains("Rob"), "Rob's old mark is still in the index. Response: " + response);
+        response = sendCommandToServer("SELECT name FROM marks WHERE mark == 70;");
+        assertTrue(response.contains("Rob"), "Rob's new mark is missing from the index. Response: " + response);
+        sendCommandToServer("DELETE FROM marks WHERE mark == 65;");
+        response = sendCommandToServer("SELECT * FROM marks WHERE id == 1;");
+        assertFalse(response.contains("Simon"), "Simon was deleted but is still found by id. Response: " + response);
+        server = new DBServer();
+        sendCommandToServer("USE " + randomName + ";");
+        response = sendCommandToServer("CREATE INDEX ON marks (mark);");
+        assertTrue(response.contains("[ERROR]"), "The index should have been restored after a restart. Response: " + response);
+        response = sendCommandToServer("CREATE INDEX ON marks (age);");
+        assertTrue(response.contains("[ERROR]"), "Indexing a missing column should fail. Response: " + response);
+    }
+
     // Test DROP TABLE: drop an existing table and verify subsequent queries return error.
     @Test
     public void testDropTable() {
@@ -205,15 +271,901 @@ public class ExampleDBTests {
         assertTrue(response.contains("[ERROR]"), "Command missing semicolon should return error. Response: " + response);
     }
 
-    // Test unsupported comparator error in SELECT (e.g., using '>' which is not supported in our implementation)
+    // Test range comparators in SELECT ('>' compares numbers numerically, it is not an error)
     @Test
-    public void testUnsupportedComparator() {
+    public void testRangeComparator() {
         String randomName = generateRandomName();
         sendCommandToServer("CREATE DATABASE " + randomName + ";");
         sendCommandToServer("USE " + randomName + ";");
         sendCommandToServer("CREATE TABLE marks (name, mark, pass);");
         sendCommandToServer("INSERT INTO marks VALUES ('John', 70, TRUE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Jane', 9, FALSE);");
         String response = sendCommandToServer("SELECT * FROM marks WHERE mark > 60;");
-        assertTrue(response.contains("[ERROR]"), "Using unsupported comparator '>' should return an error. Response: " + response);
+        assertTrue(response.contains("[OK]"), "A '>' comparison is valid and should return [OK]. Response: " + response);
+        assertTrue(response.contains("John"), "John's mark of 70 is greater than 60. Response: " + response);
+        assertFalse(response.contains("Jane"), "9 is not greater than 60 (numbers must not be compared as strings). Response: " + response);
+    }
+
+    // Test ordered indexes: range queries through the index must match a full scan, for numeric and mixed columns
+    @Test
+    public void testOrderedIndexRangeQueries() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark, pass);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65, TRUE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Sion', 55, TRUE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Rob', 35, FALSE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Chris', 100, TRUE);");
+        String response = sendCommandToServer("CREATE INDEX ON marks (mark) USING ORDERED;");
+        assertTrue(response.contains("[OK]"), "Creating an ordered index should succeed. Response: " + response);
+        response = sendCommandToServer("SELECT name FROM marks WHERE mark >= 55 AND mark < 100;");
+        assertTrue(response.contains("Simon") && response.contains("Sion"), "Marks 55 and 65 are in range. Response: " + response);
+        assertFalse(response.contains("Rob") || response.contains("Chris"), "Marks 35 and 100 are out of range. Response: " + response);
+        assertTrue(response.indexOf("Simon") < response.indexOf("Sion"), "Rows should come back in table order. Response: " + response);
+        // A text value makes the column mixed: numbers still compare numerically with numeric literals
+        sendCommandToServer("INSERT INTO marks VALUES ('Dan', 'absent', FALSE);");
+        response = sendCommandToServer("SELECT name FROM marks WHERE mark > 60;");
+        assertTrue(response.contains("Simon") && response.contains("Chris"), "Marks 65 and 100 are greater than 60. Response: " + response);
+        assertTrue(response.contains("Dan"), "'absent' is greater than '60' as a string. Response: " + response);
+        assertFalse(response.contains("Sion"), "55 is not greater than 60. Response: " + response);
+        sendCommandToServer("UPDATE marks SET mark = 20 WHERE name == 'Simon';");
+        response = sendCommandToServer("SELECT name FROM marks WHERE mark <= 35;");
+        assertTrue(response.contains("Simon") && response.contains("Rob"), "Updated marks should be re-ordered in the index. Response: " + response);
+        response = sendCommandToServer("SELECT name FROM marks WHERE id > 3;");
+        assertTrue(response.contains("Chris") && response.contains("Dan") && !response.contains("Rob"), "Range on id. Response: " + response);
+    }
+
+    // Test that typed column storage gives back exactly the text that was inserted, including after a column changes type
+    @Test
+    public void testColumnValuesKeepTheirText() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE readings (label, amount, ok);");
+        sendCommandToServer("INSERT INTO readings VALUES ('a', 7, TRUE);");
+        sendCommandToServer("INSERT INTO readings VALUES ('b', 007, FALSE);");
+        sendCommandToServer("INSERT INTO readings VALUES ('c', 1.50, maybe);");
+        sendCommandToServer("INSERT INTO readings VALUES ('d', 1e3, TRUE);");
+        sendCommandToServer("INSERT INTO readings VALUES ('e', -0, TRUE);");
+        String response = sendCommandToServer("SELECT amount, ok FROM readings;");
+        assertTrue(response.contains("7\tTRUE"), "7 should come back unchanged. Response: " + response);
+        assertTrue(response.contains("007\tFALSE"), "Leading zeros must be kept. Response: " + response);
+        assertTrue(response.contains("1.50\tmaybe"), "Trailing zeros must be kept. Response: " + response);
+        assertTrue(response.contains("1e3"), "Exponent notation must be kept. Response: " + response);
+        assertTrue(response.contains("-0"), "Negative zero must be kept. Response: " + response);
+        response = sendCommandToServer("SELECT label FROM readings WHERE amount == 7;");
+        assertTrue(response.contains("a") && response.contains("b"), "7 and 007 are numerically equal. Response: " + response);
+        response = sendCommandToServer("SELECT label FROM readings WHERE amount > 100;");
+        assertTrue(response.contains("d") && !response.contains("c"), "1e3 is greater than 100. Response: " + response);
+        sendCommandToServer("DELETE FROM readings WHERE ok == FALSE;");
+        sendCommandToServer("UPDATE readings SET amount = 'none' WHERE label == 'a';");
+        // Restart the server and make sure the same text is read back
+        server = new DBServer();
+        sendCommandToServer("USE " + randomName + ";");
+        response = sendCommandToServer("SELECT * FROM readings;");
+        assertTrue(response.contains("1\ta\tnone\tTRUE"), "The updated value should survive a restart. Response: " + response);
+        assertFalse(response.contains("007"), "The deleted row should stay deleted. Response: " + response);
+        assertTrue(response.contains("3\tc\t1.50\tmaybe"), "Rows keep their ids and values. Response: " + response);
+    }
+
+    // Test that commands of the same shape reuse a parsed plan without mixing up their literals,
+    // and that quoted strings may contain commas, keywords and semicolons
+    @Test
+    public void testRepeatedQueryShapesAndQuotedLiterals() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE people (name, note);");
+        sendCommandToServer("INSERT INTO people VALUES ('Smith, John', 'likes SELECT * FROM; a lot');");
+        sendCommandToServer("insert into people values ('Jane', 'none');");
+        String response = sendCommandToServer("SELECT note FROM people WHERE name == 'Smith, John';");
+        assertTrue(response.contains("likes SELECT * FROM; a lot"), "Quoted text should be stored unchanged. Response: " + response);
+        response = sendCommandToServer("select note from people where name == 'Jane';");
+        assertTrue(response.contains("none") && !response.contains("likes"), "The second query must use its own literal. Response: " + response);
+        sendCommandToServer("UPDATE people SET note = 'updated', name = 'J' WHERE (name == 'Jane') AND id == 2;");
+        response = sendCommandToServer("SELECT * FROM people WHERE name == 'J';");
+        assertTrue(response.contains("2\tJ\tupdated"), "Both SET columns should be updated. Response: " + response);
+        response = sendCommandToServer("SELECT * FROM people WHERE name == 'unterminated;");
+        assertTrue(response.contains("[ERROR]"), "An unterminated string is a syntax error. Response: " + response);
+        response = sendCommandToServer("SELECT * FROM people WHERE name === 'J';");
+        assertTrue(response.contains("[ERROR]"), "An unknown comparator is a syntax error. Response: " + response);
+        response = sendCommandToServer("SELECT * FROM people WHERE age == 1;");
+        assertTrue(response.contains("[ERROR]"), "A missing attribute is still reported. Response: " + response);
+    }
+
+    // Test JOIN results and order with and without ordered indexes on both join attributes
+    @Test
+    public void testJoinWithAndWithoutOrderedIndexes() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE students (name, team);");
+        sendCommandToServer("CREATE TABLE teams (code, title);");
+        sendCommandToServer("INSERT INTO students VALUES ('Ann', 2);");
+        sendCommandToServer("INSERT INTO students VALUES ('Ben', 1);");
+        sendCommandToServer("INSERT INTO students VALUES ('Cat', 2.0);");
+        sendCommandToServer("INSERT INTO students VALUES ('Dan', 'red');");
+        sendCommandToServer("INSERT INTO teams VALUES (1, 'Blue');");
+        sendCommandToServer("INSERT INTO teams VALUES (2, 'Green');");
+        sendCommandToServer("INSERT INTO teams VALUES ('red', 'Red');");
+        sendCommandToServer("INSERT INTO teams VALUES (2, 'Lime');");
+        sendCommandToServer("INSERT INTO teams VALUES (9, 'Grey');");
+        String expected = "id\tstudents.name\tteams.title\n1\tAnn\tGreen\n2\tAnn\tLime\n3\tBen\tBlue\n4\tDan\tRed\n";
+        String response = sendCommandToServer("JOIN students AND teams ON team AND code;");
+        assertTrue(response.contains(expected), "Cells join on equal text, in left-then-right order. Response: " + response);
+        response = sendCommandToServer("JOIN teams AND students ON code AND team;");
+        assertTrue(response.contains("1\tBlue\tBen\n2\tGreen\tAnn\n3\tRed\tDan\n4\tLime\tAnn\n"), "Swapping the tables swaps the order. Response: " + response);
+        sendCommandToServer("CREATE INDEX ON students (team) USING ORDERED;");
+        sendCommandToServer("CREATE INDEX ON teams (code) USING ORDERED;");
+        response = sendCommandToServer("JOIN students AND teams ON team AND code;");
+        assertTrue(response.contains(expected), "A sort-merge join over ordered indexes must give the same result. Response: " + response);
+    }
+
+    // Read one response (up to the end-of-transmission line) from a socket client
+    private String readResponse(BufferedReader reader) throws Exception {
+        StringBuilder response = new StringBuilder();
+        String line = reader.readLine();
+        while (line != null && !line.contains("" + (char) 4)) {
+            response.append(line).append("\n");
+            line = reader.readLine();
+        }
+        return response.toString();
+    }
+
+    // Test that a second client is served while the first one is still connected, and that
+    // commands sent in one go by a client are answered in order
+    @Test
+    public void testConcurrentClients() {
+        assertTimeoutPreemptively(Duration.ofMillis(5000), () -> {
+            String randomName = generateRandomName();
+            NioServer nioServer = new NioServer(server, 0, 4, 16);
+            Thread serverThread = new Thread(() -> {
+                try {
+                    nioServer.run();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            serverThread.start();
+            try (Socket first = new Socket("localhost", nioServer.getPort());
+                 Socket second = new Socket("localhost", nioServer.getPort())) {
+                BufferedReader firstReader = new BufferedReader(new InputStreamReader(first.getInputStream()));
+                BufferedWriter firstWriter = new BufferedWriter(new OutputStreamWriter(first.getOutputStream()));
+                BufferedReader secondReader = new BufferedReader(new InputStreamReader(second.getInputStream()));
+                BufferedWriter secondWriter = new BufferedWriter(new OutputStreamWriter(second.getOutputStream()));
+                // The first client stays idle while the second one runs its commands
+                secondWriter.write("CREATE DATABASE " + randomName + ";\nUSE " + randomName + ";\n");
+                secondWriter.write("CREATE TABLE marks (name, mark);\nINSERT INTO marks VALUES ('Simon', 65);\n");
+                secondWriter.write("SELECT name FROM marks;\nSELECT * FROM missing;\n");
+                secondWriter.flush();
+                for (int i = 0; i < 4; i++) {
+                    assertTrue(readResponse(secondReader).contains("[OK]"), "Command " + i + " should succeed");
+                }
+                assertTrue(readResponse(secondReader).contains("Simon"), "The SELECT response should come fifth");
+                assertTrue(readResponse(secondReader).contains("[ERROR]"), "The failing SELECT response should come last");
+                firstWriter.write("SELECT mark FROM marks WHERE name == 'Simon';\n");
+                firstWriter.flush();
+                assertTrue(readResponse(firstReader).contains("65"), "The first client should be served too");
+            } finally {
+                nioServer.close();
+                serverThread.join();
+            }
+        });
+    }
+
+    // Test that commands from several threads on shared and separate tables neither fail nor lose rows
+    @Test
+    public void testConcurrentReadersAndWriters() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE shared (writer, n);");
+        sendCommandToServer("CREATE TABLE other (writer, n);");
+        assertTimeoutPreemptively(Duration.ofMillis(10000), () -> {
+            List<Thread> threads = new ArrayList<>();
+            List<String> failures = Collections.synchronizedList(new ArrayList<>());
+            for (int t = 0; t < 4; t++) {
+                String writer = "w" + t;
+                String table = t % 2 == 0 ? "shared" : "other";
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        String response = server.handleCommand("INSERT INTO " + table + " VALUES ('" + writer + "', " + i + ");");
+                        if (!response.startsWith("[OK]")) failures.add(response);
+                        response = server.handleCommand("UPDATE " + table + " SET n = " + (i + 1000) + " WHERE writer == '" + writer + "' AND n == " + i + ";");
+                        if (!response.startsWith("[OK]")) failures.add(response);
+                    }
+                }));
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        String response = server.handleCommand("SELECT * FROM " + table + " WHERE n < 1000;");
+                        // A reader sees either none or one not-yet-updated row per writer
+                        if (!response.startsWith("[OK]") || response.split("\n").length > 4) failures.add(response);
+                    }
+                }));
+            }
+            for (Thread thread : threads) thread.start();
+            for (Thread thread : threads) thread.join();
+            assertTrue(failures.isEmpty(), "Concurrent commands failed: " + failures);
+        });
+        String response = sendCommandToServer("SELECT id FROM shared WHERE n >= 1000;");
+        assertTrue(response.split("\n").length == 202, "Both writers' 200 rows should be in the shared table. Response: " + response);
+        server = new DBServer();
+        sendCommandToServer("USE " + randomName + ";");
+        response = sendCommandToServer("SELECT id FROM other WHERE n >= 1000;");
+        assertTrue(response.split("\n").length == 202, "All rows should be replayed after a restart. Response: " + response);
+    }
+
+    // A large SELECT is streamed in chunks, both to a sink and over a socket, with the same text as the plain response
+    @Test
+    public void testLargeResultsAreStreamed() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE big (name, mark);");
+        for (int i = 0; i < 1500; i++) {
+            sendCommandToServer("INSERT INTO big VALUES ('student" + i + "', " + (i % 100) + ");");
+        }
+        String expected = sendCommandToServer("SELECT * FROM big WHERE mark >= 10;");
+        assertTrue(expected.startsWith("[OK]") && expected.split("\n").length == 1352, "1350 rows should be selected. Response: " + expected);
+        List<String> chunks = new ArrayList<>();
+        server.handleCommand("SELECT * FROM big WHERE mark >= 10;", text -> chunks.add(text.toString()));
+        assertTrue(chunks.size() > 1, "The response should arrive in several chunks");
+        assertTrue(String.join("", chunks).equals(expected), "The streamed chunks should add up to the whole response");
+        assertTimeoutPreemptively(Duration.ofMillis(5000), () -> {
+            NioServer nioServer = new NioServer(server, 0, 2, 16);
+            Thread serverThread = new Thread(() -> {
+                try {
+                    nioServer.run();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            serverThread.start();
+            try (Socket client = new Socket("localhost", nioServer.getPort())) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream()));
+                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(client.getOutputStream()));
+                writer.write("SELECT * FROM big WHERE mark >= 10;\nSELECT name FROM big WHERE mark == 99;\n");
+                writer.flush();
+                assertTrue(readResponse(reader).equals(expected + "\n"), "The whole SELECT should be sent over the socket");
+                assertTrue(readResponse(reader).split("\n").length == 17, "The next command should be answered after it");
+            } finally {
+                nioServer.close();
+                serverThread.join();
+            }
+        });
+    }
+
+    // Tables are opened on first use after USE, from the snapshot files and from the log
+    @Test
+    public void testTablesOpenedOnFirstUse() {
+        String randomName = generateRandomName();
+        String otherName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("CREATE DATABASE " + otherName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark);");
+        sendCommandToServer("CREATE TABLE coursework (task, submission);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Sion', 55);");
+        sendCommandToServer("INSERT INTO coursework VALUES ('OXO', 1);");
+        // Switching database writes the snapshots; the next change only goes to the log
+        sendCommandToServer("USE " + otherName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("INSERT INTO marks VALUES ('Rob', 35);");
+        server = new DBServer();
+        sendCommandToServer("USE " + randomName + ";");
+        assertTrue(sendCommandToServer("CREATE TABLE marks (name);").contains("[ERROR]"), "A table that has not been opened yet still exists");
+        String response = sendCommandToServer("SELECT * FROM marks;");
+        assertTrue(response.contains("Simon") && response.contains("Sion") && response.contains("Rob"), "Rows from the snapshot and the log should be loaded. Response: " + response);
+        assertTrue(sendCommandToServer("DROP TABLE coursework;").contains("[OK]"), "A table can be dropped before it is opened");
+        server = new DBServer();
+        sendCommandToServer("USE " + randomName + ";");
+        assertTrue(sendCommandToServer("SELECT * FROM coursework;").contains("[ERROR]"), "The dropped table should stay dropped");
+        assertTrue(sendCommandToServer("SELECT id FROM marks WHERE name == 'Rob';").contains("3"), "Ids should be kept when a table is opened");
+    }
+
+    // Tables are saved in the binary format; .tab text files still load, and IMPORT / EXPORT convert between the two
+    @Test
+    public void testBinaryTableFilesAndTextImportExport() throws Exception {
+        String randomName = generateRandomName();
+        String otherName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("CREATE DATABASE " + otherName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark, pass, ratio);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65, TRUE, 0.5);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Sion', 55.0, FALSE, 3);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Rob', '', TRUE, 'n/a');");
+        String expected = sendCommandToServer("SELECT * FROM marks;");
+        assertTrue(sendCommandToServer("EXPORT marks TO 'marks-backup.tab';").contains("[OK]"), "EXPORT should succeed");
+        // Switching database writes the snapshots
+        sendCommandToServer("USE " + otherName + ";");
+        Path folder = Paths.get("databases", randomName);
+        assertTrue(Files.exists(folder.resolve("marks.tbl")) && !Files.exists(folder.resolve("marks.tab")), "The table should be saved as a binary file");
+        String legacy = "id\tname\n1\tOXO\n4\tDB\n";
+        Files.write(folder.resolve("coursework.tab"), legacy.getBytes("UTF-8"));
+        server = new DBServer();
+        sendCommandToServer("USE " + randomName + ";");
+        assertTrue(sendCommandToServer("SELECT * FROM marks;").equals(expected), "Cells should keep their text through the binary file");
+        String response = sendCommandToServer("SELECT * FROM coursework WHERE id == 4;");
+        assertTrue(response.contains("DB"), "A legacy .tab file should still load. Response: " + response);
+        assertTrue(sendCommandToServer("IMPORT restored FROM 'marks-backup.tab';").contains("[OK]"), "IMPORT should succeed");
+        assertTrue(sendCommandToServer("IMPORT marks FROM 'marks-backup.tab';").contains("[ERROR]"), "IMPORT must not replace an existing table");
+        assertTrue(sendCommandToServer("IMPORT other FROM '../marks.tbl';").contains("[ERROR]"), "IMPORT files must stay in the exports folder");
+        assertTrue(sendCommandToServer("SELECT * FROM restored;").equals(expected), "The imported table should have the same rows and ids");
+        // Corrupt the stored page: opening the table again must fail the checksum
+        sendCommandToServer("USE " + otherName + ";");
+        byte[] bytes = Files.readAllBytes(folder.resolve("marks.tbl"));
+        bytes[bytes.length - 10] ^= 1;
+        Files.write(folder.resolve("marks.tbl"), bytes);
+        sendCommandToServer("USE " + randomName + ";");
+        assertTrue(sendCommandToServer("SELECT * FROM marks;").contains("[ERROR]"), "A corrupt page should be detected");
+        assertTrue(sendCommandToServer("SELECT * FROM coursework;").contains("OXO"), "Other tables should still load");
+    }
+
+    // With a small buffer pool, tables are evicted (and written back) and opened again without losing changes
+    @Test
+    public void testBufferPoolEvictsTables() {
+        System.setProperty(BufferPool.BUDGET_PROPERTY, "40000");
+        try {
+            server = new DBServer();
+            String randomName = generateRandomName();
+            sendCommandToServer("CREATE DATABASE " + randomName + ";");
+            sendCommandToServer("USE " + randomName + ";");
+            for (int t = 0; t < 3; t++) {
+                sendCommandToServer("CREATE TABLE marks" + t + " (name, mark);");
+                for (int i = 0; i < 150; i++) {
+                    sendCommandToServer("INSERT INTO marks" + t + " VALUES ('student" + i + "', " + i + ");");
+                }
+            }
+            for (int round = 0; round < 3; round++) {
+                for (int t = 0; t < 3; t++) {
+                    sendCommandToServer("UPDATE marks" + t + " SET mark = " + (1000 + round) + " WHERE name == 'student" + round + "';");
+                }
+            }
+            for (int t = 0; t < 3; t++) {
+                String response = sendCommandToServer("SELECT name FROM marks" + t + " WHERE mark >= 1000;");
+                assertTrue(response.split("\n").length == 5, "All three updates of marks" + t + " should be kept. Response: " + response);
+            }
+            BufferPool pool = server.getBufferPool();
+            assertTrue(pool.getEvictions() > 0 && pool.getWriteBacks() > 0, "Tables should have been evicted: " + pool);
+            assertTrue(pool.getMisses() > 3 && pool.getHits() > 0, "Evicted tables should be loaded again: " + pool);
+            server = new DBServer();
+            sendCommandToServer("USE " + randomName + ";");
+            assertTrue(sendCommandToServer("SELECT id FROM marks2 WHERE mark == 1002;").contains("3"), "Written-back changes should survive a restart");
+        } finally {
+            System.clearProperty(BufferPool.BUDGET_PROPERTY);
+        }
+    }
+
+    // Commits from many clients share fsyncs in GROUP mode; ASYNC answers first and SET DURABILITY SYNC flushes it
+    @Test
+    public void testDurabilityModes() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        assertTrue(sendCommandToServer("SET DURABILITY SOMETIMES;").contains("[ERROR]"), "Unknown modes should be rejected");
+        assertTrue(sendCommandToServer("SET DURABILITY group;").contains("[OK]"), "GROUP mode should be accepted");
+        assertTimeoutPreemptively(Duration.ofMillis(10000), () -> {
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                String table = "marks" + t;
+                server.handleCommand("CREATE TABLE " + table + " (name, mark);");
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        server.handleCommand("INSERT INTO " + table + " VALUES ('student" + i + "', " + i + ");");
+                    }
+                }));
+            }
+            for (Thread thread : threads) thread.start();
+            for (Thread thread : threads) thread.join();
+        });
+        CommitStats stats = server.getCommitStats();
+        assertTrue(stats.getCommits(Durability.GROUP) >= 200, "Every INSERT should be committed in GROUP mode");
+        assertTrue(stats.getFsyncs(Durability.GROUP) <= stats.getCommits(Durability.GROUP), "A group commit never needs more than one fsync per commit");
+        sendCommandToServer("SET DURABILITY ASYNC;");
+        sendCommandToServer("INSERT INTO marks0 VALUES ('Late', 99);");
+        String response = sendCommandToServer("SHOW DURABILITY;");
+        assertTrue(response.contains("ASYNC\tTRUE\t1\t"), "SHOW DURABILITY should report the current mode. Response: " + response);
+        sendCommandToServer("SET DURABILITY SYNC;");
+        server = new DBServer();
+        sendCommandToServer("USE " + randomName + ";");
+        assertTrue(sendCommandToServer("SELECT mark FROM marks0 WHERE name == 'Late';").contains("99"), "ASYNC commits should be flushed when switching back to SYNC");
+        assertTrue(sendCommandToServer("SELECT id FROM marks3;").split("\n").length == 52, "All GROUP commits should be in the log");
+    }
+
+    // Changes inside BEGIN ... ROLLBACK are undone; inside BEGIN ... COMMIT they are only logged at COMMIT
+    @Test
+    public void testTransactions() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Sion', 55);");
+        assertTrue(sendCommandToServer("COMMIT;").contains("[ERROR]"), "COMMIT without BEGIN should fail");
+        assertTrue(sendCommandToServer("BEGIN;").contains("[OK]"), "BEGIN should start a transaction");
+        sendCommandToServer("INSERT INTO marks VALUES ('Rob', 35);");
+        sendCommandToServer("UPDATE marks SET mark = 80 WHERE name == 'Simon';");
+        sendCommandToServer("DELETE FROM marks WHERE name == 'Sion';");
+        assertTrue(sendCommandToServer("CREATE TABLE other (a);").contains("[ERROR]"), "Schema changes should be rejected inside a transaction");
+        String response = sendCommandToServer("SELECT * FROM marks;");
+        assertTrue(response.contains("Rob") && response.contains("80") && !response.contains("Sion"), "A transaction should see its own changes");
+        assertTrue(sendCommandToServer("ROLLBACK;").contains("[OK]"), "ROLLBACK should end the transaction");
+        response = sendCommandToServer("SELECT * FROM marks;");
+        assertTrue(!response.contains("Rob") && response.contains("65") && !response.contains("80") && response.contains("Sion"),
+                "ROLLBACK should undo every change of the transaction. Response: " + response);
+
+        sendCommandToServer("BEGIN TRANSACTION;");
+        for (int i = 0; i < 100; i++) {
+            sendCommandToServer("INSERT INTO marks VALUES ('student" + i + "', " + i + ");");
+        }
+        // Nothing is in the log before COMMIT
+        DBServer other = new DBServer();
+        other.handleCommand("USE " + randomName + ";");
+        assertFalse(other.handleCommand("SELECT * FROM marks;").contains("student"), "Uncommitted rows should not be persisted");
+        assertTrue(sendCommandToServer("COMMIT;").contains("[OK]"), "COMMIT should end the transaction");
+        server = new DBServer();
+        sendCommandToServer("USE " + randomName + ";");
+        response = sendCommandToServer("SELECT * FROM marks;");
+        assertTrue(response.split("\n").length == 104, "Committed rows should survive a restart. Response: " + response);
+
+        // Rolling back a DELETE from the middle of a large table puts the rows back in one pass
+        sendCommandToServer("CREATE TABLE big (name, mark);");
+        StringBuilder insert = new StringBuilder("INSERT INTO big VALUES ");
+        for (int i = 0; i < 5000; i++) {
+            if (i > 0) insert.append(", ");
+            insert.append("('s").append(i).append("', ").append(i % 2).append(")");
+        }
+        sendCommandToServer(insert + ";");
+        sendCommandToServer("CREATE INDEX ON big (name);");
+        sendCommandToServer("BEGIN;");
+        sendCommandToServer("DELETE FROM big WHERE mark == 0;");
+        sendCommandToServer("UPDATE big SET mark = 7 WHERE name == 's2001';");
+        assertTrue(countRows("SELECT * FROM big;") == 2500, "Half the rows should be deleted inside the transaction");
+        long start = System.currentTimeMillis();
+        assertTrue(sendCommandToServer("ROLLBACK;").contains("[OK]"), "ROLLBACK should succeed");
+        assertTrue(System.currentTimeMillis() - start < 1000, "Rolling back 2500 deletes should not rebuild the table once per row");
+        assertTrue(countRows("SELECT * FROM big;") == 5000, "Every deleted row should be back");
+        response = sendCommandToServer("SELECT id, mark FROM big WHERE name == 's2000';");
+        assertTrue(response.contains("\n2001\t0"), "A restored row should keep its id and values and be found by the index: " + response);
+        assertTrue(sendCommandToServer("SELECT mark FROM big WHERE name == 's2001';").contains("\n1"), "The update should be undone");
+        response = sendCommandToServer("SELECT id FROM big;");
+        String[] lines = response.trim().split("\n");
+        boolean ordered = true;
+        for (int i = 2; i < lines.length; i++) {
+            ordered = ordered && Integer.parseInt(lines[i].trim()) == i - 1;
+        }
+        assertTrue(ordered, "The restored rows should be back in id order");
+    }
+
+    // INSERT takes several rows at once, and COPY appends the rows of a file to an existing table
+    @Test
+    public void testBulkInsertAndCopy() throws Exception {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark);");
+        assertTrue(sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65), ('Sion', 55), ('Rob', 35);").contains("[OK]"), "A multi-row INSERT should succeed");
+        assertTrue(sendCommandToServer("INSERT INTO marks VALUES ('Chris', 20), ('Bad');").contains("[ERROR]"), "Rows of different lengths should be rejected");
+        assertTrue(sendCommandToServer("INSERT INTO marks VALUES ('Chris', 20, TRUE), ('Bad', 1, TRUE);").contains("[ERROR]"), "Rows with too many values should be rejected");
+        String response = sendCommandToServer("SELECT id FROM marks WHERE name == 'Rob';");
+        assertTrue(response.contains("3") && !sendCommandToServer("SELECT * FROM marks;").contains("Chris"), "A rejected INSERT should not add any row");
+
+        Path file = Paths.get("databases", randomName, "exports", "marks.tab");
+        Files.createDirectories(file.getParent());
+        StringBuilder content = new StringBuilder("mark\tname\n");
+        for (int i = 0; i < 10000; i++) {
+            content.append(i % 100).append("\tstudent").append(i).append("\n");
+        }
+        Files.writeString(file, content);
+        assertTrue(sendCommandToServer("COPY marks FROM 'marks.tab';").contains("[OK]"), "COPY should load the file");
+        assertTrue(sendCommandToServer("SELECT name FROM marks WHERE name == 'student9999';").contains("student9999"), "COPY should map the file's columns by name");
+        Files.writeString(file, "name\tmark\nLate\t1\nBroken\n");
+        assertTrue(sendCommandToServer("COPY marks FROM 'marks.tab';").contains("[ERROR]"), "A malformed line should fail the COPY");
+        assertFalse(sendCommandToServer("SELECT * FROM marks WHERE name == 'Late';").contains("Late"), "A failed COPY should not leave any of its rows");
+        server = new DBServer();
+        sendCommandToServer("USE " + randomName + ";");
+        assertTrue(sendCommandToServer("SELECT id FROM marks;").split("\n").length == 10005, "Copied rows should survive a restart");
+    }
+
+    // Compiled WHERE filters give the same answers on every column type, across several batches of rows
+    @Test
+    public void testCompiledFiltersOnTypedColumns() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark, grade, pass);");
+        StringBuilder insert = new StringBuilder("INSERT INTO marks VALUES ");
+        for (int i = 0; i < 3000; i++) {
+            if (i > 0) insert.append(", ");
+            insert.append("('student").append(i % 10).append("', ").append(i % 100).append(", ")
+                    .append(i % 4 == 0 ? "'A'" : Double.toString(i % 7 + 0.5)).append(", ").append(i % 2 == 0 ? "TRUE" : "FALSE").append(")");
+        }
+        sendCommandToServer(insert + ";");
+        sendCommandToServer("UPDATE marks SET mark = '' WHERE id == 5;");
+        assertTrue(countRows("SELECT id FROM marks WHERE mark >= 90 AND pass == TRUE;") == 150, "Numeric and boolean filters should combine");
+        assertTrue(countRows("SELECT id FROM marks WHERE name == 'student3' AND id > 2000;") == 100, "String and id filters should combine");
+        assertTrue(countRows("SELECT id FROM marks WHERE grade < 2;") == 643, "Numbers in a mixed column should compare as numbers");
+        assertTrue(countRows("SELECT id FROM marks WHERE grade == 'A';") == 750, "Text in a mixed column should compare as text");
+        assertTrue(countRows("SELECT id FROM marks WHERE name LIKE 'ent7';") == 300, "LIKE should match substrings");
+        assertTrue(countRows("SELECT id FROM marks WHERE mark == '';") == 1, "An empty cell should only match an empty literal");
+    }
+
+    // WHERE takes OR, NOT and nested parentheses in SELECT, UPDATE and DELETE, with or without indexes
+    @Test
+    public void testBooleanWhereExpressions() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark, pass);");
+        StringBuilder insert = new StringBuilder("INSERT INTO marks VALUES ");
+        for (int i = 0; i < 2000; i++) {
+            if (i > 0) insert.append(", ");
+            insert.append("('student").append(i % 20).append("', ").append(i % 100).append(", ").append(i % 2 == 0 ? "TRUE" : "FALSE").append(")");
+        }
+        sendCommandToServer(insert + ";");
+        assertTrue(countRows("SELECT id FROM marks WHERE mark == 1 OR mark == 2;") == 40, "OR should return the rows of either side");
+        assertTrue(countRows("SELECT id FROM marks WHERE NOT mark < 90;") == 200, "NOT should invert a condition");
+        assertTrue(countRows("SELECT id FROM marks WHERE (name == 'student1' OR name == 'student2') AND NOT (mark > 50 OR pass == TRUE);") == 60,
+                "Nested parentheses should group AND, OR and NOT");
+        assertTrue(countRows("SELECT id FROM marks WHERE pass == TRUE OR mark == 1 AND name == 'student1';") == 1020, "AND should bind tighter than OR");
+        sendCommandToServer("CREATE INDEX ON marks (name);");
+        sendCommandToServer("CREATE INDEX ON marks (mark) USING ORDERED;");
+        assertTrue(countRows("SELECT id FROM marks WHERE name == 'student3' OR name == 'student4' OR mark >= 99;") == 220, "Indexed disjuncts should be unioned");
+        assertTrue(countRows("SELECT id FROM marks WHERE name == 'student3' AND mark < 50 OR name == 'student5' AND mark > 60;") == 100,
+                "Indexed conjuncts should be intersected");
+        assertTrue(sendCommandToServer("SELECT id FROM marks WHERE (mark == 1 OR;").contains("[ERROR]"), "An incomplete expression should be rejected");
+        sendCommandToServer("UPDATE marks SET pass = FALSE WHERE name == 'student0' OR name == 'student10';");
+        assertTrue(countRows("SELECT id FROM marks WHERE pass == TRUE;") == 800, "UPDATE should accept OR");
+        sendCommandToServer("DELETE FROM marks WHERE NOT (mark < 10 OR mark >= 90);");
+        assertTrue(countRows("SELECT id FROM marks;") == 400, "DELETE should accept NOT and OR");
+    }
+
+    // A parallel scan (forced on with a low threshold) should return the same rows, in the same order, as a serial one
+    @Test
+    public void testParallelScanKeepsOrder() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE readings (sensor, level, ok);");
+        sendCommandToServer("CREATE TABLE sensors (name, room);");
+        StringBuilder insert = new StringBuilder("INSERT INTO readings VALUES ");
+        for (int i = 0; i < 6000; i++) {
+            if (i > 0) insert.append(", ");
+            insert.append("('s").append(i % 30).append("', ").append(i % 97).append(", ").append(i % 3 == 0 ? "TRUE" : "FALSE").append(")");
+        }
+        sendCommandToServer(insert + ";");
+        for (int i = 0; i < 30; i++) {
+            sendCommandToServer("INSERT INTO sensors VALUES ('s" + i + "', 'room" + i % 4 + "');");
+        }
+        String[] queries = {
+            "SELECT * FROM readings;",
+            "SELECT sensor, level FROM readings WHERE level > 40 AND NOT (ok == TRUE OR sensor == 's7');",
+            "SELECT id FROM readings WHERE sensor LIKE '1';",
+            "JOIN readings AND sensors ON sensor AND name;"
+        };
+        String[] serial = new String[queries.length];
+        for (int i = 0; i < queries.length; i++) {
+            serial[i] = sendCommandToServer(queries[i]);
+            assertTrue(serial[i].contains("[OK]"), "Query failed: " + serial[i]);
+        }
+        System.setProperty(ParallelScan.THRESHOLD_PROPERTY, "1000");
+        try {
+            for (int i = 0; i < queries.length; i++) {
+                assertTrue(serial[i].equals(sendCommandToServer(queries[i])), "Parallel result differs for " + queries[i]);
+            }
+            sendCommandToServer("DELETE FROM readings WHERE level < 50;");
+            assertTrue(countRows("SELECT id FROM readings;") == 2900, "A parallel DELETE should remove every matching row");
+        } finally {
+            System.clearProperty(ParallelScan.THRESHOLD_PROPERTY);
+        }
+    }
+
+    // Aggregates are computed by the server, over the whole table or per group (serially and in parallel chunks)
+    @Test
+    public void testAggregatesAndGroupBy() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark, pass);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65, TRUE), ('Sion', 55, TRUE), ('Rob', 35, FALSE), ('Chris', 20, FALSE), ('Anna', '', FALSE);");
+        String response = sendCommandToServer("SELECT COUNT(*), COUNT(mark), SUM(mark), AVG(mark), MIN(mark), MAX(name) FROM marks;");
+        assertTrue(response.contains("COUNT(*)\tCOUNT(mark)\tSUM(mark)\tAVG(mark)\tMIN(mark)\tMAX(name)"), "Aggregates should be labelled in the header: " + response);
+        assertTrue(response.contains("5\t4\t175\t43.75\t20\tSion"), "Aggregates over the whole table were wrong: " + response);
+        response = sendCommandToServer("select pass, count(*), sum(mark) from marks where name != 'Chris' group by pass;");
+        assertTrue(response.contains("TRUE\t2\t120") && response.contains("FALSE\t2\t35"), "GROUP BY should aggregate each group: " + response);
+        assertTrue(response.indexOf("TRUE\t") < response.indexOf("FALSE\t"), "Groups should come out in the order of their first row: " + response);
+        response = sendCommandToServer("SELECT COUNT(*), SUM(mark) FROM marks WHERE mark > 100;");
+        assertTrue(response.contains("SUM(mark)\n0\t"), "Aggregates over no rows should still return one row: " + response);
+        assertTrue(sendCommandToServer("SELECT name, COUNT(*) FROM marks GROUP BY pass;").contains("[ERROR]"), "An ungrouped column should be rejected");
+        assertTrue(sendCommandToServer("SELECT SUM(*) FROM marks;").contains("[ERROR]"), "Only COUNT may take *");
+
+        StringBuilder insert = new StringBuilder("INSERT INTO marks VALUES ");
+        for (int i = 0; i < 5000; i++) {
+            if (i > 0) insert.append(", ");
+            insert.append("('n").append(i % 7).append("', ").append(i % 10).append(", TRUE)");
+        }
+        sendCommandToServer(insert + ";");
+        String query = "SELECT name, COUNT(*), SUM(mark), MIN(mark), MAX(mark) FROM marks WHERE pass == TRUE GROUP BY name;";
+        String serial = sendCommandToServer(query);
+        assertTrue(serial.contains("n3\t714\t3209\t0\t9"), "GROUP BY over many rows was wrong: " + serial);
+        System.setProperty(ParallelScan.THRESHOLD_PROPERTY, "1000");
+        try {
+            assertTrue(serial.equals(sendCommandToServer(query)), "Merging partial aggregates should give the same result");
+        } finally {
+            System.clearProperty(ParallelScan.THRESHOLD_PROPERTY);
+        }
+    }
+
+    // ORDER BY sorts numbers by value and text alphabetically; LIMIT and OFFSET page through the result
+    @Test
+    public void testOrderByLimitOffset() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark, pass);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65, TRUE), ('Sion', 9, TRUE), ('Rob', 100, FALSE), ('Chris', 9, FALSE), ('Anna', 'absent', FALSE);");
+        String response = sendCommandToServer("SELECT name FROM marks ORDER BY mark;");
+        assertTrue(response.contains("name\nSion\nChris\nSimon\nRob\nAnna"), "Numbers should sort by value before text, ties in table order: " + response);
+        response = sendCommandToServer("SELECT name, mark FROM marks ORDER BY pass DESC, mark DESC;");
+        assertTrue(response.contains("Simon\t65\nSion\t9\nAnna\tabsent\nRob\t100\nChris\t9"), "Each key should have its own direction: " + response);
+        response = sendCommandToServer("SELECT name FROM marks ORDER BY name LIMIT 2 OFFSET 1;");
+        assertTrue(response.trim().endsWith("name\nChris\nRob"), "LIMIT and OFFSET should cut out one page: " + response);
+        response = sendCommandToServer("SELECT name FROM marks WHERE pass == FALSE LIMIT 2;");
+        assertTrue(response.trim().endsWith("name\nRob\nChris"), "LIMIT without ORDER BY should keep table order: " + response);
+        assertTrue(sendCommandToServer("SELECT name FROM marks LIMIT -1;").contains("[ERROR]"), "A negative LIMIT should be rejected");
+        assertTrue(sendCommandToServer("SELECT name FROM marks ORDER BY age;").contains("[ERROR]"), "An unknown ORDER BY column should be rejected");
+        response = sendCommandToServer("SELECT pass, COUNT(*) FROM marks GROUP BY pass ORDER BY COUNT(*) DESC LIMIT 1;");
+        assertTrue(response.trim().endsWith("FALSE\t3"), "Groups should be sortable by an aggregate: " + response);
+
+        // The same pages should come back when they are read through an ordered index
+        StringBuilder insert = new StringBuilder("INSERT INTO marks VALUES ");
+        for (int i = 0; i < 3000; i++) {
+            if (i > 0) insert.append(", ");
+            insert.append("('n").append(i).append("', ").append((i * 37) % 101).append(", ").append(i % 2 == 0 ? "TRUE" : "FALSE").append(")");
+        }
+        sendCommandToServer(insert + ";");
+        String[] queries = {
+            "SELECT id, mark FROM marks ORDER BY mark LIMIT 20 OFFSET 30;",
+            "SELECT id, mark FROM marks WHERE pass == TRUE ORDER BY mark DESC LIMIT 25;",
+            "SELECT id, mark FROM marks ORDER BY mark DESC;"
+        };
+        String[] sorted = new String[queries.length];
+        for (int i = 0; i < queries.length; i++) {
+            sorted[i] = sendCommandToServer(queries[i]);
+        }
+        assertTrue(sorted[0].trim().split("\n").length == 22, "LIMIT should return a full page: " + sorted[0]);
+        sendCommandToServer("CREATE INDEX ON marks (mark) USING ORDERED;");
+        for (int i = 0; i < queries.length; i++) {
+            assertTrue(sorted[i].equals(sendCommandToServer(queries[i])), "Reading through the index changed the result of " + queries[i]);
+        }
+    }
+
+    // SHOW STATS counts each kind of command; with a zero threshold every command goes to the slow-query log
+    @Test
+    public void testShowStatsAndSlowQueryLog() throws Exception {
+        System.setProperty(QueryStats.SLOW_QUERY_PROPERTY, "0");
+        try {
+            server = new DBServer();
+            String randomName = generateRandomName();
+            sendCommandToServer("CREATE DATABASE " + randomName + ";");
+            sendCommandToServer("USE " + randomName + ";");
+            sendCommandToServer("CREATE TABLE marks (name, mark);");
+            sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65), ('Sion', 55), ('Rob', 35);");
+            sendCommandToServer("SELECT name FROM marks WHERE mark > 60;");
+            sendCommandToServer("SELECT name FROM nothing WHERE;");
+            String response = sendCommandToServer("SHOW STATS;");
+            assertTrue(response.startsWith("[OK]\ncommand\tcount\terrors"), "SHOW STATS should return a table: " + response);
+            // command, count, errors, slow, 5 latency columns, rows scanned, rows returned, bytes
+            assertTrue(response.matches("(?s).*\nSELECT\t1\t0\t1(\t\\d+){5}\t3\t1\t\\d+\n.*"), "The SELECT should scan 3 rows and return 1: " + response);
+            assertTrue(response.contains("\nINVALID\t1\t1\t"), "A command that does not parse should be an error: " + response);
+            assertTrue(server.getQueryStats().getCommands() == 7, "Every command should be counted");
+
+            // The log is written in the background
+            Path log = Paths.get("databases", "slow-queries.log");
+            long deadline = System.currentTimeMillis() + 5000;
+            String text = "";
+            while (!text.contains(randomName) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+                text = Files.exists(log) ? Files.readString(log) : "";
+            }
+            assertTrue(text.contains("\"command\":\"SELECT\"") && text.contains("\"database\":\"" + randomName + "\""),
+                    "Slow queries should be logged as JSON lines: " + text);
+        } finally {
+            System.clearProperty(QueryStats.SLOW_QUERY_PROPERTY);
+        }
+    }
+
+    // EXPLAIN shows the access path, predicate order and join algorithm; EXPLAIN ANALYZE also runs the command
+    @Test
+    public void testExplainAndExplainAnalyze() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark, pass);");
+        StringBuilder insert = new StringBuilder("INSERT INTO marks VALUES ");
+        for (int i = 0; i < 300; i++) {
+            if (i > 0) insert.append(", ");
+            insert.append("('n").append(i % 30).append("', ").append(i % 100).append(", ").append(i % 2 == 0 ? "TRUE" : "FALSE").append(")");
+        }
+        sendCommandToServer(insert + ";");
+        sendCommandToServer("CREATE TABLE teams (code, city);");
+        sendCommandToServer("INSERT INTO teams VALUES ('n1', 'Bristol'), ('n2', 'Bath');");
+
+        String response = sendCommandToServer("EXPLAIN SELECT name FROM marks WHERE mark > 90 AND name == 'n1';");
+        assertTrue(response.startsWith("[OK]\noperator\tdetail\testimatedRows\n"), "EXPLAIN should return a table: " + response);
+        assertTrue(response.contains("\nSCAN\tmarks (300 rows)\t300\n"), "Without an index the table is scanned: " + response);
+        assertTrue(response.contains("\nFILTER\t(name == 'n1' AND mark > 90)\t1\n"), "The cheaper, more selective predicate should run first: " + response);
+        sendCommandToServer("CREATE INDEX ON marks (name);");
+        response = sendCommandToServer("EXPLAIN SELECT name FROM marks WHERE name == 'n3' ORDER BY mark DESC LIMIT 2;");
+        assertTrue(response.contains("\nINDEX SEEK\tmarks on name == 'n3'\t10\n"), "The hash index should be used: " + response);
+        assertTrue(response.contains("\nTOP-N SORT\tmark DESC\t") && response.contains("\nLIMIT\tOFFSET 0 LIMIT 2\t2\n"), "ORDER BY with LIMIT should keep the top rows: " + response);
+        response = sendCommandToServer("EXPLAIN JOIN marks AND teams ON name AND code;");
+        assertTrue(response.contains("\nHASH JOIN\tmarks.name = teams.code, build teams (2 rows), probe marks (300 rows)\t"), "The smaller table should be built: " + response);
+        assertTrue(sendCommandToServer("EXPLAIN SELECT age FROM marks;").contains("[ERROR]"), "An unknown column should be an error");
+        assertTrue(sendCommandToServer("EXPLAIN CREATE TABLE x;").contains("[ERROR]"), "Only SELECT, UPDATE, DELETE and JOIN can be explained");
+
+        response = sendCommandToServer("EXPLAIN ANALYZE SELECT name FROM marks WHERE mark > 90 AND pass == TRUE;");
+        assertTrue(response.contains("\tactualRows\tmicros\n"), "EXPLAIN ANALYZE should add the actual rows and time: " + response);
+        assertTrue(response.matches("(?s).*\nSCAN\t[^\t]*\t300\t300\t\\d+\n.*"), "Every row should be scanned: " + response);
+        assertTrue(response.matches("(?s).*\nFILTER\t[^\t]*\t\\d+\t12\t\\d+\nOUTPUT\tname\t\\d+\t12\t\\d+\n"), "12 rows match: " + response);
+        response = sendCommandToServer("EXPLAIN ANALYZE DELETE FROM marks WHERE name == 'n3';");
+        assertTrue(response.matches("(?s).*\nDELETE\tmarks\t10\t10\t\\d+\n"), "EXPLAIN ANALYZE should really delete: " + response);
+        assertTrue(countRows("SELECT * FROM marks;") == 290, "The deleted rows should be gone");
+        response = sendCommandToServer("EXPLAIN ANALYZE JOIN marks AND teams ON name AND code;");
+        assertTrue(response.matches("(?s).*\nHASH JOIN\t[^\t]*\t19\t20\t\\d+\nOUTPUT\t[^\t]*\t19\t20\t\\d+\n"), "Both teams should match 10 rows each: " + response);
+    }
+
+    // ANALYZE rebuilds the statistics; the planner uses them for estimates, index or scan and the join algorithm
+    @Test
+    public void testAnalyzeAndCostBasedPlanner() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE items (kind, code, score);");
+        sendCommandToServer("CREATE TABLE orders (item);");
+        StringBuilder items = new StringBuilder("INSERT INTO items VALUES ");
+        StringBuilder orders = new StringBuilder("INSERT INTO orders VALUES ");
+        for (int i = 0; i < 200; i++) {
+            if (i > 0) items.append(", ");
+            if (i > 0) orders.append(", ");
+            items.append("('").append(i % 2 == 0 ? "x" : "y").append("', 'c").append(i).append("', ").append(i < 180 ? 5 : 100 + i - 180).append(")");
+            orders.append("('c").append(199 - i).append("')");
+        }
+        sendCommandToServer(items + ";");
+        sendCommandToServer(orders + ";");
+        sendCommandToServer("CREATE INDEX ON items (kind);");
+        sendCommandToServer("CREATE INDEX ON items (code);");
+
+        String response = sendCommandToServer("EXPLAIN SELECT * FROM items WHERE kind == 'x';");
+        assertTrue(response.contains("\nSCAN\titems (200 rows)\t200\n"), "Half the rows match, so scanning is cheaper: " + response);
+        response = sendCommandToServer("EXPLAIN SELECT * FROM items WHERE code == 'c7';");
+        assertTrue(response.contains("\nINDEX SEEK\titems on code == 'c7'\t1\n"), "A selective predicate should use the index: " + response);
+        assertTrue(countRows("SELECT * FROM items WHERE kind == 'x';") == 100, "The scan should still find every row");
+        response = sendCommandToServer("EXPLAIN SELECT * FROM items WHERE score == 5;");
+        assertTrue(response.contains("\nFILTER\tscore == 5\t10\n"), "Without a histogram each of the 21 values is as likely: " + response);
+
+        response = sendCommandToServer("ANALYZE items;");
+        assertTrue(response.startsWith("[OK]\ncolumn\tdistinct\tnumbers\tempty\tmin\tmax\thistogram\n"), "ANALYZE should show the statistics: " + response);
+        assertTrue(response.contains("\nkind\t2\t0\t0\t\t\t\n"), "kind has two text values: " + response);
+        assertTrue(response.contains("\nscore\t21\t200\t0\t5\t119\t5 5 5 "), "score should have a histogram: " + response);
+        response = sendCommandToServer("EXPLAIN SELECT * FROM items WHERE score == 5;");
+        assertTrue(response.contains("\nFILTER\tscore == 5\t175\n"), "The histogram should show that 5 is common: " + response);
+        response = sendCommandToServer("EXPLAIN SELECT * FROM items WHERE score > 200;");
+        assertTrue(response.contains("\nFILTER\tscore > 200\t0\n"), "Nothing is above the maximum: " + response);
+
+        response = sendCommandToServer("EXPLAIN JOIN items AND orders ON code AND item;");
+        assertTrue(response.contains("\nHASH JOIN\titems.code = orders.item, build orders (200 rows)"), "Equal sizes build the right table: " + response);
+        sendCommandToServer("CREATE INDEX ON items (code) USING ORDERED;");
+        sendCommandToServer("CREATE INDEX ON orders (item) USING ORDERED;");
+        response = sendCommandToServer("EXPLAIN JOIN items AND orders ON code AND item;");
+        assertTrue(response.contains("\nMERGE JOIN\titems.code = orders.item, over both ordered indexes\t200\n"), "Two unique ordered indexes should be merged: " + response);
+        assertTrue(countRows("JOIN items AND orders ON code AND item;") == 200, "Every order should match one item");
+
+        assertTrue(sendCommandToServer("ANALYZE;").startsWith("[OK]"), "ANALYZE without a table should analyze them all");
+        assertTrue(sendCommandToServer("ANALYZE missing;").contains("[ERROR]"), "An unknown table should be an error");
+        sendCommandToServer("BEGIN;");
+        assertTrue(sendCommandToServer("ANALYZE items;").contains("[ERROR]"), "ANALYZE cannot run inside a transaction");
+        sendCommandToServer("ROLLBACK;");
+    }
+
+    // A trigram index answers LIKE with the rows holding every trigram of the literal, and is kept up to date
+    @Test
+    public void testTrigramIndexForLike() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE people (name, email);");
+        StringBuilder insert = new StringBuilder("INSERT INTO people VALUES ");
+        for (int i = 0; i < 300; i++) {
+            if (i > 0) insert.append(", ");
+            insert.append("('p").append(i).append("', 'user").append(i).append("@example.com')");
+        }
+        sendCommandToServer(insert + ";");
+        assertTrue(sendCommandToServer("CREATE INDEX ON people (email) USING TRIGRAM;").startsWith("[OK]"), "A trigram index should be created");
+
+        String response = sendCommandToServer("EXPLAIN SELECT name FROM people WHERE email LIKE 'user12@';");
+        assertTrue(response.contains("\nINDEX SEEK\tpeople on email LIKE 'user12@'\t1\n"), "LIKE should use the trigram index: " + response);
+        assertTrue(countRows("SELECT name FROM people WHERE email LIKE 'user12@';") == 1, "Only user12 should match");
+        assertTrue(countRows("SELECT name FROM people WHERE email LIKE 'user1';") == 111, "1, 10-19 and 100-199 should match");
+        assertTrue(sendCommandToServer("EXPLAIN SELECT name FROM people WHERE email LIKE 'example';").contains("\nSCAN\t"), "A literal in most rows should scan");
+        assertTrue(sendCommandToServer("EXPLAIN SELECT name FROM people WHERE email LIKE 'r1';").contains("\nSCAN\t"), "A literal under three characters should scan");
+        assertTrue(countRows("SELECT name FROM people WHERE email LIKE 'r1';") == 111, "Short literals should still match");
+
+        sendCommandToServer("UPDATE people SET email = 'zed@nowhere.org' WHERE name == 'p5';");
+        sendCommandToServer("DELETE FROM people WHERE name == 'p12';");
+        assertTrue(countRows("SELECT name FROM people WHERE email LIKE 'zed@now';") == 1, "An updated cell should be found");
+        assertTrue(countRows("SELECT name FROM people WHERE email LIKE 'user5@';") == 0, "The old value should be gone");
+        assertTrue(countRows("SELECT name FROM people WHERE email LIKE 'user12@';") == 0, "A deleted row should be gone");
+
+        // The index is rebuilt when the database is opened again
+        server = new DBServer();
+        sendCommandToServer("USE " + randomName + ";");
+        response = sendCommandToServer("EXPLAIN SELECT name FROM people WHERE email LIKE 'user13@';");
+        assertTrue(response.contains("\nINDEX SEEK\tpeople on email LIKE 'user13@'\t1\n"), "The index should survive a restart: " + response);
+        assertTrue(countRows("SELECT name FROM people WHERE email LIKE 'zed@now';") == 1, "The update should survive a restart");
+    }
+
+    // Closing a database stops its background checkpointer, so opening and closing does not leak threads
+    @Test
+    public void testCloseStopsCheckpointer() throws Exception {
+        Path folder = Paths.get("databases", generateRandomName());
+        Files.createDirectories(folder);
+        long before = countCheckpointerThreads();
+        for (int i = 0; i < 20; i++) {
+            DatabaseManager manager = new DatabaseManager(folder.toString());
+            manager.openDatabase();
+            manager.openDatabase();
+            manager.close();
+        }
+        assertTrue(countCheckpointerThreads() <= before, "No wal-checkpointer threads should be left after close");
+        DatabaseManager manager = new DatabaseManager(folder.toString());
+        manager.openDatabase();
+        assertTrue(countCheckpointerThreads() == before + 2, "Opening again should start the checkpointer");
+        manager.close();
+    }
+
+    private static long countCheckpointerThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.isAlive() && thread.getName().equals("wal-checkpointer")).count();
+    }
+
+    // NaN is unordered: only != holds for it, whether the table is scanned or an ordered index is used
+    @Test
+    public void testNaNComparesLikeBaseline() {
+        String randomName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + randomName + ";");
+        sendCommandToServer("USE " + randomName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark);");
+        StringBuilder insert = new StringBuilder("INSERT INTO marks VALUES ");
+        for (int i = 0; i < 200; i++) {
+            insert.append("('s").append(i).append("', ").append(i).append(".5), ");
+        }
+        sendCommandToServer(insert + "('nan1', 'NaN'), ('nan2', 'NaN');");
+        String[] queries = {"mark > 'NaN'", "mark >= 'NaN'", "mark < 'NaN'", "mark == 'NaN'", "mark != 'NaN'",
+                "mark > 197", "mark <= 1", "mark == 3.5", "mark != 3.5"};
+        int[] expected = {0, 0, 0, 0, 202, 3, 1, 1, 201};
+        String[] scanned = new String[queries.length];
+        for (int i = 0; i < queries.length; i++) {
+            scanned[i] = sendCommandToServer("SELECT name FROM marks WHERE " + queries[i] + ";");
+            assertTrue(countRows("SELECT name FROM marks WHERE " + queries[i] + ";") == expected[i],
+                    queries[i] + " should match " + expected[i] + " rows: " + scanned[i]);
+        }
+        sendCommandToServer("CREATE INDEX ON marks (mark) USING ORDERED;");
+        assertTrue(sendCommandToServer("EXPLAIN SELECT name FROM marks WHERE mark > 197;").contains("\nINDEX SEEK\t"),
+                "The ordered index should be used for a selective range");
+        for (int i = 0; i < queries.length; i++) {
+            String indexed = sendCommandToServer("SELECT name FROM marks WHERE " + queries[i] + ";");
+            assertTrue(indexed.equals(scanned[i]), queries[i] + " should give the same rows with the index: " + indexed);
+        }
+    }
+
+    // Number of data rows in a SELECT response (without the [OK] and header lines)
+    private int countRows(String command) {
+        String response = sendCommandToServer(command);
+        assertTrue(response.contains("[OK]"), "Query failed: " + response);
+        return response.trim().split("\n").length - 2;
     }
-}
+}
\ No newline at end of file